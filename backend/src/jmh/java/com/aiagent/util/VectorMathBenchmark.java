@@ -0,0 +1,153 @@
+package com.aiagent.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 向量计算微基准
+ *
+ * - dot*：同一组向量上比较朴素循环、四路展开标量实现和 SIMD 内核的点积耗时
+ * - mmr*：比较 {@link MmrSelector}（增量维护最大相似度，O(k·n) 次点积）与逐轮重算的朴素 MMR（O(k²·n)）
+ * 数据用固定种子生成，结果可复现。运行方式见 pom.xml 中的 benchmark profile。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VectorMathBenchmark {
+
+    private static final long SEED = 20261019L;
+
+    /**
+     * 向量维度（nomic-embed-text 为 768）
+     */
+    @Param({"384", "768", "1024"})
+    private int dimensions;
+
+    /**
+     * MMR 候选数量
+     */
+    @Param({"50", "200"})
+    private int candidates;
+
+    /**
+     * MMR 选择数量
+     */
+    @Param({"10"})
+    private int k;
+
+    private float[] a;
+    private float[] b;
+    private float[][] vectors;
+    private float[] relevance;
+    private VectorMath.Kernel simd;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        SplittableRandom random = new SplittableRandom(SEED);
+        a = randomVector(random, dimensions);
+        b = randomVector(random, dimensions);
+        vectors = new float[candidates][];
+        relevance = new float[candidates];
+        for (int i = 0; i < candidates; i++) {
+            // 每 4 个候选共用一个基向量，模拟相邻重叠分块高度相似的情况
+            vectors[i] = i % 4 == 0 ? randomVector(random, dimensions) : perturb(random, vectors[i - i % 4]);
+            relevance[i] = (float) random.nextDouble();
+        }
+        simd = (VectorMath.Kernel) Class.forName("com.aiagent.util.SimdVectorKernel")
+                .getDeclaredConstructor().newInstance();
+    }
+
+    @Benchmark
+    public float dotNaive() {
+        float sum = 0f;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float dotScalar() {
+        return VectorMath.scalarDot(a, b);
+    }
+
+    @Benchmark
+    public float dotSimd() {
+        return simd.dot(a, b);
+    }
+
+    @Benchmark
+    public int[] mmrSelector() {
+        return MmrSelector.select(vectors, relevance, k, 0.7f);
+    }
+
+    @Benchmark
+    public int[] mmrNaive() {
+        int n = relevance.length;
+        int count = Math.min(k, n);
+        int[] selected = new int[count];
+        boolean[] taken = new boolean[n];
+        for (int round = 0; round < count; round++) {
+            int best = -1;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                if (taken[i]) {
+                    continue;
+                }
+                float maxSimilarity = 0f;
+                for (int j = 0; j < round; j++) {
+                    maxSimilarity = Math.max(maxSimilarity, cosine(vectors[i], vectors[selected[j]]));
+                }
+                float score = 0.7f * relevance[i] - 0.3f * maxSimilarity;
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            selected[round] = best;
+            taken[best] = true;
+        }
+        return selected;
+    }
+
+    private static float cosine(float[] x, float[] y) {
+        float dot = 0f;
+        float nx = 0f;
+        float ny = 0f;
+        for (int i = 0; i < x.length; i++) {
+            dot += x[i] * y[i];
+            nx += x[i] * x[i];
+            ny += y[i] * y[i];
+        }
+        return (float) (dot / Math.sqrt((double) nx * ny));
+    }
+
+    private static float[] randomVector(SplittableRandom random, int dimensions) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) (random.nextDouble() * 2 - 1);
+        }
+        return vector;
+    }
+
+    private static float[] perturb(SplittableRandom random, float[] base) {
+        float[] vector = new float[base.length];
+        for (int i = 0; i < base.length; i++) {
+            vector[i] = base[i] + (float) (random.nextDouble() * 0.2 - 0.1);
+        }
+        return vector;
+    }
+}
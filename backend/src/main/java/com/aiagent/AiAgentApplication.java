@@ -2,6 +2,7 @@ package com.aiagent;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * AI Agent 应用主类
@@ -10,6 +11,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
  * @date 2025-11-29
  */
 @SpringBootApplication
+@EnableScheduling
 public class AiAgentApplication {
 
     public static void main(String[] args) {
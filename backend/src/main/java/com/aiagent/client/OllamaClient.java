@@ -0,0 +1,357 @@
+package com.aiagent.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Ollama HTTP 客户端
+ *
+ * 所有 Ollama 调用共用一个 JDK HttpClient：HTTP/1.1 长连接复用（连接池由 HttpClient 内部维护，
+ * 空闲超时和池大小通过 JVM 参数 jdk.httpclient.keepalive.timeout、jdk.httpclient.connectionPoolSize 调整），
+ * 请求在虚拟线程上执行。每类操作有独立的超时（超时指等待响应头的时间，流式响应开始后不再受限）和一组节点，
+ * 节点选择、亲和与被动摘除见 {@link OllamaNodePool}；连接失败（请求未到达节点）时换一个节点重试一次。
+ * 指标：ollama.client.requests（operation、outcome、node）、ollama.client.in-flight（operation）。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public class OllamaClient implements AutoCloseable {
+
+    /**
+     * 调用类别
+     */
+    public enum Operation {
+        /**
+         * 文本生成（/api/generate，含流式）
+         */
+        GENERATE,
+        /**
+         * 向量嵌入（/api/embeddings、/api/embed）
+         */
+        EMBED,
+        /**
+         * 服务探测（/api/tags 等）
+         */
+        HEALTH
+    }
+
+    /**
+     * 单类操作的节点地址与超时
+     */
+    public record Endpoint(List<String> baseUrls, Duration timeout) {
+    }
+
+    /**
+     * 多节点负载均衡参数
+     *
+     * @param failureThreshold 连续失败多少次后摘除节点
+     * @param ejection 摘除时长
+     * @param affinity 是否按亲和 key（如对话ID）固定节点
+     * @param affinityLoadFactor 亲和节点的负载上限（可用节点平均未完成请求数的倍数），超过时顺延到下一个节点
+     */
+    public record Balancing(int failureThreshold, Duration ejection, boolean affinity, double affinityLoadFactor) {
+    }
+
+    /**
+     * NDJSON 流式响应的逐行处理器
+     *
+     * @param <T> 处理结果类型
+     */
+    @FunctionalInterface
+    public interface LineHandler<T> {
+        /**
+         * 处理一行 JSON
+         *
+         * @return 非 null 时结束读取并作为结果返回
+         */
+        T onLine(JsonNode line);
+    }
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+    private final Map<Operation, Endpoint> endpoints;
+    private final OllamaNodePool pool;
+    private final MeterRegistry meterRegistry;
+    private final Map<Operation, AtomicInteger> inFlight = new EnumMap<>(Operation.class);
+
+    /**
+     * @param connectTimeout 建立连接超时
+     * @param endpoints 每类操作的节点地址与超时（必须覆盖所有操作）
+     * @param balancing 多节点负载均衡参数
+     * @param meterRegistry 指标注册表，可以为 null
+     */
+    public OllamaClient(Duration connectTimeout, Map<Operation, Endpoint> endpoints, Balancing balancing,
+            MeterRegistry meterRegistry) {
+        Map<Operation, List<String>> baseUrls = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            if (!endpoints.containsKey(operation)) {
+                throw new IllegalArgumentException("缺少 Ollama 服务配置: " + operation);
+            }
+            baseUrls.put(operation, endpoints.get(operation).baseUrls());
+            AtomicInteger counter = new AtomicInteger();
+            inFlight.put(operation, counter);
+            if (meterRegistry != null) {
+                meterRegistry.gauge("ollama.client.in-flight", Tags.of("operation", tag(operation)), counter);
+            }
+        }
+        this.endpoints = new EnumMap<>(endpoints);
+        this.pool = new OllamaNodePool(baseUrls, balancing.failureThreshold(), balancing.ejection().toMillis(),
+                balancing.affinity(), balancing.affinityLoadFactor());
+        this.meterRegistry = meterRegistry;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * POST JSON 请求并读取完整 JSON 响应
+     *
+     * @param operation 调用类别
+     * @param path 接口路径，如 /api/generate
+     * @param body 请求体（序列化为 JSON）
+     * @return 响应 JSON
+     */
+    public JsonNode post(Operation operation, String path, Object body) {
+        return post(operation, path, body, null);
+    }
+
+    /**
+     * POST JSON 请求并读取完整 JSON 响应，多节点时按亲和 key 固定节点
+     *
+     * @param affinityKey 亲和 key（如对话ID），可以为 null
+     */
+    public JsonNode post(Operation operation, String path, Object body, String affinityKey) {
+        HttpRequest.BodyPublisher publisher = jsonBody(body);
+        return execute(operation, path, affinityKey, builder -> builder.POST(publisher), this::readJson);
+    }
+
+    /**
+     * GET 请求并读取完整 JSON 响应
+     */
+    public JsonNode get(Operation operation, String path) {
+        return execute(operation, path, null, HttpRequest.Builder::GET, this::readJson);
+    }
+
+    /**
+     * POST JSON 请求并逐行读取 NDJSON 流式响应
+     *
+     * 处理器抛出的异常原样抛出，此时连接随即关闭（Ollama 随之停止生成）。
+     *
+     * @return 处理器返回的第一个非 null 结果
+     * @throws OllamaException 流在处理器返回结果前结束
+     */
+    public <T> T postStream(Operation operation, String path, Object body, LineHandler<T> handler) {
+        return postStream(operation, path, body, null, handler);
+    }
+
+    /**
+     * POST JSON 请求并逐行读取 NDJSON 流式响应，多节点时按亲和 key 固定节点
+     *
+     * @param affinityKey 亲和 key（如对话ID），可以为 null
+     */
+    public <T> T postStream(Operation operation, String path, Object body, String affinityKey,
+            LineHandler<T> handler) {
+        HttpRequest.BodyPublisher publisher = jsonBody(body);
+        return execute(operation, path, affinityKey, builder -> builder.POST(publisher), stream -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    T result = handler.onLine(OBJECT_MAPPER.readTree(line));
+                    if (result != null) {
+                        return result;
+                    }
+                }
+            }
+            throw new OllamaException(-1, "Ollama 流式响应提前结束: " + path);
+        });
+    }
+
+    /**
+     * 所有节点地址
+     */
+    public List<String> nodes() {
+        return pool.nodes().stream().map(OllamaNodePool.Node::baseUrl).toList();
+    }
+
+    /**
+     * 某类操作配置的节点数
+     */
+    public int nodeCount(Operation operation) {
+        return pool.size(operation);
+    }
+
+    /**
+     * 探测节点是否可用（GET /api/tags，使用探测超时）
+     */
+    public boolean probe(String baseUrl) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/tags"))
+                .timeout(endpoints.get(Operation.HEALTH).timeout())
+                .GET()
+                .build();
+        try {
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() / 100 == 2;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 更新节点健康状态（由健康检查调用）
+     */
+    public void setHealthy(String baseUrl, boolean healthy) {
+        OllamaNodePool.Node node = pool.node(baseUrl);
+        if (node != null) {
+            pool.setHealthy(node, healthy);
+        }
+    }
+
+    /**
+     * 节点当前是否可接收请求（健康检查通过且未被摘除）
+     */
+    public boolean isAvailable(String baseUrl) {
+        OllamaNodePool.Node node = pool.node(baseUrl);
+        return node != null && node.available(System.currentTimeMillis());
+    }
+
+    /**
+     * 节点上未完成的请求数
+     */
+    public int outstanding(String baseUrl) {
+        OllamaNodePool.Node node = pool.node(baseUrl);
+        return node != null ? node.outstanding() : 0;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private <T> T execute(Operation operation, String path, String affinityKey,
+            Function<HttpRequest.Builder, HttpRequest.Builder> method, BodyReader<T> reader) {
+        Set<OllamaNodePool.Node> failed = new HashSet<>();
+        int attempts = Math.min(2, pool.size(operation));
+        while (true) {
+            OllamaNodePool.Node node = pool.select(operation, affinityKey, failed);
+            try {
+                return execute(operation, node, method.apply(newRequest(operation, node, path)).build(), reader);
+            } catch (OllamaException e) {
+                // 连接未建立时请求没有到达节点，可以安全地换一个节点重试
+                boolean notConnected = e.getCause() instanceof ConnectException
+                        || e.getCause() instanceof HttpConnectTimeoutException;
+                failed.add(node);
+                if (!notConnected || failed.size() >= attempts) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private HttpRequest.Builder newRequest(Operation operation, OllamaNodePool.Node node, String path) {
+        return HttpRequest.newBuilder(URI.create(node.baseUrl() + path))
+                .timeout(endpoints.get(operation).timeout())
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json");
+    }
+
+    private <T> T execute(Operation operation, OllamaNodePool.Node node, HttpRequest request,
+            BodyReader<T> reader) {
+        AtomicInteger counter = inFlight.get(operation);
+        counter.incrementAndGet();
+        pool.acquire(node);
+        long start = System.nanoTime();
+        String outcome = "error";
+        boolean nodeFailed = false;
+        try {
+            HttpResponse<InputStream> response =
+                    httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            outcome = String.valueOf(response.statusCode());
+            nodeFailed = response.statusCode() >= 500;
+            try (InputStream stream = response.body()) {
+                if (response.statusCode() / 100 != 2) {
+                    String error = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+                    throw new OllamaException(response.statusCode(), "Ollama 调用失败，状态码: "
+                            + response.statusCode() + "，" + request.uri().getPath() + " " + error);
+                }
+                return reader.read(stream);
+            }
+        } catch (IOException e) {
+            nodeFailed = true;
+            throw new OllamaException("Ollama 调用失败: " + request.uri() + "，" + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OllamaException("Ollama 调用被中断: " + request.uri().getPath(), e);
+        } finally {
+            counter.decrementAndGet();
+            pool.release(node, nodeFailed);
+            if (meterRegistry != null) {
+                Timer.builder("ollama.client.requests")
+                        .tag("operation", tag(operation))
+                        .tag("outcome", outcome)
+                        .tag("node", node.baseUrl())
+                        .register(meterRegistry)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private JsonNode readJson(InputStream stream) throws IOException {
+        return OBJECT_MAPPER.readTree(stream);
+    }
+
+    private static HttpRequest.BodyPublisher jsonBody(Object body) {
+        try {
+            return HttpRequest.BodyPublishers.ofByteArray(OBJECT_MAPPER.writeValueAsBytes(body));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("请求体无法序列化为 JSON", e);
+        }
+    }
+
+    private static String tag(Operation operation) {
+        return operation.name().toLowerCase(Locale.ROOT);
+    }
+
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(InputStream stream) throws IOException;
+    }
+}
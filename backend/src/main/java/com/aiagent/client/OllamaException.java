@@ -0,0 +1,35 @@
+package com.aiagent.client;
+
+/**
+ * Ollama 调用异常
+ *
+ * 服务端返回非 2xx 状态码时 statusCode 为该状态码；连接失败、超时等网络错误时为 -1。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public class OllamaException extends RuntimeException {
+
+    private final int statusCode;
+
+    public OllamaException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public OllamaException(String message, Throwable cause) {
+        super(message, cause);
+        this.statusCode = -1;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * 接口不存在（旧版本 Ollama 不支持的接口）
+     */
+    public boolean isNotFound() {
+        return statusCode == 404;
+    }
+}
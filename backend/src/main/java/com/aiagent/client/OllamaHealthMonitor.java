@@ -0,0 +1,53 @@
+package com.aiagent.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Ollama 节点健康检查
+ *
+ * 定期并行探测每个节点的 /api/tags：探测失败的节点不再接收请求，直到再次探测成功
+ * （连续调用失败触发的被动摘除按摘除时长恢复，见 {@link OllamaNodePool}）。
+ * 指标：ollama.node.available（1 可接收请求，0 不可用）、ollama.node.outstanding（未完成请求数）。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+public class OllamaHealthMonitor {
+
+    private final OllamaClient ollamaClient;
+
+    public OllamaHealthMonitor(OllamaClient ollamaClient, MeterRegistry meterRegistry) {
+        this.ollamaClient = ollamaClient;
+
+        if (meterRegistry != null) {
+            for (String node : ollamaClient.nodes()) {
+                Gauge.builder("ollama.node.available", ollamaClient, client -> client.isAvailable(node) ? 1 : 0)
+                        .tag("node", node).register(meterRegistry);
+                Gauge.builder("ollama.node.outstanding", ollamaClient, client -> client.outstanding(node))
+                        .tag("node", node).register(meterRegistry);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${spring.ai.ollama.pool.health-check-interval:10000}")
+    public void check() {
+        List<String> nodes = ollamaClient.nodes();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String node : nodes) {
+                executor.execute(() -> {
+                    boolean healthy = ollamaClient.probe(node);
+                    ollamaClient.setHealthy(node, healthy);
+                    log.debug("Ollama 节点 {} 健康检查: {}", node, healthy ? "正常" : "失败");
+                });
+            }
+        }
+    }
+}
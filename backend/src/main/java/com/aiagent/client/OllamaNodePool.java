@@ -0,0 +1,242 @@
+package com.aiagent.client;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ollama 节点池
+ *
+ * 选择规则：
+ * - 只在可用节点（最近一次健康检查通过且未被摘除）中选择，全部不可用时在所有节点中选择（尽力而为）
+ * - 带亲和 key（如对话ID）时按最高随机权重哈希（rendezvous hashing）固定到同一节点，
+ *   使该对话命中已加载模型和 KV 缓存的节点；节点增减时只有落在该节点上的 key 会迁移。
+ *   亲和带负载上限（bounded load）：首选节点的未完成请求数达到上限（可用节点平均值的 affinityLoadFactor 倍）时，
+ *   按哈希权重依次顺延到下一个未超限的节点，热点对话不会压垮单个节点，而其他节点空闲
+ * - 不带亲和 key 时选择未完成请求数最少的节点，相同时随机选择
+ * 被动摘除：连续 failureThreshold 次连接失败、超时或 5xx 的节点在 ejectionMillis 内不再接收请求。
+ * 同一地址在多类操作中共用一个节点（未完成请求数合并计算，同一台机器的生成和嵌入共享算力）。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+final class OllamaNodePool {
+
+    /**
+     * 单个 Ollama 节点的状态
+     */
+    static final class Node {
+        private final String baseUrl;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile boolean healthy = true;
+        private volatile long ejectedUntil;
+
+        Node(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        String baseUrl() {
+            return baseUrl;
+        }
+
+        int outstanding() {
+            return outstanding.get();
+        }
+
+        boolean available(long now) {
+            return healthy && now >= ejectedUntil;
+        }
+    }
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final Map<OllamaClient.Operation, List<Node>> routes = new EnumMap<>(OllamaClient.Operation.class);
+    private final int failureThreshold;
+    private final long ejectionMillis;
+    private final boolean affinity;
+    private final double affinityLoadFactor;
+
+    /**
+     * @param baseUrls 每类操作的节点地址
+     * @param failureThreshold 连续失败多少次后摘除
+     * @param ejectionMillis 摘除时长（毫秒）
+     * @param affinity 是否按亲和 key 固定节点
+     * @param affinityLoadFactor 亲和节点的负载上限（可用节点平均未完成请求数的倍数，不小于 1）
+     */
+    OllamaNodePool(Map<OllamaClient.Operation, List<String>> baseUrls, int failureThreshold, long ejectionMillis,
+            boolean affinity, double affinityLoadFactor) {
+        baseUrls.forEach((operation, urls) -> {
+            List<Node> route = new ArrayList<>();
+            for (String url : urls) {
+                route.add(nodes.computeIfAbsent(url, Node::new));
+            }
+            if (route.isEmpty()) {
+                throw new IllegalArgumentException("缺少 Ollama 服务配置: " + operation);
+            }
+            routes.put(operation, List.copyOf(route));
+        });
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.ejectionMillis = ejectionMillis;
+        this.affinity = affinity;
+        this.affinityLoadFactor = Math.max(1.0, affinityLoadFactor);
+    }
+
+    /**
+     * 所有节点（健康检查用）
+     */
+    Collection<Node> nodes() {
+        return nodes.values();
+    }
+
+    Node node(String baseUrl) {
+        return nodes.get(baseUrl);
+    }
+
+    /**
+     * 某类操作配置的节点数
+     */
+    int size(OllamaClient.Operation operation) {
+        return routes.get(operation).size();
+    }
+
+    /**
+     * 选择节点
+     *
+     * @param affinityKey 亲和 key，可以为 null
+     * @param excluded 本次请求已尝试失败的节点（存在其他节点时不再选择）
+     */
+    Node select(OllamaClient.Operation operation, String affinityKey, Set<Node> excluded) {
+        List<Node> route = routes.get(operation);
+        if (route.size() == 1) {
+            return route.get(0);
+        }
+        long now = System.currentTimeMillis();
+        List<Node> candidates = new ArrayList<>(route.size());
+        for (Node node : route) {
+            if (node.available(now) && !excluded.contains(node)) {
+                candidates.add(node);
+            }
+        }
+        if (candidates.isEmpty()) {
+            for (Node node : route) {
+                if (!excluded.contains(node)) {
+                    candidates.add(node);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates = route;
+        }
+
+        if (affinity && affinityKey != null) {
+            Node chosen = selectAffinity(candidates, affinityKey);
+            if (chosen != null) {
+                return chosen;
+            }
+        }
+
+        int start = ThreadLocalRandom.current().nextInt(candidates.size());
+        Node chosen = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            Node node = candidates.get((start + i) % candidates.size());
+            if (chosen == null || node.outstanding() < chosen.outstanding()) {
+                chosen = node;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * 按哈希权重从高到低选择第一个未超出负载上限的节点。
+     * 上限为 ceil(affinityLoadFactor × (未完成请求总数 + 1) / 节点数)，不小于 1，
+     * 由于上限不低于加入本请求后的平均值，总能找到未超限的节点（并发读取下极少数情况返回 null，由调用方按最少请求数选择）
+     */
+    private Node selectAffinity(List<Node> candidates, String affinityKey) {
+        int total = 0;
+        for (Node node : candidates) {
+            total += node.outstanding();
+        }
+        int bound = Math.max(1, (int) Math.ceil(affinityLoadFactor * (total + 1) / candidates.size()));
+
+        List<Node> ordered = new ArrayList<>(candidates);
+        Map<Node, Long> weights = new HashMap<>();
+        for (Node node : ordered) {
+            weights.put(node, weight(affinityKey, node.baseUrl));
+        }
+        ordered.sort(Comparator.comparingLong(weights::get).reversed());
+        for (Node node : ordered) {
+            if (node.outstanding() < bound) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 请求开始
+     */
+    void acquire(Node node) {
+        node.outstanding.incrementAndGet();
+    }
+
+    /**
+     * 请求结束
+     *
+     * @param failed 是否为节点故障（连接失败、超时、5xx）
+     */
+    void release(Node node, boolean failed) {
+        node.outstanding.decrementAndGet();
+        if (!failed) {
+            node.consecutiveFailures.set(0);
+            return;
+        }
+        int failures = node.consecutiveFailures.incrementAndGet();
+        if (failures >= failureThreshold && nodes.size() > 1) {
+            node.consecutiveFailures.set(0);
+            node.ejectedUntil = System.currentTimeMillis() + ejectionMillis;
+            log.warn("Ollama 节点 {} 连续失败 {} 次，摘除 {}ms", node.baseUrl, failures, ejectionMillis);
+        }
+    }
+
+    /**
+     * 更新健康检查结果
+     */
+    void setHealthy(Node node, boolean healthy) {
+        if (node.healthy != healthy) {
+            if (healthy) {
+                log.info("Ollama 节点 {} 恢复健康", node.baseUrl);
+            } else {
+                log.warn("Ollama 节点 {} 健康检查失败，停止分配请求", node.baseUrl);
+            }
+        }
+        node.healthy = healthy;
+    }
+
+    /**
+     * 最高随机权重哈希：key 与节点地址组合的 64 位 FNV-1a 哈希
+     */
+    private static long weight(String key, String baseUrl) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : (key + "\u0001" + baseUrl).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        // FNV 低位扩散较差，再做一次混合
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -1,5 +1,6 @@
 package com.aiagent.config;
 
+import com.aiagent.config.datasource.ReadRoutingInterceptor;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.mybatis.spring.SqlSessionFactoryBean;
 import org.mybatis.spring.annotation.MapperScan;
@@ -25,6 +26,12 @@ public class MyBatisConfig {
     @Autowired
     private DataSource dataSource;
 
+    /**
+     * 读写分离路由拦截器（仅在配置了从库时存在）
+     */
+    @Autowired(required = false)
+    private ReadRoutingInterceptor readRoutingInterceptor;
+
     @Bean
     public SqlSessionFactory sqlSessionFactory() throws Exception {
         SqlSessionFactoryBean sessionFactory = new SqlSessionFactoryBean();
@@ -42,6 +49,10 @@ public class MyBatisConfig {
         configuration.setMapUnderscoreToCamelCase(true);
         configuration.setLogImpl(org.apache.ibatis.logging.slf4j.Slf4jImpl.class);
         sessionFactory.setConfiguration(configuration);
+
+        if (readRoutingInterceptor != null) {
+            sessionFactory.setPlugins(readRoutingInterceptor);
+        }
         
         return sessionFactory.getObject();
     }
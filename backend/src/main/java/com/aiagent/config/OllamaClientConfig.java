@@ -0,0 +1,69 @@
+package com.aiagent.config;
+
+import com.aiagent.client.OllamaClient;
+import com.aiagent.client.OllamaHealthMonitor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ollama 客户端配置
+ *
+ * 生成与探测使用 spring.ai.ollama.pool.generate-urls（未配置时为 spring.ai.ollama.base-url），
+ * 向量嵌入使用 spring.ai.ollama.pool.embed-urls（未配置时为 spring.ai.embedding.ollama.base-url，
+ * 可以指向单独部署的嵌入服务）。配置多个地址时在节点间负载均衡，并定期健康检查。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Configuration
+public class OllamaClientConfig {
+
+    @Bean(destroyMethod = "close")
+    public OllamaClient ollamaClient(
+            @Value("${spring.ai.ollama.pool.generate-urls:${spring.ai.ollama.base-url:http://localhost:11434}}")
+            List<String> generateUrls,
+            @Value("${spring.ai.ollama.pool.embed-urls:${spring.ai.embedding.ollama.base-url:http://localhost:11434}}")
+            List<String> embedUrls,
+            @Value("${spring.ai.ollama.client.connect-timeout-ms:3000}") long connectTimeoutMs,
+            @Value("${spring.ai.ollama.client.generate-timeout-ms:300000}") long generateTimeoutMs,
+            @Value("${spring.ai.ollama.client.embed-timeout-ms:30000}") long embedTimeoutMs,
+            @Value("${spring.ai.ollama.client.health-timeout-ms:3000}") long healthTimeoutMs,
+            @Value("${spring.ai.ollama.pool.failure-threshold:3}") int failureThreshold,
+            @Value("${spring.ai.ollama.pool.ejection-ms:30000}") long ejectionMs,
+            @Value("${spring.ai.ollama.pool.affinity:true}") boolean affinity,
+            @Value("${spring.ai.ollama.pool.affinity-load-factor:1.25}") double affinityLoadFactor,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        Map<OllamaClient.Operation, OllamaClient.Endpoint> endpoints = Map.of(
+                OllamaClient.Operation.GENERATE, endpoint(generateUrls, generateTimeoutMs),
+                OllamaClient.Operation.EMBED, endpoint(embedUrls, embedTimeoutMs),
+                OllamaClient.Operation.HEALTH, endpoint(generateUrls, healthTimeoutMs));
+        OllamaClient.Balancing balancing =
+                new OllamaClient.Balancing(failureThreshold, Duration.ofMillis(ejectionMs), affinity,
+                        affinityLoadFactor);
+        return new OllamaClient(Duration.ofMillis(connectTimeoutMs), endpoints, balancing,
+                meterRegistry.getIfAvailable());
+    }
+
+    @Bean
+    public OllamaHealthMonitor ollamaHealthMonitor(OllamaClient ollamaClient,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        return new OllamaHealthMonitor(ollamaClient, meterRegistry.getIfAvailable());
+    }
+
+    private static OllamaClient.Endpoint endpoint(List<String> baseUrls, long timeoutMs) {
+        List<String> normalized = baseUrls.stream()
+                .map(String::strip)
+                .filter(url -> !url.isEmpty())
+                .map(url -> url.endsWith("/") ? url.substring(0, url.length() - 1) : url)
+                .distinct()
+                .toList();
+        return new OllamaClient.Endpoint(normalized, Duration.ofMillis(timeoutMs));
+    }
+}
@@ -0,0 +1,132 @@
+package com.aiagent.config;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 分区向量索引维护
+ *
+ * 分区索引按 spring.ai.rag.partition.count 生成，而不是写死在 schema.sql 中：
+ * - 分区数大于 1 时，为每个分区建立部分 HNSW 索引 idx_document_chunks_embedding_p{i}，
+ *   删除编号超出分区数的旧分区索引；检索模式为 partitioned 时再删除全表索引 idx_document_chunks_embedding
+ * - 分区数为 1（默认）时，确保全表索引存在并删除所有分区索引
+ * 先建后删，切换过程中始终有可用的索引。索引使用 CONCURRENTLY 在后台虚拟线程上构建，不阻塞启动和写入；
+ * 上次构建中断留下的无效索引会先删除再重建。多实例同时启动时只有一个实例能建成，其余实例的失败只记录日志。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Component
+public class PartitionIndexInitializer {
+
+    private static final String FULL_INDEX = "idx_document_chunks_embedding";
+    private static final Pattern PARTITION_INDEX = Pattern.compile(FULL_INDEX + "_p(\\d+)");
+
+    private static final String LIST_SQL = """
+            SELECT c.relname, i.indisvalid
+            FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid
+            WHERE i.indrelid = 'document_chunks'::regclass AND c.relname LIKE 'idx\\_document\\_chunks\\_embedding%'
+            """;
+
+    @Autowired(required = false)
+    private DataSource dataSource;
+
+    @Value("${spring.ai.rag.partition.manage-indexes:true}")
+    private boolean manageIndexes;
+
+    @Value("${spring.ai.rag.partition.count:1}")
+    private int partitionCount;
+
+    @Value("${spring.ai.rag.vector-store.mode:pgvector}")
+    private String vectorStoreMode;
+
+    @PostConstruct
+    public void init() {
+        if (!manageIndexes || dataSource == null) {
+            return;
+        }
+        Thread.ofVirtual().name("partition-index").start(this::reconcile);
+    }
+
+    private void reconcile() {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            // CREATE/DROP INDEX CONCURRENTLY 不能在事务中执行
+            connection.setAutoCommit(true);
+            Map<String, Boolean> existing = listIndexes(statement);
+            int count = Math.max(1, partitionCount);
+
+            if (count > 1) {
+                for (int i = 0; i < count; i++) {
+                    String name = FULL_INDEX + "_p" + i;
+                    ensure(statement, existing, name, "CREATE INDEX CONCURRENTLY " + name
+                            + " ON document_chunks USING hnsw (embedding vector_cosine_ops)"
+                            + " WHERE partition_no = " + i + " AND deleted_at IS NULL");
+                }
+                if ("partitioned".equalsIgnoreCase(vectorStoreMode)) {
+                    drop(statement, existing, FULL_INDEX);
+                }
+            } else {
+                ensure(statement, existing, FULL_INDEX, "CREATE INDEX CONCURRENTLY " + FULL_INDEX
+                        + " ON document_chunks USING hnsw (embedding vector_cosine_ops)");
+            }
+
+            for (String name : existing.keySet().toArray(new String[0])) {
+                Matcher matcher = PARTITION_INDEX.matcher(name);
+                if (matcher.matches() && (count == 1 || Integer.parseInt(matcher.group(1)) >= count)) {
+                    drop(statement, existing, name);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("分区向量索引维护失败（可能尚未执行 schema.sql 或其他实例正在构建）: {}", e.getMessage());
+        }
+    }
+
+    private Map<String, Boolean> listIndexes(Statement statement) throws SQLException {
+        Map<String, Boolean> indexes = new LinkedHashMap<>();
+        try (ResultSet resultSet = statement.executeQuery(LIST_SQL)) {
+            while (resultSet.next()) {
+                indexes.put(resultSet.getString(1), resultSet.getBoolean(2));
+            }
+        }
+        return indexes;
+    }
+
+    private void ensure(Statement statement, Map<String, Boolean> existing, String name, String ddl)
+            throws SQLException {
+        Boolean valid = existing.get(name);
+        if (Boolean.TRUE.equals(valid)) {
+            return;
+        }
+        if (valid != null) {
+            log.info("删除构建未完成的无效索引 {}", name);
+            drop(statement, existing, name);
+        }
+        long start = System.currentTimeMillis();
+        statement.execute(ddl);
+        existing.put(name, true);
+        log.info("向量索引 {} 构建完成，耗时 {}ms", name, System.currentTimeMillis() - start);
+    }
+
+    private void drop(Statement statement, Map<String, Boolean> existing, String name) throws SQLException {
+        if (existing.remove(name) == null) {
+            return;
+        }
+        statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + name);
+        log.info("已删除向量索引 {}", name);
+    }
+}
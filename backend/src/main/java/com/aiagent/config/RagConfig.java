@@ -0,0 +1,26 @@
+package com.aiagent.config;
+
+import com.aiagent.util.PartitionRouter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * RAG 检索相关配置
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Configuration
+public class RagConfig {
+
+    /**
+     * 文档块分区路由，写入（分配 partition_no）和检索（裁剪分区）共用
+     */
+    @Bean
+    public PartitionRouter partitionRouter(
+            @Value("${spring.ai.rag.partition.count:1}") int partitionCount,
+            @Value("${spring.ai.rag.partition.strategy:hash}") String strategy) {
+        return new PartitionRouter(partitionCount, strategy);
+    }
+}
@@ -0,0 +1,112 @@
+package com.aiagent.config;
+
+import com.aiagent.config.datasource.ConsistencyScopeFilter;
+import com.aiagent.config.datasource.ReadRoutingInterceptor;
+import com.aiagent.config.datasource.ReadWriteRoutingDataSource;
+import com.aiagent.config.datasource.ReplicaLagMonitor;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 读写分离配置
+ *
+ * 仅在配置了 spring.datasource.replica.urls 时生效，否则沿用 Spring Boot 自动配置的单数据源。
+ * 主库沿用 spring.datasource 配置；从库共用主库的用户名、密码和驱动（可单独覆盖），各自一个连接池。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "spring.datasource.replica", name = "urls")
+public class ReadReplicaConfig {
+
+    @Value("${spring.datasource.replica.urls}")
+    private List<String> replicaUrls;
+
+    @Value("${spring.datasource.replica.username:${spring.datasource.username}}")
+    private String replicaUsername;
+
+    @Value("${spring.datasource.replica.password:${spring.datasource.password}}")
+    private String replicaPassword;
+
+    @Value("${spring.datasource.replica.maximum-pool-size:10}")
+    private int replicaPoolSize;
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    public ReadWriteRoutingDataSource readWriteRoutingDataSource(HikariDataSource primaryDataSource,
+            DataSourceProperties properties,
+            @Value("${spring.datasource.replica.sticky-ms:2000}") long stickyMillis) {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            String url = replicaUrls.get(i).strip();
+            if (url.isEmpty()) {
+                continue;
+            }
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + i);
+            replica.setJdbcUrl(url);
+            replica.setUsername(replicaUsername);
+            replica.setPassword(replicaPassword);
+            replica.setDriverClassName(properties.getDriverClassName());
+            replica.setMaximumPoolSize(replicaPoolSize);
+            replica.setReadOnly(true);
+            replicas.put(replica.getPoolName(), replica);
+        }
+        ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primaryDataSource, replicas, stickyMillis);
+        routing.afterPropertiesSet();
+        return routing;
+    }
+
+    /**
+     * 对外暴露的数据源：延迟到第一条语句执行时才获取连接，此时事务只读标记和当前语句类型都已确定
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReadWriteRoutingDataSource readWriteRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(readWriteRoutingDataSource);
+    }
+
+    /**
+     * 以请求头 X-Session-Id 区分读你所写的作用域，一个会话的写操作不会让其他会话的查询也粘滞到主库
+     */
+    @Bean
+    public ConsistencyScopeFilter consistencyScopeFilter() {
+        return new ConsistencyScopeFilter();
+    }
+
+    @Bean
+    public ReadRoutingInterceptor readRoutingInterceptor(ReadWriteRoutingDataSource readWriteRoutingDataSource) {
+        return new ReadRoutingInterceptor(readWriteRoutingDataSource);
+    }
+
+    @Bean
+    public ReplicaLagMonitor replicaLagMonitor(ReadWriteRoutingDataSource readWriteRoutingDataSource,
+            ObjectProvider<MeterRegistry> meterRegistry,
+            @Value("${spring.datasource.replica.max-lag-ms:1000}") long maxLagMillis,
+            @Value("${spring.datasource.replica.sticky-ms:2000}") long stickyMillis) {
+        return new ReplicaLagMonitor(readWriteRoutingDataSource, maxLagMillis, stickyMillis,
+                meterRegistry.getIfAvailable());
+    }
+}
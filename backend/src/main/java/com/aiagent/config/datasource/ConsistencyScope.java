@@ -0,0 +1,62 @@
+package com.aiagent.config.datasource;
+
+/**
+ * 读你所写的作用域
+ *
+ * 同一作用域（一般为前端会话，由请求头 X-Session-Id 传入）内的写操作只让本作用域随后的查询粘滞到主库，
+ * 其他调用方不受影响。没有作用域的调用（后台任务、未携带请求头的客户端）共用一个全局作用域。
+ * 作用域保存在线程上，切换到其他线程执行时用 {@link #wrap(Runnable)} 传递。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public final class ConsistencyScope {
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private ConsistencyScope() {
+    }
+
+    /**
+     * 当前作用域，没有时为 null
+     */
+    public static String current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 进入作用域，返回之前的值以便恢复
+     */
+    public static String begin(String scope) {
+        String previous = CURRENT.get();
+        if (scope == null || scope.isBlank()) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(scope);
+        }
+        return previous;
+    }
+
+    public static void end(String previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * 把调用线程当前的作用域带到任务执行的线程上
+     */
+    public static Runnable wrap(Runnable task) {
+        String scope = CURRENT.get();
+        return () -> {
+            String previous = begin(scope);
+            try {
+                task.run();
+            } finally {
+                end(previous);
+            }
+        };
+    }
+}
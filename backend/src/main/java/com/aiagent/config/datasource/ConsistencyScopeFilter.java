@@ -0,0 +1,37 @@
+package com.aiagent.config.datasource;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * 以请求头 X-Session-Id 作为读你所写的作用域（见 {@link ConsistencyScope}）
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public class ConsistencyScopeFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "X-Session-Id";
+
+    /**
+     * 作用域标识最大长度，超长的值视为无效，避免占用过多内存
+     */
+    private static final int MAX_LENGTH = 64;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String scope = request.getHeader(HEADER);
+        String previous = ConsistencyScope.begin(scope != null && scope.length() <= MAX_LENGTH ? scope : null);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ConsistencyScope.end(previous);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.aiagent.config.datasource;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * MyBatis 读写路由拦截器
+ *
+ * 查询语句执行期间标记当前 Mapper，供 {@link ReadWriteRoutingDataSource} 将其路由到从库；
+ * 写语句执行后记录该 Mapper 的写入时间，开启读你所写的粘滞窗口。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class,
+                        BoundSql.class}),
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class})
+})
+public class ReadRoutingInterceptor implements Interceptor {
+
+    private final ReadWriteRoutingDataSource routingDataSource;
+
+    public ReadRoutingInterceptor(ReadWriteRoutingDataSource routingDataSource) {
+        this.routingDataSource = routingDataSource;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        MappedStatement statement = (MappedStatement) invocation.getArgs()[0];
+        String namespace = namespaceOf(statement);
+
+        if (statement.getSqlCommandType() != SqlCommandType.SELECT) {
+            try {
+                return invocation.proceed();
+            } finally {
+                routingDataSource.markWrite(namespace);
+            }
+        }
+
+        String previous = ReadWriteRoutingDataSource.beginRead(namespace);
+        try {
+            return invocation.proceed();
+        } finally {
+            ReadWriteRoutingDataSource.endRead(previous);
+        }
+    }
+
+    private static String namespaceOf(MappedStatement statement) {
+        String id = statement.getId();
+        int dot = id.lastIndexOf('.');
+        return dot > 0 ? id.substring(0, dot) : id;
+    }
+}
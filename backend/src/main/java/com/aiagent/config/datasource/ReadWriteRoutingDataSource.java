@@ -0,0 +1,155 @@
+package com.aiagent.config.datasource;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读写分离路由数据源
+ *
+ * 路由规则（需配合 LazyConnectionDataSourceProxy，使连接在第一条语句执行时才获取）：
+ * - 读写事务、写语句：主库
+ * - 只读事务、事务外的查询语句：轮询健康的从库
+ * - 读你所写：某个 Mapper 刚执行过写操作，在粘滞窗口内同一作用域（{@link ConsistencyScope}，一般为前端会话）
+ *   对该 Mapper 的查询仍走主库；其他作用域的查询不受影响
+ * - 从库延迟超限或不可达时被标记为不健康，全部不健康时读请求回退主库
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    static final String PRIMARY = "primary";
+
+    /**
+     * 当前线程正在执行的查询语句所属 Mapper（由 {@link ReadRoutingInterceptor} 设置），为 null 表示非查询
+     */
+    private static final ThreadLocal<String> READ_NAMESPACE = new ThreadLocal<>();
+
+    private final Map<String, DataSource> replicas;
+    private final List<String> replicaKeys;
+    private final Map<String, Boolean> healthy = new ConcurrentHashMap<>();
+    /**
+     * 作用域 + Mapper -> 最近一次写操作时间
+     */
+    private final Map<String, Long> lastWriteAt = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    private volatile long stickyMillis;
+
+    public ReadWriteRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, long stickyMillis) {
+        this.replicas = replicas;
+        this.replicaKeys = new ArrayList<>(replicas.keySet());
+        this.stickyMillis = stickyMillis;
+
+        Map<Object, Object> targets = new HashMap<>(replicas);
+        targets.put(PRIMARY, primary);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        replicaKeys.forEach(key -> healthy.put(key, true));
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String namespace = READ_NAMESPACE.get();
+        boolean read = TransactionSynchronizationManager.isActualTransactionActive()
+                ? TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                : namespace != null;
+        if (!read || (namespace != null && isSticky(namespace))) {
+            return PRIMARY;
+        }
+        return pickReplica();
+    }
+
+    /**
+     * 轮询选择健康的从库，没有健康从库时返回主库
+     */
+    private String pickReplica() {
+        int size = replicaKeys.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            String key = replicaKeys.get((start + i) % size);
+            if (healthy.getOrDefault(key, false)) {
+                return key;
+            }
+        }
+        return PRIMARY;
+    }
+
+    private boolean isSticky(String namespace) {
+        Long writtenAt = lastWriteAt.get(writeKey(namespace));
+        return writtenAt != null && System.currentTimeMillis() - writtenAt < stickyMillis;
+    }
+
+    /**
+     * 没有作用域的调用共用空字符串作用域
+     */
+    private static String writeKey(String namespace) {
+        String scope = ConsistencyScope.current();
+        return (scope != null ? scope : "") + "\u0001" + namespace;
+    }
+
+    /**
+     * 在执行查询语句期间设置当前 Mapper，返回之前的值以便恢复
+     */
+    static String beginRead(String namespace) {
+        String previous = READ_NAMESPACE.get();
+        READ_NAMESPACE.set(namespace);
+        return previous;
+    }
+
+    static void endRead(String previous) {
+        if (previous == null) {
+            READ_NAMESPACE.remove();
+        } else {
+            READ_NAMESPACE.set(previous);
+        }
+    }
+
+    /**
+     * 记录 Mapper 的写操作，开启读你所写的粘滞窗口
+     */
+    void markWrite(String namespace) {
+        lastWriteAt.put(writeKey(namespace), System.currentTimeMillis());
+    }
+
+    /**
+     * 清理粘滞窗口已过期的写记录（作用域随会话增长，需要定期清理）
+     */
+    void purgeExpiredWrites() {
+        long expiredBefore = System.currentTimeMillis() - stickyMillis;
+        lastWriteAt.values().removeIf(writtenAt -> writtenAt < expiredBefore);
+    }
+
+    void setHealthy(String replica, boolean value) {
+        Boolean previous = healthy.put(replica, value);
+        if (previous != null && previous != value) {
+            log.warn("从库 {} 状态变更为 {}", replica, value ? "健康" : "不可用，读请求回退主库或其他从库");
+        }
+    }
+
+    boolean isHealthy(String replica) {
+        return healthy.getOrDefault(replica, false);
+    }
+
+    void setStickyMillis(long stickyMillis) {
+        this.stickyMillis = stickyMillis;
+    }
+
+    long getStickyMillis() {
+        return stickyMillis;
+    }
+
+    Map<String, DataSource> getReplicas() {
+        return replicas;
+    }
+}
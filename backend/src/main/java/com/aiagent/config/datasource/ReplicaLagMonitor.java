@@ -0,0 +1,85 @@
+package com.aiagent.config.datasource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 从库复制延迟监控
+ *
+ * 定期查询每个从库的回放延迟：延迟超过 max-lag 或查询失败的从库标记为不健康，不再接收读请求；
+ * 读你所写的粘滞窗口随观测到的最大延迟调整（不小于配置的最小值）。
+ * 指标：datasource.replica.lag（毫秒，-1 表示不可达）、datasource.replica.healthy。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+public class ReplicaLagMonitor {
+
+    /**
+     * WAL 已全部回放时延迟为 0；否则为距离最后一个回放事务的时间（主库空闲时不会误报）
+     */
+    private static final String LAG_SQL = """
+            SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                        ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0)
+                   END
+            """;
+
+    private final ReadWriteRoutingDataSource routingDataSource;
+    private final long maxLagMillis;
+    private final long minStickyMillis;
+    private final Map<String, Long> lags = new ConcurrentHashMap<>();
+
+    public ReplicaLagMonitor(ReadWriteRoutingDataSource routingDataSource, long maxLagMillis, long minStickyMillis,
+            MeterRegistry meterRegistry) {
+        this.routingDataSource = routingDataSource;
+        this.maxLagMillis = maxLagMillis;
+        this.minStickyMillis = minStickyMillis;
+
+        for (String replica : routingDataSource.getReplicas().keySet()) {
+            lags.put(replica, 0L);
+            if (meterRegistry != null) {
+                Gauge.builder("datasource.replica.lag", lags, map -> map.getOrDefault(replica, -1L))
+                        .tag("replica", replica).baseUnit("milliseconds").register(meterRegistry);
+                Gauge.builder("datasource.replica.healthy", routingDataSource,
+                        routing -> routing.isHealthy(replica) ? 1 : 0).tag("replica", replica).register(meterRegistry);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${spring.datasource.replica.lag-check-interval:5000}")
+    public void check() {
+        long maxObserved = 0;
+        for (Map.Entry<String, DataSource> entry : routingDataSource.getReplicas().entrySet()) {
+            String replica = entry.getKey();
+            long lag = measure(replica, entry.getValue());
+            lags.put(replica, lag);
+            routingDataSource.setHealthy(replica, lag >= 0 && lag <= maxLagMillis);
+            if (lag > maxObserved && lag <= maxLagMillis) {
+                maxObserved = lag;
+            }
+        }
+        routingDataSource.setStickyMillis(Math.max(minStickyMillis, maxObserved * 2));
+        routingDataSource.purgeExpiredWrites();
+    }
+
+    private long measure(String replica, DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(LAG_SQL)) {
+            return resultSet.next() ? Math.round(resultSet.getDouble(1)) : -1;
+        } catch (Exception e) {
+            log.warn("从库 {} 延迟检查失败: {}", replica, e.getMessage());
+            return -1;
+        }
+    }
+}
@@ -1,21 +1,34 @@
 package com.aiagent.controller;
 
+import com.aiagent.config.datasource.ConsistencyScope;
 import com.aiagent.dto.ApiResponse;
 import com.aiagent.dto.ChatRequest;
 import com.aiagent.dto.ChatResponse;
 import com.aiagent.dto.PageResponse;
+import com.aiagent.exception.TooManyRequestsException;
 import com.aiagent.mapper.MessageMapper;
 import com.aiagent.model.Conversation;
 import com.aiagent.model.Message;
 import com.aiagent.service.ChatService;
 import com.aiagent.service.ConversationService;
+import com.aiagent.service.RetrievalPrefetchService;
+import jakarta.annotation.PreDestroy;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 对话控制器
@@ -37,6 +50,17 @@ public class ChatController {
     @Autowired(required = false)
     private MessageMapper messageMapper;
 
+    @Autowired(required = false)
+    private RetrievalPrefetchService prefetchService;
+
+    /**
+     * 流式对话的最长时长（毫秒）
+     */
+    @Value("${spring.ai.chat.stream.timeout-ms:600000}")
+    private long streamTimeoutMs;
+
+    private final ExecutorService streamExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
     /**
      * 发送消息
      */
@@ -50,82 +74,193 @@ public class ChatController {
             log.info("请求来源: {}", getRequestSource());
             
             // 如果没有对话ID，创建新对话
-            String conversationId = request.getConversationId();
-            if (conversationId == null || conversationId.isEmpty()) {
-                if (conversationService != null) {
-                    try {
-                        Conversation conversation = conversationService.createConversation("rag");
-                        conversationId = conversation.getId();
-                        log.info("创建新对话: {}", conversationId);
-                    } catch (Exception e) {
-                        log.warn("创建对话失败，使用临时ID: {}", e.getMessage());
-                        conversationId = UUID.randomUUID().toString();
-                    }
-                } else {
-                    conversationId = UUID.randomUUID().toString();
-                    log.warn("ConversationService 未配置，使用临时对话ID: {}", conversationId);
-                }
-            }
+            String conversationId = resolveConversationId(request.getConversationId());
 
             // 保存用户消息（如果 MessageMapper 可用）
-            if (messageMapper != null) {
-                try {
-                    Message userMessage = new Message();
-                    userMessage.setId(UUID.randomUUID().toString());
-                    userMessage.setConversationId(conversationId);
-                    userMessage.setRole("user");
-                    userMessage.setContent(request.getMessage());
-                    userMessage.setCreatedAt(LocalDateTime.now());
-                    messageMapper.insert(userMessage);
-                    log.debug("保存用户消息: {}", userMessage.getId());
-                } catch (Exception e) {
-                    log.warn("保存用户消息失败: {}", e.getMessage());
-                }
-            }
+            saveUserMessage(conversationId, request.getMessage());
             
-            // 调用 AI 服务
+            // 调用 AI 服务（新对话也带上对话ID，便于记录会话检索状态）
+            request.setConversationId(conversationId);
             ChatResponse response = chatService.sendMessage(request);
             response.setConversationId(conversationId);
             
-            // 保存 AI 回复消息（如果 MessageMapper 可用）
-            if (messageMapper != null) {
-                try {
-                    Message aiMessage = new Message();
-                    aiMessage.setId(response.getMessageId());
-                    aiMessage.setConversationId(conversationId);
-                    aiMessage.setRole("assistant");
-                    aiMessage.setContent(response.getMessage());
-                    aiMessage.setModel(response.getMetadata().getModel());
-                    aiMessage.setTokens(response.getMetadata().getTokens());
-                    aiMessage.setResponseTime((long)(response.getMetadata().getResponseTime() * 1000));
-                    aiMessage.setCreatedAt(LocalDateTime.now());
-                    messageMapper.insert(aiMessage);
-                    log.debug("保存 AI 消息: {}", aiMessage.getId());
-                } catch (Exception e) {
-                    log.warn("保存 AI 消息失败: {}", e.getMessage());
-                }
-            }
-            
-            // 更新对话（最后一条消息）
-            if (conversationService != null) {
-                try {
-                    conversationService.updateConversation(conversationId, response.getMessage());
-                } catch (Exception e) {
-                    log.warn("更新对话失败: {}", e.getMessage());
-                }
-            }
+            // 保存 AI 回复消息并更新对话（最后一条消息）
+            saveAssistantMessage(conversationId, response);
             
             log.info("========== 响应生成成功 ==========");
             log.info("AI回复: {}", response.getMessage().substring(0, Math.min(50, response.getMessage().length())) + "...");
             log.info("响应时间: {}秒", response.getMetadata().getResponseTime());
             
             return ApiResponse.success(response);
+        } catch (TooManyRequestsException e) {
+            // 服务繁忙：交由全局异常处理器返回 429 与 Retry-After
+            throw e;
         } catch (Exception e) {
             log.error("========== 处理对话请求失败 ==========", e);
             return ApiResponse.error("CHAT_ERROR", "处理对话请求失败: " + e.getMessage());
         }
     }
 
+    /**
+     * 流式发送消息（Server-Sent Events）
+     *
+     * 事件依次为：sources（参考来源，检索完成后立即发送）、token（逐段回复内容）、
+     * done（完整响应，AI 消息已保存）；出错时发送 error 事件后结束。
+     * 服务繁忙时 error 事件的 code 为 TOO_MANY_REQUESTS，并带有建议的重试等待秒数 retryAfter。
+     */
+    @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamMessage(@Valid @RequestBody ChatRequest request) {
+        log.info("收到流式对话请求，对话ID: {}，用户消息: {}", request.getConversationId(), request.getMessage());
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        String conversationId = resolveConversationId(request.getConversationId());
+        request.setConversationId(conversationId);
+
+        // 读你所写的作用域随请求带到生成线程，刚保存的消息在本会话内从主库读取
+        streamExecutor.execute(ConsistencyScope.wrap(() -> {
+            try {
+                saveUserMessage(conversationId, request.getMessage());
+                ChatResponse response = chatService.streamMessage(request, new ChatService.StreamListener() {
+                    @Override
+                    public void onSources(List<ChatResponse.MessageSource> sources) {
+                        sendEvent(emitter, "sources", sources);
+                    }
+
+                    @Override
+                    public void onToken(String content) {
+                        sendEvent(emitter, "token", Map.of("content", content));
+                    }
+                });
+                response.setConversationId(conversationId);
+                saveAssistantMessage(conversationId, response);
+                sendEvent(emitter, "done", response);
+                emitter.complete();
+            } catch (UncheckedIOException e) {
+                log.info("流式对话客户端已断开，对话ID: {}", conversationId);
+                emitter.completeWithError(e);
+            } catch (TooManyRequestsException e) {
+                log.warn("流式对话请求被拒绝，对话ID: {}，{}", conversationId, e.getMessage());
+                try {
+                    sendEvent(emitter, "error", Map.of("code", e.getCode(), "message", e.getMessage(),
+                            "retryAfter", e.getRetryAfterSeconds()));
+                    emitter.complete();
+                } catch (UncheckedIOException ignored) {
+                    emitter.completeWithError(e);
+                }
+            } catch (Exception e) {
+                log.error("处理流式对话请求失败", e);
+                try {
+                    sendEvent(emitter, "error", Map.of("code", "CHAT_ERROR", "message", "处理对话请求失败: " + e.getMessage()));
+                    emitter.complete();
+                } catch (UncheckedIOException ignored) {
+                    emitter.completeWithError(e);
+                }
+            }
+        }));
+        return emitter;
+    }
+
+    @PreDestroy
+    public void close() {
+        streamExecutor.shutdownNow();
+    }
+
+    /**
+     * 发送一个 SSE 事件；客户端已断开时抛出 {@link UncheckedIOException}
+     */
+    private static void sendEvent(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            throw new UncheckedIOException("发送 SSE 事件失败", e);
+        }
+    }
+
+    /**
+     * 没有对话ID时创建新对话
+     */
+    private String resolveConversationId(String conversationId) {
+        if (conversationId != null && !conversationId.isEmpty()) {
+            return conversationId;
+        }
+        if (conversationService != null) {
+            try {
+                Conversation conversation = conversationService.createConversation("rag");
+                log.info("创建新对话: {}", conversation.getId());
+                return conversation.getId();
+            } catch (Exception e) {
+                log.warn("创建对话失败，使用临时ID: {}", e.getMessage());
+                return UUID.randomUUID().toString();
+            }
+        }
+        String temporaryId = UUID.randomUUID().toString();
+        log.warn("ConversationService 未配置，使用临时对话ID: {}", temporaryId);
+        return temporaryId;
+    }
+
+    /**
+     * 保存用户消息（如果 MessageMapper 可用）
+     */
+    private void saveUserMessage(String conversationId, String content) {
+        if (messageMapper == null) {
+            return;
+        }
+        try {
+            Message userMessage = new Message();
+            userMessage.setId(UUID.randomUUID().toString());
+            userMessage.setConversationId(conversationId);
+            userMessage.setRole("user");
+            userMessage.setContent(content);
+            userMessage.setCreatedAt(LocalDateTime.now());
+            messageMapper.insert(userMessage);
+            log.debug("保存用户消息: {}", userMessage.getId());
+        } catch (Exception e) {
+            log.warn("保存用户消息失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 保存 AI 回复消息（如果 MessageMapper 可用），并更新对话的最后一条消息
+     */
+    private void saveAssistantMessage(String conversationId, ChatResponse response) {
+        if (messageMapper != null) {
+            try {
+                Message aiMessage = new Message();
+                aiMessage.setId(response.getMessageId());
+                aiMessage.setConversationId(conversationId);
+                aiMessage.setRole("assistant");
+                aiMessage.setContent(response.getMessage());
+                aiMessage.setModel(response.getMetadata().getModel());
+                aiMessage.setTokens(response.getMetadata().getTokens());
+                aiMessage.setResponseTime((long)(response.getMetadata().getResponseTime() * 1000));
+                aiMessage.setCreatedAt(LocalDateTime.now());
+                messageMapper.insert(aiMessage);
+                log.debug("保存 AI 消息: {}", aiMessage.getId());
+            } catch (Exception e) {
+                log.warn("保存 AI 消息失败: {}", e.getMessage());
+            }
+        }
+
+        if (conversationService != null) {
+            try {
+                conversationService.updateConversation(conversationId, response.getMessage());
+            } catch (Exception e) {
+                log.warn("更新对话失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 预取检索结果（前端在用户输入时防抖调用，立即返回）
+     */
+    @PostMapping("/prefetch")
+    public ApiResponse<Void> prefetch(@Valid @RequestBody ChatRequest request) {
+        if (prefetchService == null) {
+            return ApiResponse.error("SERVICE_UNAVAILABLE", "预取服务未配置");
+        }
+        prefetchService.prefetch(request);
+        return ApiResponse.success(null, "已开始预取");
+    }
+
     /**
      * 获取对话列表
      */
@@ -9,6 +9,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.regex.Pattern;
+
 /**
  * 文档管理控制器
  *
@@ -20,6 +22,8 @@ import org.springframework.web.multipart.MultipartFile;
 @RequestMapping("/api/documents")
 public class DocumentController {
 
+    private static final Pattern COLLECTION_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
     @Autowired(required = false)
     private DocumentService documentService;
 
@@ -29,7 +33,8 @@ public class DocumentController {
     @PostMapping("/upload")
     public ApiResponse<Document> uploadDocument(
             @RequestParam("file") MultipartFile file,
-            @RequestParam(value = "title", required = false) String title) {
+            @RequestParam(value = "title", required = false) String title,
+            @RequestParam(value = "collection", required = false) String collection) {
         try {
             if (documentService == null) {
                 return ApiResponse.error("SERVICE_UNAVAILABLE", "文档服务未配置（数据库可能未启动）");
@@ -39,8 +44,12 @@ public class DocumentController {
                 return ApiResponse.error("FILE_EMPTY", "文件不能为空");
             }
 
-            log.info("上传文档: {}, 大小: {} bytes", file.getOriginalFilename(), file.getSize());
-            Document document = documentService.uploadDocument(file, title);
+            if (collection != null && !collection.isBlank() && !COLLECTION_PATTERN.matcher(collection.trim()).matches()) {
+                return ApiResponse.error("INVALID_COLLECTION", "集合名称只能包含字母、数字、下划线和中划线，长度不超过 64");
+            }
+
+            log.info("上传文档: {}, 大小: {} bytes, 集合: {}", file.getOriginalFilename(), file.getSize(), collection);
+            Document document = documentService.uploadDocument(file, title, collection);
             return ApiResponse.success(document, "文档上传成功，正在处理中");
         } catch (Exception e) {
             log.error("上传文档失败", e);
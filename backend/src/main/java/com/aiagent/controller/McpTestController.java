@@ -1,6 +1,8 @@
 package com.aiagent.controller;
 
 import com.aiagent.dto.ApiResponse;
+import com.aiagent.exception.TooManyRequestsException;
+import com.aiagent.service.LlmAdmissionService;
 import com.aiagent.service.McpToolService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,6 +35,9 @@ public class McpTestController {
     @Autowired
     private McpToolService mcpToolService;
 
+    @Autowired
+    private LlmAdmissionService admissionService;
+
     /**
      * 测试 MCP 工具调用
      * 
@@ -58,10 +63,13 @@ public class McpTestController {
             Prompt prompt = promptTemplate.create();
 
             // ChatClient 会自动检测并调用 MCP 工具
-            String aiResponse = chatClient.prompt(prompt).call().content();
+            String aiResponse = admissionService.execute(LlmAdmissionService.Priority.BACKGROUND,
+                    () -> chatClient.prompt(prompt).call().content());
 
             log.info("MCP 聊天响应: {}", aiResponse);
             return ApiResponse.success(aiResponse);
+        } catch (TooManyRequestsException e) {
+            throw e;
         } catch (Exception e) {
             log.error("测试 MCP 聊天失败", e);
             return ApiResponse.error("测试 MCP 聊天失败: " + e.getMessage());
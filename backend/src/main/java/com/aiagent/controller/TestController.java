@@ -1,6 +1,11 @@
 package com.aiagent.controller;
 
+import com.aiagent.client.OllamaClient;
+import com.aiagent.client.OllamaException;
+import com.aiagent.service.LlmAdmissionService;
+import com.fasterxml.jackson.databind.JsonNode;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -22,6 +27,15 @@ public class TestController {
     // Spring AI ChatClient 通过自动配置注入
     // 暂时先测试 Ollama 直接连接，等确认正确的类名后再添加
 
+    @Autowired
+    private OllamaClient ollamaClient;
+
+    @Autowired
+    private LlmAdmissionService admissionService;
+
+    @Value("${spring.ai.ollama.chat.options.model:deepseek-coder}")
+    private String model;
+
     /**
      * 测试 Ollama 连接和 Spring AI
      */
@@ -31,63 +45,25 @@ public class TestController {
         
         // 测试 Ollama 服务是否可访问
         try {
-            java.net.URL url = new java.net.URL("http://localhost:11434/api/tags");
-            java.net.HttpURLConnection conn = (java.net.HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setConnectTimeout(3000);
-            conn.setReadTimeout(3000);
-            int responseCode = conn.getResponseCode();
-            
-            result.put("ollamaServiceAvailable", responseCode == 200);
-            result.put("ollamaResponseCode", responseCode);
-            
-            if (responseCode == 200) {
-                java.io.BufferedReader reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(conn.getInputStream()));
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                }
-                reader.close();
-                
-                result.put("ollamaModels", response.toString());
-            }
-        } catch (Exception e) {
+            JsonNode models = ollamaClient.get(OllamaClient.Operation.HEALTH, "/api/tags");
+            result.put("ollamaServiceAvailable", true);
+            result.put("ollamaResponseCode", 200);
+            result.put("ollamaModels", models.toString());
+        } catch (OllamaException e) {
             result.put("ollamaServiceAvailable", false);
+            result.put("ollamaResponseCode", e.getStatusCode());
             result.put("ollamaError", e.getMessage());
         }
         
-        // 测试直接调用 Ollama API（验证模型可用性）
+        // 测试直接调用 Ollama API（验证模型可用性，后台优先级，不挤占用户对话）
         try {
-            java.net.URL apiUrl = new java.net.URL("http://localhost:11434/api/generate");
-            java.net.HttpURLConnection apiConn = (java.net.HttpURLConnection) apiUrl.openConnection();
-            apiConn.setRequestMethod("POST");
-            apiConn.setRequestProperty("Content-Type", "application/json");
-            apiConn.setDoOutput(true);
-            apiConn.setConnectTimeout(5000);
-            apiConn.setReadTimeout(30000);
-            
-            String requestBody = "{\"model\":\"deepseek-coder\",\"prompt\":\"" + message + "\",\"stream\":false}";
-            apiConn.getOutputStream().write(requestBody.getBytes("UTF-8"));
-            
-            int apiResponseCode = apiConn.getResponseCode();
-            result.put("directApiTest", apiResponseCode == 200);
-            
-            if (apiResponseCode == 200) {
-                java.io.BufferedReader apiReader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(apiConn.getInputStream()));
-                StringBuilder apiResponse = new StringBuilder();
-                String apiLine;
-                while ((apiLine = apiReader.readLine()) != null) {
-                    apiResponse.append(apiLine);
-                }
-                apiReader.close();
-                
-                result.put("directApiResponse", apiResponse.toString());
-                result.put("ollamaModelStatus", "✅ deepseek-coder 模型可用");
-            }
-        } catch (Exception e) {
+            JsonNode response = admissionService.execute(LlmAdmissionService.Priority.BACKGROUND,
+                    () -> ollamaClient.post(OllamaClient.Operation.GENERATE, "/api/generate",
+                            Map.of("model", model, "prompt", message, "stream", false)));
+            result.put("directApiTest", true);
+            result.put("directApiResponse", response.toString());
+            result.put("ollamaModelStatus", "✅ " + model + " 模型可用");
+        } catch (OllamaException e) {
             result.put("directApiTest", false);
             result.put("directApiError", e.getMessage());
         }
@@ -3,6 +3,8 @@ package com.aiagent.dto;
 import jakarta.validation.constraints.NotBlank;
 import lombok.Data;
 
+import java.util.List;
+
 /**
  * 对话请求 DTO
  *
@@ -27,6 +29,26 @@ public class ChatRequest {
      */
     private Boolean useRAG = true;
 
+    /**
+     * 强制检索（跳过检索意图判断），用于纠正被误判为不需要检索的消息
+     */
+    private Boolean forceRAG = false;
+
+    /**
+     * RAG 检索限定的集合（可选，为空时检索全部集合）
+     */
+    private List<String> collections;
+
+    /**
+     * RAG 检索限定的文档ID（可选）
+     */
+    private List<String> documentIds;
+
+    /**
+     * 是否使用回复缓存（精确缓存与语义缓存），为 false 时总是重新检索和生成，结果也不写入缓存
+     */
+    private Boolean useCache = true;
+
     /**
      * 是否使用 Agent 模式
      */
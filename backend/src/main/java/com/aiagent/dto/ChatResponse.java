@@ -68,6 +68,14 @@ public class ChatResponse {
         private String model;
         private Integer tokens;
         private Double responseTime;
+        /**
+         * 首个 token 的耗时（秒），仅流式对话返回
+         */
+        private Double firstTokenTime;
+        /**
+         * 命中的回复缓存：exact（精确缓存）、semantic（语义缓存），重新生成时为空
+         */
+        private String cache;
     }
 }
 
@@ -0,0 +1,60 @@
+package com.aiagent.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 检索过滤条件
+ *
+ * 各条件之间为“且”关系，同一条件内的多个值为“或”关系；为空的条件不参与过滤。
+ * 过滤条件下推到向量检索内部执行（而不是检索后再过滤），保证过滤后仍能返回足够的结果。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RetrievalFilter {
+    /**
+     * 限定的集合名称
+     */
+    private List<String> collections;
+
+    /**
+     * 限定的文档ID
+     */
+    private List<String> documentIds;
+
+    /**
+     * 构建过滤条件，两个条件都为空时返回 null（不过滤）
+     */
+    public static RetrievalFilter of(List<String> collections, List<String> documentIds) {
+        RetrievalFilter filter = new RetrievalFilter(collections, documentIds);
+        return filter.hasCondition() ? filter : null;
+    }
+
+    /**
+     * 是否包含任一过滤条件
+     */
+    public boolean hasCondition() {
+        return (collections != null && !collections.isEmpty())
+                || (documentIds != null && !documentIds.isEmpty());
+    }
+
+    /**
+     * 判断文档块是否满足过滤条件（供进程内索引使用）
+     *
+     * @param collection 文档块所属集合
+     * @param documentId 文档块所属文档ID
+     */
+    public boolean matches(String collection, String documentId) {
+        if (collections != null && !collections.isEmpty() && !collections.contains(collection)) {
+            return false;
+        }
+        return documentIds == null || documentIds.isEmpty() || documentIds.contains(documentId);
+    }
+}
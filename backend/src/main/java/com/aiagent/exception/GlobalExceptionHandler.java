@@ -2,7 +2,9 @@ package com.aiagent.exception;
 
 import com.aiagent.dto.ApiResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -39,6 +41,17 @@ public class GlobalExceptionHandler {
         return ApiResponse.error("VALIDATION_ERROR", "参数验证失败", errors);
     }
 
+    /**
+     * 处理服务繁忙异常：返回 429 并通过 Retry-After 告知客户端重试等待秒数
+     */
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<ApiResponse<Object>> handleTooManyRequestsException(TooManyRequestsException e) {
+        log.warn("服务繁忙: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(ApiResponse.error(e.getCode(), e.getMessage()));
+    }
+
     /**
      * 处理业务异常
      */
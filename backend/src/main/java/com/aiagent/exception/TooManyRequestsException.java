@@ -0,0 +1,21 @@
+package com.aiagent.exception;
+
+import lombok.Getter;
+
+/**
+ * 服务繁忙异常（HTTP 429）
+ *
+ * retryAfterSeconds 为建议的重试等待秒数，由全局异常处理器写入 Retry-After 响应头。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Getter
+public class TooManyRequestsException extends BusinessException {
+    private final long retryAfterSeconds;
+
+    public TooManyRequestsException(String message, long retryAfterSeconds) {
+        super("TOO_MANY_REQUESTS", message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
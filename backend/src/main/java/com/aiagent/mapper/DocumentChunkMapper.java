@@ -1,9 +1,11 @@
 package com.aiagent.mapper;
 
+import com.aiagent.dto.RetrievalFilter;
 import com.aiagent.model.DocumentChunk;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -63,8 +65,104 @@ public interface DocumentChunkMapper {
      * 向量相似度搜索 - 返回相似度分数
      * @param embedding 查询向量
      * @param topK 返回前K个结果
+     * @param filter 检索过滤条件（可为 null）
      * @return 相似的文档块列表，包含相似度分数
      */
-    List<Map<String, Object>> searchSimilarWithScore(@Param("embedding") float[] embedding, @Param("topK") int topK);
-}
+    List<Map<String, Object>> searchSimilarWithScore(@Param("embedding") float[] embedding, @Param("topK") int topK,
+                                                     @Param("filter") RetrievalFilter filter);
+
+    /**
+     * 单分区向量相似度搜索 - 返回相似度分数
+     * @param embedding 查询向量
+     * @param partitionNo 分区编号
+     * @param topK 返回前K个结果
+     * @param filter 检索过滤条件（可为 null）
+     * @return 该分区内相似的文档块列表，包含相似度分数
+     */
+    List<Map<String, Object>> searchPartitionWithScore(@Param("embedding") float[] embedding,
+                                                       @Param("partitionNo") int partitionNo,
+                                                       @Param("topK") int topK,
+                                                       @Param("filter") RetrievalFilter filter);
+
+    /**
+     * 在当前事务内设置 pgvector 迭代索引扫描模式（过滤检索时持续扫描直到凑满结果）
+     * @param mode strict_order 或 relaxed_order
+     */
+    String enableIterativeScan(@Param("mode") String mode);
+
+    /**
+     * 按变更序号增量拉取文档块（包含已软删除的块，用于同步进程内向量索引）
+     * 只返回已结束事务的变更，游标推进后不会遗漏晚提交的事务
+     * @param afterSeq 上次同步的最后一个变更序号（为 0 时从头拉取）
+     * @param afterId 上次同步的最后一个块ID，与 afterSeq 组成游标
+     * @param limit 每批数量
+     * @return 变更的文档块列表，包含向量嵌入
+     */
+    List<DocumentChunk> selectChangedSince(@Param("afterSeq") long afterSeq,
+                                           @Param("afterId") String afterId,
+                                           @Param("limit") int limit);
+
+    /**
+     * 按变更序号增量拉取文档块文本（包含已软删除的块，用于同步进程内关键词索引）
+     * @param afterSeq 上次同步的最后一个变更序号（为 0 时从头拉取）
+     * @param afterId 上次同步的最后一个块ID，与 afterSeq 组成游标
+     * @param limit 每批数量
+     * @return 变更的文档块列表，不包含向量嵌入
+     */
+    List<DocumentChunk> selectTextChangedSince(@Param("afterSeq") long afterSeq,
+                                               @Param("afterId") String afterId,
+                                               @Param("limit") int limit);
+
+    /**
+     * 按 (文档ID, 块序号) 批量查询文档块（不含向量）
+     * @param positions 只需填写 documentId 和 chunkIndex
+     * @return 未删除的文档块列表
+     */
+    List<DocumentChunk> selectByPositions(@Param("positions") List<DocumentChunk> positions);
 
+    /**
+     * 根据ID批量查询文档块向量
+     * @param ids 文档块ID列表
+     * @return 文档块列表（仅包含 id 和 embedding）
+     */
+    List<DocumentChunk> selectEmbeddingsByIds(@Param("ids") Collection<String> ids);
+
+    /**
+     * 关键词检索 - 基于 content_tsv 全文索引
+     * @param queryText 以空格分隔的查询词项（词项之间为“或”关系）
+     * @param topK 返回前K个结果
+     * @param filter 检索过滤条件（可为 null）
+     * @return 匹配的文档块列表，包含关键词相关度分数 keyword_score
+     */
+    List<Map<String, Object>> searchKeywordWithScore(@Param("queryText") String queryText, @Param("topK") int topK,
+                                                     @Param("filter") RetrievalFilter filter);
+
+    /**
+     * 混合检索 - 一次查询完成向量召回、关键词召回和倒数排名融合（RRF）
+     * @param embedding 查询向量
+     * @param queryText 以空格分隔的查询词项
+     * @param topK 返回前K个结果
+     * @param candidateK 每一路召回的候选数量
+     * @param rrfK RRF 平滑常数
+     * @param filter 检索过滤条件（可为 null）
+     * @return 融合后的文档块列表，包含 similarity_score、keyword_score 和 rrf_score
+     */
+    List<Map<String, Object>> searchHybridWithScore(@Param("embedding") float[] embedding,
+                                                    @Param("queryText") String queryText,
+                                                    @Param("topK") int topK,
+                                                    @Param("candidateK") int candidateK,
+                                                    @Param("rrfK") int rrfK,
+                                                    @Param("filter") RetrievalFilter filter);
+
+    /**
+     * 查询尚未生成检索词项的文档块
+     * @param limit 每批数量
+     * @return 文档块列表（仅包含 id 和 content）
+     */
+    List<DocumentChunk> selectMissingSearchTokens(@Param("limit") int limit);
+
+    /**
+     * 批量更新检索词项
+     */
+    int updateSearchTokensBatch(@Param("chunks") List<DocumentChunk> chunks);
+}
@@ -1,5 +1,6 @@
 package com.aiagent.mapper;
 
+import com.aiagent.dto.RetrievalFilter;
 import com.aiagent.model.Document;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
@@ -43,6 +44,18 @@ public interface DocumentMapper {
      */
     int update(Document document);
 
+    /**
+     * 更新文档级向量
+     */
+    int updateEmbedding(@Param("id") String id, @Param("embedding") float[] embedding);
+
+    /**
+     * 按文档级向量检索最相近的文档ID（按相似度降序）
+     */
+    List<String> selectSimilarDocumentIds(@Param("embedding") float[] embedding,
+                                          @Param("limit") int limit,
+                                          @Param("filter") RetrievalFilter filter);
+
     /**
      * 软删除文档
      */
@@ -0,0 +1,41 @@
+package com.aiagent.mapper;
+
+import com.aiagent.model.ResponseCacheEntry;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+/**
+ * 回复缓存 Mapper 接口
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Mapper
+public interface ResponseCacheMapper {
+
+    /**
+     * 查询未过期且属于指定语料版本的缓存条目
+     */
+    ResponseCacheEntry selectByKey(@Param("cacheKey") String cacheKey,
+                                   @Param("corpusGeneration") long corpusGeneration);
+
+    /**
+     * 写入缓存条目（key 已存在时覆盖）
+     */
+    int upsert(ResponseCacheEntry entry);
+
+    /**
+     * 删除已过期或属于旧语料版本的缓存条目
+     */
+    int deleteStale(@Param("corpusGeneration") long corpusGeneration);
+
+    /**
+     * 查询当前语料版本
+     */
+    Long selectCorpusGeneration();
+
+    /**
+     * 语料版本加一（文档新增、删除后调用）
+     */
+    int incrementCorpusGeneration();
+}
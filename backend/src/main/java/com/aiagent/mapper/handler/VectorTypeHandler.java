@@ -0,0 +1,45 @@
+package com.aiagent.mapper.handler;
+
+import com.aiagent.util.VectorUtils;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedTypes;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * pgvector 类型处理器
+ *
+ * 以文本字面量（如 [0.1,0.2]）读写 vector 列，不依赖 PostgreSQL 驱动的 PGobject 类型。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@MappedTypes(float[].class)
+public class VectorTypeHandler extends BaseTypeHandler<float[]> {
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, float[] parameter, JdbcType jdbcType)
+            throws SQLException {
+        ps.setObject(i, VectorUtils.toLiteral(parameter), Types.OTHER);
+    }
+
+    @Override
+    public float[] getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return VectorUtils.parse(rs.getString(columnName));
+    }
+
+    @Override
+    public float[] getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return VectorUtils.parse(rs.getString(columnIndex));
+    }
+
+    @Override
+    public float[] getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return VectorUtils.parse(cs.getString(columnIndex));
+    }
+}
@@ -11,6 +11,11 @@ import java.time.LocalDateTime;
  */
 @Data
 public class Document {
+    /**
+     * 未指定集合时使用的默认集合名称
+     */
+    public static final String DEFAULT_COLLECTION = "default";
+
     /**
      * 文档ID
      */
@@ -21,6 +26,11 @@ public class Document {
      */
     private String title;
 
+    /**
+     * 所属集合（用于按团队、产品等划分检索范围）
+     */
+    private String collection;
+
     /**
      * 文件名
      */
@@ -21,6 +21,16 @@ public class DocumentChunk {
      */
     private String documentId;
 
+    /**
+     * 所属集合（冗余自文档，便于检索时直接过滤）
+     */
+    private String collection;
+
+    /**
+     * 分区编号（由 {@link com.aiagent.util.PartitionRouter} 在写入时确定）
+     */
+    private Integer partitionNo;
+
     /**
      * 块索引
      */
@@ -31,6 +41,11 @@ public class DocumentChunk {
      */
     private String content;
 
+    /**
+     * 内容的 token 数（入库时估算，用于 Prompt 预算）
+     */
+    private Integer tokenCount;
+
     /**
      * 向量ID（在向量存储中的ID）
      */
@@ -41,6 +56,16 @@ public class DocumentChunk {
      */
     private float[] embedding;
 
+    /**
+     * 检索词项（以空格分隔，中文为 bigram），用于全文检索
+     */
+    private String searchTokens;
+
+    /**
+     * 检索分数（仅检索结果携带，不持久化）
+     */
+    private Float score;
+
     /**
      * 创建时间
      */
@@ -50,5 +75,10 @@ public class DocumentChunk {
      * 删除时间（软删除）
      */
     private LocalDateTime deletedAt;
+
+    /**
+     * 变更序号（最近一次写入所在事务的事务号，用于进程内索引增量同步）
+     */
+    private Long changeSeq;
 }
 
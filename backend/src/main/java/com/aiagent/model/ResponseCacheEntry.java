@@ -0,0 +1,53 @@
+package com.aiagent.model;
+
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 回复缓存条目
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Data
+public class ResponseCacheEntry {
+    /**
+     * 缓存 key（模型、生成参数与最终 Prompt 的 SHA-256）
+     */
+    private String cacheKey;
+
+    /**
+     * 模型名称
+     */
+    private String model;
+
+    /**
+     * 回复内容
+     */
+    private String response;
+
+    /**
+     * 生成的 token 数
+     */
+    private Integer tokens;
+
+    /**
+     * 原始生成耗时（毫秒），命中时计入节省的生成时间
+     */
+    private Long generationMs;
+
+    /**
+     * 写入时的语料版本，文档变更后旧版本条目失效
+     */
+    private Long corpusGeneration;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createdAt;
+
+    /**
+     * 过期时间
+     */
+    private LocalDateTime expiresAt;
+}
@@ -3,6 +3,8 @@ package com.aiagent.service;
 import com.aiagent.dto.ChatRequest;
 import com.aiagent.dto.ChatResponse;
 
+import java.util.List;
+
 /**
  * 对话服务接口
  *
@@ -17,5 +19,29 @@ public interface ChatService {
      * @return 对话响应
      */
     ChatResponse sendMessage(ChatRequest request);
+
+    /**
+     * 流式发送消息：检索完成后先回调参考来源，再随模型生成逐段回调回复内容
+     *
+     * @param request 对话请求
+     * @param listener 流式事件回调（在调用线程上执行，抛出异常时中止生成）
+     * @return 完整的对话响应（生成结束后返回）
+     */
+    ChatResponse streamMessage(ChatRequest request, StreamListener listener);
+
+    /**
+     * 流式对话事件回调
+     */
+    interface StreamListener {
+        /**
+         * 参考来源（未检索或没有检索结果时为空列表）
+         */
+        void onSources(List<ChatResponse.MessageSource> sources);
+
+        /**
+         * 一段新生成的回复内容
+         */
+        void onToken(String content);
+    }
 }
 
@@ -0,0 +1,53 @@
+package com.aiagent.service;
+
+import com.aiagent.dto.RetrievalFilter;
+import com.aiagent.model.DocumentChunk;
+
+import java.util.List;
+
+/**
+ * 会话级检索服务接口
+ *
+ * 按对话在内存中保留最近几轮的检索状态（独立问题和检索到的文档块），
+ * 追问先结合上文改写，再优先在本会话已有的候选集中增量检索，候选集不足时才全量检索。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public interface ConversationRetrievalService {
+    /**
+     * 结合本会话上文改写追问
+     *
+     * @param conversationId 对话ID
+     * @param query 用户消息
+     * @return 可以单独检索的查询；不是追问或没有上文时返回原消息
+     */
+    String rewrite(String conversationId, String query);
+
+    /**
+     * 会话内检索（只读取会话状态，不记录本轮）
+     *
+     * @param conversationId 对话ID
+     * @param query 用户消息
+     * @param topK 返回前K个结果
+     * @param filter 检索过滤条件，为 null 时检索全部文档
+     * @return 相关文档块列表
+     */
+    List<DocumentChunk> retrieve(String conversationId, String query, int topK, RetrievalFilter filter);
+
+    /**
+     * 记录本轮检索结果，供后续追问复用
+     *
+     * @param conversationId 对话ID
+     * @param query 用户消息（未改写）
+     * @param chunks 本轮使用的文档块
+     */
+    void recordTurn(String conversationId, String query, List<DocumentChunk> chunks);
+
+    /**
+     * 文档删除或重新处理后，丢弃候选集中包含该文档块的会话状态
+     *
+     * @param documentId 文档ID
+     */
+    void evictDocument(String documentId);
+}
@@ -15,8 +15,10 @@ import java.util.List;
 public interface DocumentService {
     /**
      * 上传并处理文档
+     *
+     * @param collection 所属集合，为空时使用默认集合
      */
-    Document uploadDocument(MultipartFile file, String title);
+    Document uploadDocument(MultipartFile file, String title, String collection);
 
     /**
      * 根据ID获取文档
@@ -0,0 +1,27 @@
+package com.aiagent.service;
+
+import java.util.List;
+
+/**
+ * 文本向量嵌入服务接口
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public interface EmbeddingService {
+    /**
+     * 生成单条文本的向量嵌入
+     *
+     * @param text 文本
+     * @return 向量嵌入
+     */
+    float[] embed(String text);
+
+    /**
+     * 一次请求批量生成向量嵌入
+     *
+     * @param texts 文本列表
+     * @return 与输入顺序一致的向量嵌入列表
+     */
+    List<float[]> embedBatch(List<String> texts);
+}
@@ -0,0 +1,38 @@
+package com.aiagent.service;
+
+/**
+ * 检索意图判断服务接口
+ *
+ * 在检索之前判断一轮对话是否需要知识库（寒暄、致谢、“简短一点”之类针对上一轮回答的指令不需要），
+ * 不需要时跳过查询向量化、向量检索和上下文拼接。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public interface IntentGateService {
+    /**
+     * 判断消息是否需要检索
+     *
+     * @param message 用户消息
+     * @return 判断结果
+     */
+    Decision evaluate(String message);
+
+    /**
+     * 记录一次人工纠正：判断为不需要检索，但请求强制检索
+     *
+     * @param message 用户消息
+     * @param decision 被纠正的判断结果
+     */
+    void recordOverride(String message, Decision decision);
+
+    /**
+     * 判断结果
+     *
+     * @param retrieve 是否需要检索
+     * @param reason 判断依据：rule（规则）、classifier（线性分类器）、default（无法判断时默认检索）
+     * @param score 分类器得分（仅 classifier 有意义，大于 0 倾向检索）
+     */
+    record Decision(boolean retrieve, String reason, double score) {
+    }
+}
@@ -0,0 +1,55 @@
+package com.aiagent.service;
+
+import com.aiagent.dto.RetrievalFilter;
+import com.aiagent.model.DocumentChunk;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 关键词检索服务接口
+ *
+ * 用于补充向量检索对错误码、类名、订单号等精确标识符不敏感的问题。
+ * 检索结果的行格式与 {@link VectorSearchService} 一致，分数字段为 keyword_score。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public interface KeywordSearchService {
+
+    /**
+     * 数据源名称（用于日志）
+     */
+    String getName();
+
+    /**
+     * 当前是否可以提供检索
+     */
+    boolean isAvailable();
+
+    /**
+     * 关键词检索
+     *
+     * @param query 查询文本（由实现负责分词）
+     * @param topK 返回前K个结果
+     * @param filter 检索过滤条件（为 null 时不过滤）
+     * @return 匹配的文档块列表，包含关键词相关度分数，按分数降序排列
+     */
+    List<Map<String, Object>> searchKeywordWithScore(String query, int topK, RetrievalFilter filter);
+
+    /**
+     * 写入新入库的文档块（数据库已负责持久化的实现可以忽略）
+     *
+     * @param chunks 文档块
+     */
+    default void indexChunks(List<DocumentChunk> chunks) {
+    }
+
+    /**
+     * 移除文档的所有文档块
+     *
+     * @param documentId 文档ID
+     */
+    default void removeDocument(String documentId) {
+    }
+}
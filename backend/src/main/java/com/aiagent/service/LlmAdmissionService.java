@@ -0,0 +1,55 @@
+package com.aiagent.service;
+
+import com.aiagent.exception.TooManyRequestsException;
+
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * LLM 调用准入控制服务
+ *
+ * 生成类调用（对话、测试接口）和文档入库的批量向量化经由此服务执行：并发数超过自适应上限时按优先级排队，
+ * 预计排队时间超过该优先级的最长等待时间时立即拒绝。检索时的查询向量化不经过此服务。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public interface LlmAdmissionService {
+
+    /**
+     * 调用优先级
+     */
+    enum Priority {
+        /**
+         * 用户正在等待的对话
+         */
+        INTERACTIVE,
+        /**
+         * 文档入库向量化、测试、预热等后台调用
+         */
+        BACKGROUND
+    }
+
+    /**
+     * 在准入控制下执行一次 LLM 调用（不知道生成长度，耗时不参与并发上限调整）
+     *
+     * @param priority 优先级
+     * @param call LLM 调用
+     * @return 调用结果
+     * @throws TooManyRequestsException 服务繁忙，调用未执行
+     */
+    default <T> T execute(Priority priority, Supplier<T> call) {
+        return execute(priority, call, result -> 0);
+    }
+
+    /**
+     * 在准入控制下执行一次 LLM 调用，按生成的 token 数归一化耗时后调整并发上限
+     *
+     * @param priority 优先级
+     * @param call LLM 调用
+     * @param tokens 从调用结果中取生成的 token 数
+     * @return 调用结果
+     * @throws TooManyRequestsException 服务繁忙，调用未执行
+     */
+    <T> T execute(Priority priority, Supplier<T> call, ToIntFunction<? super T> tokens);
+}
@@ -1,8 +1,11 @@
 package com.aiagent.service;
 
+import com.aiagent.dto.RetrievalFilter;
 import com.aiagent.model.DocumentChunk;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * RAG 服务接口
@@ -18,7 +21,40 @@ public interface RAGService {
      * @param topK 返回前K个结果
      * @return 相关文档块列表
      */
-    List<DocumentChunk> retrieveContext(String query, int topK);
+    default List<DocumentChunk> retrieveContext(String query, int topK) {
+        return retrieveContext(query, topK, null);
+    }
+
+    /**
+     * 在指定范围内检索相关文档块
+     *
+     * @param query 查询文本
+     * @param topK 返回前K个结果
+     * @param filter 检索过滤条件（集合、文档），为 null 时检索全部文档
+     * @return 相关文档块列表
+     */
+    List<DocumentChunk> retrieveContext(String query, int topK, RetrievalFilter filter);
+
+    /**
+     * 批量获取文档块向量（来自当前向量检索数据源）
+     *
+     * @param chunkIds 文档块ID
+     * @return 文档块ID到向量的映射，数据源不可用或不支持时为空
+     */
+    default Map<String, float[]> fetchEmbeddings(Collection<String> chunkIds) {
+        return Map.of();
+    }
+
+    /**
+     * 面向查询压缩检索到的文档块：每个块只保留与查询最相关的句子
+     *
+     * @param query 查询文本
+     * @param contextChunks 检索到的文档块
+     * @return 压缩后的文档块（未启用压缩时原样返回）
+     */
+    default List<DocumentChunk> compressContext(String query, List<DocumentChunk> contextChunks) {
+        return contextChunks;
+    }
 
     /**
      * 构建 RAG Prompt
@@ -27,5 +63,17 @@ public interface RAGService {
      * @param contextChunks 检索到的文档块
      * @return 增强后的 Prompt
      */
-    String buildRAGPrompt(String userMessage, List<DocumentChunk> contextChunks);
+    default String buildRAGPrompt(String userMessage, List<DocumentChunk> contextChunks) {
+        return buildRAGPrompt(userMessage, contextChunks, null);
+    }
+
+    /**
+     * 在 token 预算内构建 RAG Prompt
+     *
+     * @param userMessage 用户消息
+     * @param contextChunks 检索到的文档块
+     * @param maxTokens 为回复预留的最大 token 数，为 null 时使用模型默认配置
+     * @return 增强后的 Prompt
+     */
+    String buildRAGPrompt(String userMessage, List<DocumentChunk> contextChunks, Integer maxTokens);
 }
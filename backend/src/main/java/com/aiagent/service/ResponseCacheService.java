@@ -0,0 +1,62 @@
+package com.aiagent.service;
+
+import com.aiagent.model.ResponseCacheEntry;
+
+import java.util.Map;
+
+/**
+ * 回复缓存服务接口
+ *
+ * 以模型、生成参数与最终 Prompt 为 key 缓存确定性生成（temperature 为 0）的回复，
+ * 相同输入直接返回已生成的回复；文档变更后语料版本递增，旧版本的缓存全部失效。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public interface ResponseCacheService {
+
+    /**
+     * 判断该温度下的生成结果是否可以缓存
+     *
+     * @param temperature 生成温度
+     */
+    boolean isCacheable(Double temperature);
+
+    /**
+     * 计算缓存 key
+     *
+     * @param model 模型名称
+     * @param options 生成参数
+     * @param prompt 最终 Prompt
+     */
+    String key(String model, Map<String, Object> options, String prompt);
+
+    /**
+     * 查询缓存的回复
+     *
+     * @return 当前语料版本下未过期的条目，未命中时返回 null
+     */
+    ResponseCacheEntry get(String key);
+
+    /**
+     * 缓存回复
+     *
+     * @param key 缓存 key
+     * @param model 模型名称
+     * @param response 回复内容
+     * @param tokens 生成的 token 数
+     * @param generationMs 生成耗时（毫秒）
+     * @param corpusGeneration 构建 Prompt 之前读取的语料版本，生成期间语料已变更时不写入
+     */
+    void put(String key, String model, String response, Integer tokens, long generationMs, long corpusGeneration);
+
+    /**
+     * 当前语料版本（其他依赖语料的缓存按此判断是否失效）
+     */
+    long corpusGeneration();
+
+    /**
+     * 语料变更（文档入库、删除）：语料版本递增，已缓存的回复全部失效
+     */
+    void invalidate();
+}
@@ -0,0 +1,32 @@
+package com.aiagent.service;
+
+import com.aiagent.dto.ChatRequest;
+import com.aiagent.model.DocumentChunk;
+
+import java.util.List;
+
+/**
+ * 检索预取服务接口
+ *
+ * 用户输入过程中，前端在防抖后提交草稿文本，服务端提前完成查询向量化和检索；
+ * 正式发送的消息与草稿一致时直接复用预取结果。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public interface RetrievalPrefetchService {
+    /**
+     * 异步预取草稿文本的检索结果（立即返回）
+     *
+     * @param request 草稿请求（message 为当前输入内容）
+     */
+    void prefetch(ChatRequest request);
+
+    /**
+     * 取出与正式请求匹配的预取结果（每个结果只使用一次）
+     *
+     * @param request 正式对话请求
+     * @return 预取的文档块；没有匹配的预取或预取失败时返回 null
+     */
+    List<DocumentChunk> take(ChatRequest request);
+}
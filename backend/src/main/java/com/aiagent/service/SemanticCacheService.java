@@ -0,0 +1,57 @@
+package com.aiagent.service;
+
+import com.aiagent.dto.ChatResponse;
+
+import java.util.List;
+
+/**
+ * 语义回复缓存服务接口
+ *
+ * 对问题做向量化，在同一作用域（模型、生成参数、检索范围）和同一语料版本下查找已回答过的相似问题，
+ * 相似度达到阈值时直接返回其回答和参考来源，不再检索和调用模型（适用于同一问题的不同问法）。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public interface SemanticCacheService {
+
+    /**
+     * 该温度下生成的回答是否可以写入和查询语义缓存
+     */
+    boolean isCacheable(Double temperature);
+
+    /**
+     * 查找相似问题的回答
+     *
+     * @param question 用户问题
+     * @param scope 作用域，只在作用域相同的条目中查找
+     * @return 命中的回答，未命中时返回 null
+     */
+    CachedAnswer lookup(String question, String scope);
+
+    /**
+     * 记录一次回答
+     *
+     * @param question 用户问题
+     * @param scope 作用域
+     * @param answer 回答
+     * @param sources 参考来源
+     * @param tokens 生成的 token 数
+     * @param corpusGeneration 检索之前读取的语料版本，生成期间语料已变更时不写入
+     */
+    void store(String question, String scope, String answer, List<ChatResponse.MessageSource> sources,
+               Integer tokens, long corpusGeneration);
+
+    /**
+     * 命中的回答
+     *
+     * @param question 原问题
+     * @param answer 回答
+     * @param sources 参考来源
+     * @param tokens 生成的 token 数
+     * @param similarity 与当前问题的余弦相似度
+     */
+    record CachedAnswer(String question, String answer, List<ChatResponse.MessageSource> sources,
+                        Integer tokens, float similarity) {
+    }
+}
@@ -0,0 +1,77 @@
+package com.aiagent.service;
+
+import com.aiagent.dto.RetrievalFilter;
+import com.aiagent.model.DocumentChunk;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 向量检索服务接口
+ *
+ * 统一 pgvector 与进程内 HNSW 索引的检索入口。检索结果的行格式与
+ * {@link com.aiagent.mapper.DocumentChunkMapper#searchSimilarWithScore} 保持一致：
+ * id、document_id、chunk_index、content、vector_id、created_at、similarity_score（余弦相似度）。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public interface VectorSearchService {
+
+    /**
+     * 数据源名称（用于日志）
+     */
+    String getName();
+
+    /**
+     * 当前是否可以提供检索
+     */
+    boolean isAvailable();
+
+    /**
+     * 向量相似度搜索
+     *
+     * @param embedding 查询向量
+     * @param topK 返回前K个结果
+     * @param filter 检索过滤条件（为 null 时不过滤），实现需在检索内部过滤，保证仍能返回 topK 个结果
+     * @return 相似的文档块列表，包含相似度分数，按相似度降序排列
+     */
+    List<Map<String, Object>> searchSimilarWithScore(float[] embedding, int topK, RetrievalFilter filter);
+
+    /**
+     * 批量获取文档块向量（用于多样性重排等需要候选向量的场景）
+     *
+     * @param chunkIds 文档块ID
+     * @return 文档块ID -> 向量，不存在的ID不出现在结果中
+     */
+    default Map<String, float[]> fetchEmbeddings(Collection<String> chunkIds) {
+        return Map.of();
+    }
+
+    /**
+     * 按 (文档ID, 块序号) 批量获取文档块（用于相邻块扩展）
+     *
+     * @param positions 只需填写 documentId 和 chunkIndex
+     * @return 存在的文档块（不含向量），顺序不保证
+     */
+    default List<DocumentChunk> fetchChunksByPosition(List<DocumentChunk> positions) {
+        return List.of();
+    }
+
+    /**
+     * 写入新入库的文档块（数据库已负责持久化的实现可以忽略）
+     *
+     * @param chunks 带向量嵌入的文档块
+     */
+    default void indexChunks(List<DocumentChunk> chunks) {
+    }
+
+    /**
+     * 移除文档的所有文档块
+     *
+     * @param documentId 文档ID
+     */
+    default void removeDocument(String documentId) {
+    }
+}
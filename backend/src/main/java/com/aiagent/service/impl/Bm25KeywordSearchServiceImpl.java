@@ -0,0 +1,321 @@
+package com.aiagent.service.impl;
+
+import com.aiagent.dto.RetrievalFilter;
+import com.aiagent.mapper.DocumentChunkMapper;
+import com.aiagent.model.DocumentChunk;
+import com.aiagent.service.KeywordSearchService;
+import com.aiagent.util.Bm25Index;
+import com.aiagent.util.TextTokenizer;
+import com.aiagent.util.TokenEstimator;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 进程内 BM25 关键词检索实现
+ *
+ * 适用于数据库全文检索配置无法处理中文的部署：启动时从 document_chunks 全量加载文本建立倒排索引，
+ * 之后按变更游标增量同步（包括软删除），本进程入库和删除的文档也会即时写入。
+ * 索引只保存在内存中，重启后从数据库重建（只拉取文本，不拉取向量）。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Service("bm25KeywordSearchService")
+public class Bm25KeywordSearchServiceImpl implements KeywordSearchService {
+
+    private static final String SOURCE_BM25 = "bm25";
+
+    @Autowired(required = false)
+    private DocumentChunkMapper documentChunkMapper;
+
+    @Value("${spring.ai.rag.hybrid.keyword-source:pg}")
+    private String keywordSource;
+
+    @Value("${spring.ai.rag.hybrid.bm25.k1:1.2}")
+    private float k1;
+
+    @Value("${spring.ai.rag.hybrid.bm25.b:0.75}")
+    private float b;
+
+    @Value("${spring.ai.rag.hybrid.bm25.sync-batch-size:1000}")
+    private int syncBatchSize;
+
+    /**
+     * 已删除文档超过该比例时压缩倒排表
+     */
+    @Value("${spring.ai.rag.hybrid.bm25.compact-ratio:0.2}")
+    private double compactRatio;
+
+    /**
+     * 保护索引写入、文档元数据和同步游标的一致性（检索不需要此锁）
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    private volatile Bm25Index index;
+
+    /**
+     * 文档编号 -> 文档块元数据
+     */
+    private volatile DocumentChunk[] records = new DocumentChunk[0];
+    private final Map<String, Integer> chunkDocs = new ConcurrentHashMap<>();
+    private final Map<String, List<Integer>> documentDocs = new ConcurrentHashMap<>();
+
+    private long syncedSeq;
+    private String syncedId = "";
+    private volatile boolean ready;
+
+    /**
+     * 仅在配置为 bm25 关键词数据源时建立索引，并在后台从数据库全量加载
+     */
+    @PostConstruct
+    public void init() {
+        if (!SOURCE_BM25.equalsIgnoreCase(keywordSource)) {
+            return;
+        }
+
+        index = new Bm25Index(k1, b);
+        if (documentChunkMapper == null) {
+            log.warn("DocumentChunkMapper 未配置，BM25 索引仅包含本进程写入的文档块");
+            ready = true;
+            return;
+        }
+
+        Thread.ofVirtual().name("bm25-initial-sync").start(() -> {
+            long start = System.currentTimeMillis();
+            syncFromDatabase();
+            ready = true;
+            log.info("BM25 索引加载完成，{} 个文档块，{} 个词项，耗时 {} ms",
+                    index.liveCount(), index.termCount(), System.currentTimeMillis() - start);
+        });
+    }
+
+    @Override
+    public String getName() {
+        return SOURCE_BM25;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return index != null && ready;
+    }
+
+    @Override
+    public List<Map<String, Object>> searchKeywordWithScore(String query, int topK, RetrievalFilter filter) {
+        Bm25Index current = index;
+        if (current == null) {
+            return new ArrayList<>();
+        }
+
+        DocumentChunk[] snapshot = records;
+        IntPredicate accept = null;
+        if (filter != null && filter.hasCondition()) {
+            accept = doc -> {
+                DocumentChunk chunk = doc < snapshot.length ? snapshot[doc] : null;
+                return chunk != null && filter.matches(chunk.getCollection(), chunk.getDocumentId());
+            };
+        }
+
+        List<Bm25Index.SearchResult> hits = current.search(TextTokenizer.tokenize(query), topK, accept);
+        List<Map<String, Object>> rows = new ArrayList<>(hits.size());
+        for (Bm25Index.SearchResult hit : hits) {
+            DocumentChunk chunk = hit.doc() < snapshot.length ? snapshot[hit.doc()] : null;
+            if (chunk != null) {
+                rows.add(toRow(chunk, hit.score()));
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public void indexChunks(List<DocumentChunk> chunks) {
+        if (index == null || chunks == null || chunks.isEmpty()) {
+            return;
+        }
+
+        writeLock.lock();
+        try {
+            for (DocumentChunk chunk : chunks) {
+                addChunk(chunk);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void removeDocument(String documentId) {
+        if (index == null) {
+            return;
+        }
+
+        writeLock.lock();
+        try {
+            List<Integer> docs = documentDocs.remove(documentId);
+            if (docs == null) {
+                return;
+            }
+            for (int doc : docs) {
+                removeDoc(doc);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * 定期从数据库增量同步（其他节点写入的文档块、软删除）
+     */
+    @Scheduled(fixedDelayString = "${spring.ai.rag.hybrid.bm25.sync-interval:30000}")
+    public void scheduledSync() {
+        if (ready) {
+            syncFromDatabase();
+            compactIfNeeded();
+        }
+    }
+
+    private void compactIfNeeded() {
+        Bm25Index current = index;
+        if (current != null && current.deletedRatio() > compactRatio) {
+            long start = System.currentTimeMillis();
+            current.compact();
+            log.info("BM25 倒排表压缩完成，耗时 {} ms", System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 按变更游标从数据库拉取文档块文本，写入新增、移除已删除
+     */
+    private void syncFromDatabase() {
+        if (index == null || documentChunkMapper == null || !syncLock.tryLock()) {
+            return;
+        }
+
+        try {
+            int total = 0;
+            while (true) {
+                List<DocumentChunk> batch = documentChunkMapper.selectTextChangedSince(syncedSeq, syncedId,
+                        syncBatchSize);
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                writeLock.lock();
+                try {
+                    for (DocumentChunk chunk : batch) {
+                        if (chunk.getDeletedAt() != null) {
+                            Integer doc = chunkDocs.get(chunk.getId());
+                            if (doc != null) {
+                                removeDoc(doc);
+                                List<Integer> docs = documentDocs.get(chunk.getDocumentId());
+                                if (docs != null) {
+                                    docs.remove(doc);
+                                }
+                            }
+                        } else {
+                            addChunk(chunk);
+                        }
+                        syncedSeq = chunk.getChangeSeq();
+                        syncedId = chunk.getId();
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+
+                total += batch.size();
+                if (batch.size() < syncBatchSize) {
+                    break;
+                }
+            }
+
+            if (total > 0) {
+                log.debug("BM25 索引同步 {} 条变更，当前有效文档块 {} 个", total, index.liveCount());
+            }
+        } catch (Exception e) {
+            log.warn("BM25 索引同步失败，稍后重试: {}", e.getMessage());
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * 写入单个文档块（调用方持有 writeLock）
+     */
+    private void addChunk(DocumentChunk chunk) {
+        if (chunk.getContent() == null || chunkDocs.containsKey(chunk.getId())) {
+            return;
+        }
+
+        // 文档编号按顺序分配；先发布元数据再写入索引，检索线程看到文档时元数据一定可见
+        int doc = index.size();
+        DocumentChunk[] current = records;
+        if (doc >= current.length) {
+            current = Arrays.copyOf(current, Math.max(doc + 1, current.length * 2));
+        }
+        current[doc] = copyWithoutEmbedding(chunk);
+        records = current;
+
+        int added = index.add(TextTokenizer.tokenize(chunk.getContent()));
+        if (added != doc) {
+            throw new IllegalStateException("BM25 文档编号不一致: " + added + " != " + doc);
+        }
+        chunkDocs.put(chunk.getId(), doc);
+        documentDocs.computeIfAbsent(chunk.getDocumentId(), k -> new ArrayList<>()).add(doc);
+    }
+
+    /**
+     * 删除单个文档（调用方持有 writeLock）
+     */
+    private void removeDoc(int doc) {
+        index.delete(doc);
+        DocumentChunk[] current = records;
+        DocumentChunk chunk = current[doc];
+        if (chunk != null) {
+            chunkDocs.remove(chunk.getId());
+            current[doc] = null;
+        }
+    }
+
+    private static DocumentChunk copyWithoutEmbedding(DocumentChunk source) {
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setId(source.getId());
+        chunk.setDocumentId(source.getDocumentId());
+        chunk.setCollection(source.getCollection());
+        chunk.setChunkIndex(source.getChunkIndex());
+        chunk.setContent(source.getContent());
+        chunk.setTokenCount(source.getTokenCount() != null
+                ? source.getTokenCount() : TokenEstimator.estimate(source.getContent()));
+        chunk.setVectorId(source.getVectorId());
+        chunk.setCreatedAt(source.getCreatedAt());
+        return chunk;
+    }
+
+    private static Map<String, Object> toRow(DocumentChunk chunk, float score) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", chunk.getId());
+        row.put("document_id", chunk.getDocumentId());
+        row.put("collection", chunk.getCollection());
+        row.put("chunk_index", chunk.getChunkIndex());
+        row.put("content", chunk.getContent());
+        row.put("token_count", chunk.getTokenCount());
+        row.put("vector_id", chunk.getVectorId());
+        row.put("created_at", chunk.getCreatedAt());
+        row.put("keyword_score", (double) score);
+        return row;
+    }
+}
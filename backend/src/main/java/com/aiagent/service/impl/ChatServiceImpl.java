@@ -1,27 +1,45 @@
 package com.aiagent.service.impl;
 
+import com.aiagent.client.OllamaClient;
 import com.aiagent.dto.ChatRequest;
 import com.aiagent.dto.ChatResponse;
+import com.aiagent.dto.RetrievalFilter;
+import com.aiagent.exception.TooManyRequestsException;
+import com.aiagent.model.DocumentChunk;
+import com.aiagent.model.ResponseCacheEntry;
 import com.aiagent.service.ChatService;
+import com.aiagent.service.ConversationRetrievalService;
+import com.aiagent.service.IntentGateService;
+import com.aiagent.service.LlmAdmissionService;
 import com.aiagent.service.RAGService;
+import com.aiagent.service.ResponseCacheService;
+import com.aiagent.service.RetrievalPrefetchService;
+import com.aiagent.service.SemanticCacheService;
+import com.aiagent.util.SingleFlight;
+import com.aiagent.util.TokenEstimator;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.ollama.api.OllamaOptions;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -40,49 +58,96 @@ public class ChatServiceImpl implements ChatService {
     @Autowired(required = false)
     private ChatClient chatClient;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Autowired(required = false)
+    private IntentGateService intentGateService;
+
+    @Autowired(required = false)
+    private RetrievalPrefetchService prefetchService;
+
+    @Autowired(required = false)
+    private ConversationRetrievalService conversationRetrievalService;
+
+    @Autowired(required = false)
+    private ResponseCacheService responseCacheService;
+
+    @Autowired(required = false)
+    private SemanticCacheService semanticCacheService;
+
+    @Autowired(required = false)
+    private LlmAdmissionService admissionService;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private OllamaClient ollamaClient;
 
     @Value("${spring.ai.ollama.chat.options.model:deepseek-coder}")
     private String model;
 
+    /**
+     * 请求未指定温度时使用的默认温度
+     */
+    @Value("${spring.ai.ollama.chat.options.temperature:0.7}")
+    private double defaultTemperature;
+
     @Value("${spring.ai.rag.top-k:5}")
     private int ragTopK;
 
+    /**
+     * 模型上下文窗口，RAG Prompt 按此预算装箱，直接调用 API 时需同步传给 Ollama
+     */
+    @Value("${spring.ai.ollama.chat.options.num-ctx:4096}")
+    private int numCtx;
+
+    /**
+     * 是否合并同时进行的相同请求（同一问题、模型与参数只检索和生成一次）
+     */
+    @Value("${spring.ai.chat.single-flight.enabled:true}")
+    private boolean singleFlightEnabled;
+
+    /**
+     * 合并请求中单个调用方最多积压的未发送事件数，超过时断开该调用方（客户端接收过慢）
+     */
+    @Value("${spring.ai.chat.single-flight.max-pending-events:1024}")
+    private int singleFlightMaxPendingEvents;
+
+    private SingleFlight<String, Consumer<StreamListener>, Generation> singleFlight;
+
+    /**
+     * 正在处理的对话请求数（含排队等待模型的请求），用于压测观察并发对话数
+     */
+    private final AtomicInteger inFlightChats = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        if (meterRegistry != null) {
+            meterRegistry.gauge("chat.in-flight", inFlightChats);
+        }
+        if (singleFlightEnabled) {
+            singleFlight = new SingleFlight<>(singleFlightMaxPendingEvents);
+            if (meterRegistry != null) {
+                meterRegistry.gauge("chat.single-flight.in-flight", singleFlight, SingleFlight::inFlight);
+            }
+        }
+    }
+
     @Override
     public ChatResponse sendMessage(ChatRequest request) {
         long startTime = System.currentTimeMillis();
 
+        inFlightChats.incrementAndGet();
         try {
             log.info("========== 开始处理对话请求 ==========");
             log.info("模型: {}", model);
             log.info("用户消息: {}", request.getMessage());
             log.info("使用RAG: {}", request.getUseRAG());
 
-            String prompt = request.getMessage();
-            List<ChatResponse.MessageSource> sources = new ArrayList<>();
-
-            // 如果启用 RAG，检索相关文档
-            if (request.getUseRAG() != null && request.getUseRAG() && ragService != null) {
-                log.info("启用 RAG，开始检索相关文档...");
-                var contextChunks = ragService.retrieveContext(request.getMessage(), ragTopK);
-
-                if (!contextChunks.isEmpty()) {
-                    log.info("检索到 {} 个相关文档块", contextChunks.size());
-                    prompt = ragService.buildRAGPrompt(request.getMessage(), contextChunks);
-
-                    // 构建来源信息
-                    sources = contextChunks.stream()
-                            .map(chunk -> ChatResponse.MessageSource.builder()
-                                    .documentId(chunk.getDocumentId())
-                                    .chunkIndex(chunk.getChunkIndex()).build())
-                            .collect(Collectors.toList());
-                } else {
-                    log.warn("未检索到相关文档，使用普通对话模式");
-                }
-            }
-
-            // 调用 AI 生成回复（优先使用 Spring AI ChatClient，降级到直接 HTTP 调用）
-            String aiMessage = callOllama(prompt);
+            // 检索并调用 AI 生成回复（优先使用 Spring AI ChatClient，降级到直接调用 Ollama API）
+            Generation generation = generate(request, null);
+            PreparedPrompt prepared = generation.prepared();
+            String aiMessage = generation.message() != null && !generation.message().isBlank()
+                    ? generation.message() : "AI 未返回有效响应";
 
             long endTime = System.currentTimeMillis();
             double responseTime = (endTime - startTime) / 1000.0;
@@ -96,171 +161,430 @@ public class ChatServiceImpl implements ChatService {
                             request.getConversationId() != null ? request.getConversationId()
                                     : UUID.randomUUID().toString())
                     .messageId(UUID.randomUUID().toString())
-                    .sources(sources.isEmpty() ? null : sources)
-                    .metadata(ChatResponse.Metadata.builder().model(model).tokens(0) // TODO: 从响应中提取
-                            .responseTime(responseTime).build())
+                    .sources(prepared.sources().isEmpty() ? null : prepared.sources())
+                    .metadata(ChatResponse.Metadata.builder().model(model).tokens(generation.tokens())
+                            .responseTime(responseTime).cache(generation.cache()).build())
                     .build();
 
+        } catch (TooManyRequestsException e) {
+            throw e;
         } catch (Exception e) {
             log.error("处理对话请求失败", e);
             throw new RuntimeException("AI 服务调用失败: " + e.getMessage(), e);
+        } finally {
+            inFlightChats.decrementAndGet();
         }
     }
 
-    /**
-     * 调用 Ollama 生成回复 优先使用 Spring AI ChatClient，然后是 RestTemplate，最后是直接 HTTP 调用
-     *
-     * @param prompt 提示词
-     * @return AI 生成的回复
-     */
-    private String callOllama(String prompt) {
+    @Override
+    public ChatResponse streamMessage(ChatRequest request, StreamListener listener) {
+        long startTime = System.currentTimeMillis();
+
+        inFlightChats.incrementAndGet();
         try {
-            // 优先使用 Spring AI ChatClient（最佳方案）
-            if (chatClient != null) {
-                log.info("使用 Spring AI ChatClient 调用 AI 模型");
-                return chatClient.prompt(prompt).call().content();
-            }
+            log.info("========== 开始处理流式对话请求 ==========");
+            log.info("模型: {}，用户消息: {}，使用RAG: {}", model, request.getMessage(), request.getUseRAG());
+
+            long[] firstTokenAt = {0};
+            Generation generation = generate(request, new StreamListener() {
+                @Override
+                public void onSources(List<ChatResponse.MessageSource> sources) {
+                    listener.onSources(sources);
+                }
+
+                @Override
+                public void onToken(String content) {
+                    if (firstTokenAt[0] == 0) {
+                        firstTokenAt[0] = System.currentTimeMillis();
+                        if (meterRegistry != null) {
+                            meterRegistry.timer("chat.stream.first-token")
+                                    .record(firstTokenAt[0] - startTime, TimeUnit.MILLISECONDS);
+                        }
+                    }
+                    listener.onToken(content);
+                }
+            });
+            PreparedPrompt prepared = generation.prepared();
+            Integer tokens = generation.tokens();
+
+            double responseTime = (System.currentTimeMillis() - startTime) / 1000.0;
+            Double firstTokenTime = firstTokenAt[0] > 0 ? (firstTokenAt[0] - startTime) / 1000.0 : null;
+            log.info("流式回复完成，首个 token {}秒，总耗时 {}秒，{} 个 token", firstTokenTime, responseTime, tokens);
 
-            // 使用 RestTemplate 调用（改进方案）
-            return callOllamaWithRestTemplate(prompt);
+            return ChatResponse.builder().message(generation.message())
+                    .conversationId(request.getConversationId())
+                    .messageId(UUID.randomUUID().toString())
+                    .sources(prepared.sources().isEmpty() ? null : prepared.sources())
+                    .metadata(ChatResponse.Metadata.builder().model(model).tokens(tokens != null ? tokens : 0)
+                            .responseTime(responseTime).firstTokenTime(firstTokenTime)
+                            .cache(generation.cache()).build())
+                    .build();
+        } catch (UncheckedIOException e) {
+            // 客户端断开：停止读取即关闭与 Ollama 的连接，模型随之停止生成（有合并的相同请求时继续为其生成）
+            log.info("客户端已断开，停止流式生成: {}", e.getMessage());
+            throw e;
+        } catch (TooManyRequestsException e) {
+            throw e;
         } catch (Exception e) {
-            log.warn("RestTemplate 调用失败，降级到直接 HTTP 调用: {}", e.getMessage());
-            // 降级到直接 HTTP 调用
-            try {
-                return callOllamaDirectly(prompt);
-            } catch (Exception ex) {
-                log.error("直接 HTTP 调用也失败", ex);
-                throw new RuntimeException("AI 服务调用失败: " + ex.getMessage(), ex);
-            }
+            log.error("处理流式对话请求失败", e);
+            throw new RuntimeException("AI 服务调用失败: " + e.getMessage(), e);
+        } finally {
+            inFlightChats.decrementAndGet();
         }
     }
 
     /**
-     * 使用 RestTemplate 调用 Ollama API（改进方案） 使用 Spring 的 RestTemplate 和 Map 处理 JSON，更简洁可靠
+     * 检索并生成回复
      *
-     * @param prompt 提示词
-     * @return AI 生成的回复
+     * 同时进行的相同请求（归一化后的问题、检索改写结果、模型、参数、过滤条件与调用方式均相同）合并为一次检索和生成，
+     * 后到的请求挂到进行中的生成上：流式请求先补发已生成的内容再接收后续内容，各自的会话同样记录本轮检索结果。
+     * 合并之前先查语义缓存：同一作用域内已回答过的相似问题直接返回其回答和来源（追问依赖上文，不使用语义缓存）。
+     *
+     * @param request 对话请求
+     * @param listener 流式回调，为 null 时非流式生成
      */
-    private String callOllamaWithRestTemplate(String prompt) {
-        String url = "http://localhost:11434/api/generate";
+    private Generation generate(ChatRequest request, StreamListener listener) {
+        String retrievalQuery = request.getMessage();
+        if (Boolean.TRUE.equals(request.getUseRAG()) && ragService != null && conversationRetrievalService != null) {
+            retrievalQuery = conversationRetrievalService.rewrite(request.getConversationId(), request.getMessage());
+        }
+        String query = retrievalQuery;
+
+        Double temperature = request.getTemperature() != null ? request.getTemperature() : defaultTemperature;
+        boolean semantic = semanticCacheService != null && !Boolean.FALSE.equals(request.getUseCache())
+                && query.equals(request.getMessage()) && semanticCacheService.isCacheable(temperature);
+        String scope = semantic ? semanticScope(request, temperature) : null;
+        SemanticCacheService.CachedAnswer cachedAnswer = semantic
+                ? semanticCacheService.lookup(request.getMessage(), scope) : null;
+        if (cachedAnswer != null) {
+            List<ChatResponse.MessageSource> sources = cachedAnswer.sources();
+            if (listener != null) {
+                listener.onSources(sources);
+                listener.onToken(cachedAnswer.answer());
+            }
+            return new Generation(new PreparedPrompt(null, sources, null), cachedAnswer.answer(),
+                    cachedAnswer.tokens(), "semantic", 0);
+        }
 
-        // 构建请求体
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", model);
-        requestBody.put("prompt", prompt);
-        requestBody.put("stream", false);
+        SingleFlight.Task<Consumer<StreamListener>, Generation> task =
+                publisher -> runGeneration(request, query, listener != null, publisher);
 
-        // 设置请求头
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
+        if (singleFlight == null) {
+            Generation generation = task.run(event -> event.accept(listener));
+            storeSemantic(request, scope, generation);
+            return generation;
+        }
+        SingleFlight.Outcome<Generation> outcome = singleFlight.execute(flightKey(request, query, listener != null),
+                task, listener != null ? event -> event.accept(listener) : null);
+        if (meterRegistry != null) {
+            meterRegistry.counter("chat.single-flight", "role", outcome.leader() ? "leader" : "follower").increment();
+        }
+        Generation generation = outcome.value();
+        if (outcome.leader()) {
+            storeSemantic(request, scope, generation);
+        } else {
+            log.info("合并到进行中的相同请求，复用其检索与生成结果");
+            if (conversationRetrievalService != null && generation.prepared().retrieved() != null) {
+                conversationRetrievalService.recordTurn(request.getConversationId(), request.getMessage(),
+                        generation.prepared().retrieved());
+            }
+        }
+        return generation;
+    }
 
-        log.debug("使用 RestTemplate 调用 Ollama API，模型: {}, 提示词长度: {}", model, prompt.length());
+    /**
+     * 新生成的有效回答写入语义缓存
+     *
+     * @param scope 语义缓存作用域，为 null 时不写入
+     */
+    private void storeSemantic(ChatRequest request, String scope, Generation generation) {
+        if (scope == null || generation.cache() != null
+                || generation.message() == null || generation.message().isBlank()) {
+            return;
+        }
+        try {
+            semanticCacheService.store(request.getMessage(), scope, generation.message(),
+                    generation.prepared().sources(), generation.tokens(), generation.corpusGeneration());
+        } catch (Exception e) {
+            log.warn("写入语义缓存失败: {}", e.getMessage());
+        }
+    }
 
-        // 发送请求
-        ResponseEntity<Map<String, Object>> response = restTemplate.exchange(url, HttpMethod.POST,
-                request, new ParameterizedTypeReference<Map<String, Object>>() {});
+    /**
+     * 语义缓存作用域：影响回答内容的模型、生成参数（温度、最大 token 数）与检索范围
+     */
+    private String semanticScope(ChatRequest request, Double temperature) {
+        return String.join("\u0001", model, String.valueOf(new TreeMap<>(
+                        generationOptions(request.getMaxTokens(), temperature))),
+                String.valueOf(Boolean.TRUE.equals(request.getUseRAG())),
+                String.valueOf(RetrievalFilter.of(request.getCollections(), request.getDocumentIds())));
+    }
 
-        if (response.getStatusCode().is2xxSuccessful()) {
-            Map<String, Object> body = response.getBody();
-            if (body != null) {
-                String result = (String) body.get("response");
-                log.debug("RestTemplate 调用成功，响应长度: {}", result != null ? result.length() : 0);
-                return result != null ? result : "AI 未返回有效响应";
-            } else {
-                throw new RuntimeException("Ollama API 返回空响应");
+    /**
+     * 执行一次检索与生成：构建 Prompt，命中回复缓存时直接返回，否则调用模型并写入缓存
+     *
+     * @param request 对话请求
+     * @param retrievalQuery 结合上文改写后的检索查询
+     * @param stream 是否流式生成
+     * @param publisher 流式事件发布器
+     */
+    private Generation runGeneration(ChatRequest request, String retrievalQuery, boolean stream,
+            Consumer<Consumer<StreamListener>> publisher) {
+        // 在检索之前读取语料版本：检索到生成结束之间语料变更时，回复不会以新版本写入缓存
+        long corpusGeneration = responseCacheService != null ? responseCacheService.corpusGeneration() : 0;
+        PreparedPrompt prepared = preparePrompt(request, retrievalQuery);
+        Double temperature = request.getTemperature() != null ? request.getTemperature() : defaultTemperature;
+        Map<String, Object> options = generationOptions(request.getMaxTokens(), temperature);
+
+        // 确定性生成：相同的模型、参数与最终 Prompt 直接返回已缓存的回复
+        String cacheKey = responseCacheService != null && !Boolean.FALSE.equals(request.getUseCache())
+                && responseCacheService.isCacheable(temperature)
+                ? responseCacheService.key(model, options, prepared.prompt()) : null;
+        ResponseCacheEntry cached = cacheKey != null ? responseCacheService.get(cacheKey) : null;
+        if (cached != null) {
+            log.info("命中回复缓存，跳过生成");
+            if (stream) {
+                publisher.accept(target -> target.onSources(prepared.sources()));
+                publisher.accept(target -> target.onToken(cached.getResponse()));
             }
+            return new Generation(prepared, cached.getResponse(), cached.getTokens(), "exact", corpusGeneration);
+        }
+
+        long generationStart = System.currentTimeMillis();
+        String message;
+        int tokens;
+        if (stream) {
+            publisher.accept(target -> target.onSources(prepared.sources()));
+            StringBuilder streamed = new StringBuilder();
+            Integer evalCount = admit(() -> streamOllama(prepared.prompt(), options, request.getConversationId(),
+                    content -> {
+                        streamed.append(content);
+                        publisher.accept(target -> target.onToken(content));
+                    }), count -> count);
+            message = streamed.toString();
+            tokens = evalCount != null ? evalCount : 0;
         } else {
-            throw new RuntimeException("Ollama API 调用失败，状态码: " + response.getStatusCode());
+            Completion completion = admit(() -> callOllama(prepared.prompt(), options, request.getConversationId()),
+                    Completion::tokens);
+            message = completion.content();
+            tokens = completion.tokens();
+        }
+        // 模型未返回生成 token 数时按内容估算，避免写入缓存和响应元数据的 token 数为 0
+        if (tokens <= 0 && message != null && !message.isBlank()) {
+            tokens = TokenEstimator.estimate(message);
         }
+        if (cacheKey != null && message != null && !message.isBlank()) {
+            responseCacheService.put(cacheKey, model, message, tokens,
+                    System.currentTimeMillis() - generationStart, corpusGeneration);
+        }
+        return new Generation(prepared, message, tokens, null, corpusGeneration);
+    }
+
+    /**
+     * 以交互优先级在准入控制下调用模型（并发已满时排队，服务繁忙时抛出 TooManyRequestsException）
+     */
+    private <T> T admit(Supplier<T> call, ToIntFunction<? super T> tokens) {
+        return admissionService != null
+                ? admissionService.execute(LlmAdmissionService.Priority.INTERACTIVE, call, tokens) : call.get();
     }
 
     /**
-     * 直接调用 Ollama API（降级方案） 当 Spring AI ChatClient 不可用时使用此方法
+     * 合并 key：影响检索与生成结果的全部输入
+     */
+    private String flightKey(ChatRequest request, String retrievalQuery, boolean stream) {
+        return String.join("\u0001", model, String.valueOf(stream), String.valueOf(request.getMaxTokens()),
+                String.valueOf(request.getTemperature()),
+                String.valueOf(Boolean.TRUE.equals(request.getUseRAG())),
+                String.valueOf(Boolean.TRUE.equals(request.getForceRAG())),
+                String.valueOf(RetrievalFilter.of(request.getCollections(), request.getDocumentIds())),
+                normalize(request.getMessage()), normalize(retrievalQuery));
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 构建本轮 Prompt：判断是否需要检索，检索、压缩并装箱上下文
      *
-     * @param prompt 提示词
-     * @return AI 生成的回复
-     * @throws Exception 调用失败时抛出异常
+     * @param request 对话请求
+     * @param retrievalQuery 结合上文改写后的检索查询
      */
-    private String callOllamaDirectly(String prompt) throws Exception {
-        java.net.URI uri = java.net.URI.create("http://localhost:11434/api/generate");
-        java.net.URL url = uri.toURL();
-        java.net.HttpURLConnection conn = (java.net.HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setDoOutput(true);
-        conn.setConnectTimeout(10000);
-        conn.setReadTimeout(60000);
-
-        String requestBody = String.format("{\"model\":\"%s\",\"prompt\":\"%s\",\"stream\":false}",
-                model, escapeJson(prompt));
-
-        try (java.io.OutputStream os = conn.getOutputStream()) {
-            os.write(requestBody.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+    private PreparedPrompt preparePrompt(ChatRequest request, String retrievalQuery) {
+        String prompt = request.getMessage();
+        List<ChatResponse.MessageSource> sources = new ArrayList<>();
+        List<DocumentChunk> retrieved = null;
+
+        // 如果启用 RAG，先判断本轮是否需要检索（寒暄、针对上一轮的改写指令等跳过检索）
+        boolean ragEnabled = request.getUseRAG() != null && request.getUseRAG() && ragService != null;
+        boolean forceRAG = Boolean.TRUE.equals(request.getForceRAG());
+        IntentGateService.Decision decision = ragEnabled && intentGateService != null
+                ? intentGateService.evaluate(request.getMessage()) : null;
+        if (decision != null && !decision.retrieve() && forceRAG) {
+            intentGateService.recordOverride(request.getMessage(), decision);
         }
 
-        int responseCode = conn.getResponseCode();
-        if (responseCode != 200) {
-            throw new RuntimeException("Ollama API 调用失败，状态码: " + responseCode);
-        }
+        if (ragEnabled && (decision == null || decision.retrieve() || forceRAG)) {
+            log.info("启用 RAG，开始检索相关文档...");
+            RetrievalFilter filter = RetrievalFilter.of(request.getCollections(), request.getDocumentIds());
+            String conversationId = request.getConversationId();
+            // 输入过程中已预取且文本一致时直接复用；追问结合上文改写，优先在本会话的候选集中检索
+            List<DocumentChunk> contextChunks = prefetchService != null ? prefetchService.take(request) : null;
+            if (contextChunks == null) {
+                contextChunks = conversationRetrievalService != null
+                        ? conversationRetrievalService.retrieve(conversationId, request.getMessage(), ragTopK, filter)
+                        : ragService.retrieveContext(request.getMessage(), ragTopK, filter);
+            }
+            retrieved = contextChunks;
+            if (conversationRetrievalService != null) {
+                conversationRetrievalService.recordTurn(conversationId, request.getMessage(), contextChunks);
+            }
 
-        StringBuilder response = new StringBuilder();
-        try (java.io.BufferedReader reader =
-                new java.io.BufferedReader(new java.io.InputStreamReader(conn.getInputStream(),
-                        java.nio.charset.StandardCharsets.UTF_8))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
+            if (!contextChunks.isEmpty()) {
+                log.info("检索到 {} 个相关文档块", contextChunks.size());
+                contextChunks = ragService.compressContext(retrievalQuery, contextChunks);
+                prompt = ragService.buildRAGPrompt(request.getMessage(), contextChunks, request.getMaxTokens());
+
+                // 构建来源信息
+                sources = contextChunks.stream()
+                        .map(chunk -> ChatResponse.MessageSource.builder()
+                                .documentId(chunk.getDocumentId())
+                                .chunkIndex(chunk.getChunkIndex()).build())
+                        .collect(Collectors.toList());
+            } else {
+                log.warn("未检索到相关文档，使用普通对话模式");
             }
         }
+        return new PreparedPrompt(prompt, sources, retrieved);
+    }
 
-        return extractResponse(response.toString());
+    /**
+     * 以流式方式调用 Ollama：逐行读取 NDJSON 响应，每段生成内容回调一次
+     *
+     * @param prompt 提示词
+     * @param options 生成参数
+     * @param conversationId 对话ID，多节点时同一对话固定到同一节点
+     * @param onToken 生成内容回调
+     * @return 生成的 token 数（Ollama 未返回时为 0）
+     */
+    private Integer streamOllama(String prompt, Map<String, Object> options, String conversationId,
+            Consumer<String> onToken) {
+        return ollamaClient.postStream(OllamaClient.Operation.GENERATE, "/api/generate",
+                generateRequest(prompt, options, true), conversationId, chunk -> {
+                    if (chunk.hasNonNull("error")) {
+                        throw new IllegalStateException("Ollama 生成失败: " + chunk.get("error").asText());
+                    }
+                    String content = chunk.path("response").asText("");
+                    if (!content.isEmpty()) {
+                        onToken.accept(content);
+                    }
+                    return chunk.path("done").asBoolean(false) ? chunk.path("eval_count").asInt(0) : null;
+                });
     }
 
-    private String escapeJson(String str) {
-        return str.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")
-                .replace("\r", "\\r").replace("\t", "\\t");
+    /**
+     * 本轮 Prompt 及其参考来源
+     *
+     * @param retrieved 压缩前的检索结果，未检索时为 null
+     */
+    private record PreparedPrompt(String prompt, List<ChatResponse.MessageSource> sources,
+            List<DocumentChunk> retrieved) {
     }
 
-    private String extractResponse(String jsonResponse) {
-        try {
-            int responseStart = jsonResponse.indexOf("\"response\":\"");
-            if (responseStart == -1) {
-                return "无法解析 AI 响应";
-            }
-            responseStart += 11;
-
-            int responseEnd = responseStart;
-            boolean escaped = false;
-            for (int i = responseStart; i < jsonResponse.length(); i++) {
-                char c = jsonResponse.charAt(i);
-                if (escaped) {
-                    escaped = false;
-                    continue;
-                }
-                if (c == '\\') {
-                    escaped = true;
-                    continue;
-                }
-                if (c == '"' && i > responseStart) {
-                    if (i + 1 < jsonResponse.length() && (jsonResponse.charAt(i + 1) == ','
-                            || jsonResponse.charAt(i + 1) == '}')) {
-                        responseEnd = i;
-                        break;
-                    }
-                }
-            }
+    /**
+     * 一次检索与生成的结果
+     *
+     * @param message 回复内容，模型未返回内容时可能为 null
+     * @param cache 命中的回复缓存（exact、semantic），重新生成时为 null
+     * @param corpusGeneration 检索之前读取的语料版本
+     */
+    private record Generation(PreparedPrompt prepared, String message, Integer tokens, String cache,
+            long corpusGeneration) {
+    }
+
+    /**
+     * 一次非流式生成的结果
+     *
+     * @param content 回复内容，未返回内容时为 null
+     * @param tokens 生成的 token 数（模型未返回时为 0）
+     */
+    private record Completion(String content, int tokens) {
+    }
 
-            if (responseEnd == responseStart) {
-                responseEnd = jsonResponse.length() - 1;
+    /**
+     * 调用 Ollama 生成回复：优先使用 Spring AI ChatClient，不可用或调用失败时直接调用 Ollama API
+     *
+     * @param prompt 提示词
+     * @param options 生成参数，两种调用方式都会传入（上下文窗口需与 RAG Prompt 装箱预算一致）
+     * @param conversationId 对话ID，多节点时同一对话固定到同一节点
+     * @return 回复内容与生成的 token 数
+     */
+    private Completion callOllama(String prompt, Map<String, Object> options, String conversationId) {
+        // ChatClient 只连接 spring.ai.ollama.base-url，配置了多个生成节点时直接调用 API 以便负载均衡
+        if (chatClient != null && ollamaClient.nodeCount(OllamaClient.Operation.GENERATE) == 1) {
+            try {
+                log.info("使用 Spring AI ChatClient 调用 AI 模型");
+                org.springframework.ai.chat.model.ChatResponse response = chatClient.prompt(prompt)
+                        .options(chatOptions(options)).call().chatResponse();
+                String content = response != null && response.getResult() != null
+                        ? response.getResult().getOutput().getContent() : null;
+                Long tokens = response != null ? response.getMetadata().getUsage().getGenerationTokens() : null;
+                return new Completion(content, tokens != null ? tokens.intValue() : 0);
+            } catch (Exception e) {
+                log.warn("ChatClient 调用失败，改为直接调用 Ollama API: {}", e.getMessage());
             }
+        }
 
-            String response = jsonResponse.substring(responseStart, responseEnd);
-            return response.replace("\\n", "\n").replace("\\r", "\r").replace("\\t", "\t")
-                    .replace("\\\"", "\"").replace("\\\\", "\\");
-        } catch (Exception e) {
-            log.error("解析响应失败", e);
-            return "解析 AI 响应时出错: " + e.getMessage();
+        log.debug("直接调用 Ollama API，模型: {}, 提示词长度: {}", model, prompt.length());
+        JsonNode response = ollamaClient.post(OllamaClient.Operation.GENERATE, "/api/generate",
+                generateRequest(prompt, options, false), conversationId);
+        if (response.hasNonNull("error")) {
+            throw new IllegalStateException("Ollama 生成失败: " + response.get("error").asText());
+        }
+        String result = response.path("response").asText(null);
+        log.debug("Ollama API 调用成功，响应长度: {}", result != null ? result.length() : 0);
+        return new Completion(result, response.path("eval_count").asInt(0));
+    }
+
+    /**
+     * 把直接调用 API 的生成参数转换为 ChatClient 的请求参数（否则 ChatClient 使用配置的默认参数，
+     * num_ctx 与 Prompt 装箱预算不一致、max-tokens 失效）
+     */
+    private OllamaOptions chatOptions(Map<String, Object> options) {
+        OllamaOptions chatOptions = OllamaOptions.create()
+                .withNumCtx((Integer) options.get("num_ctx"))
+                .withTemperature((Double) options.get("temperature"));
+        if (options.get("num_predict") instanceof Integer numPredict) {
+            chatOptions.withNumPredict(numPredict);
         }
+        return chatOptions;
+    }
+
+    /**
+     * 生成参数（上下文窗口需与 RAG Prompt 装箱预算一致）
+     *
+     * @param maxTokens 回复最大 token 数，为 null 时使用模型默认配置
+     * @param temperature 生成温度
+     */
+    private Map<String, Object> generationOptions(Integer maxTokens, Double temperature) {
+        Map<String, Object> options = new HashMap<>();
+        options.put("num_ctx", numCtx);
+        options.put("temperature", temperature);
+        if (maxTokens != null && maxTokens > 0) {
+            options.put("num_predict", maxTokens);
+        }
+        return options;
+    }
+
+    /**
+     * 构建 /api/generate 请求体
+     */
+    private Map<String, Object> generateRequest(String prompt, Map<String, Object> options, boolean stream) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", model);
+        requestBody.put("prompt", prompt);
+        requestBody.put("stream", stream);
+        requestBody.put("options", options);
+        return requestBody;
     }
 }
@@ -0,0 +1,281 @@
+package com.aiagent.service.impl;
+
+import com.aiagent.dto.RetrievalFilter;
+import com.aiagent.model.DocumentChunk;
+import com.aiagent.service.ConversationRetrievalService;
+import com.aiagent.service.EmbeddingService;
+import com.aiagent.service.RAGService;
+import com.aiagent.util.ExpiringLruCache;
+import com.aiagent.util.FollowUpRewriter;
+import com.aiagent.util.VectorMath;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 会话级检索实现
+ *
+ * 每个对话保留一个会话状态：最近一次独立问题（追问改写的上文）和最近几轮检索到的文档块及其向量（候选集），
+ * 按最后写入时间过期。追问时：
+ * 1. 与上文问题拼接成独立查询
+ * 2. 用原始追问（而不是改写后的查询，其中的上文问题必然与候选集相似）的向量与候选集逐个计算余弦相似度，
+ *    达到较高阈值的候选足够多时直接返回，不访问向量库
+ * 3. 否则用改写后的查询全量检索
+ * 非追问消息直接全量检索。会话状态只在记录本轮时更新，预取等只读场景不会改变状态；
+ * 文档删除或重新处理时，候选集中含有该文档块的会话状态整体丢弃。
+ * 指标：rag.session.rewrites、rag.session.lookups（result=session/full）。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Service
+public class ConversationRetrievalServiceImpl implements ConversationRetrievalService {
+
+    @Autowired(required = false)
+    private RAGService ragService;
+
+    @Autowired(required = false)
+    private EmbeddingService embeddingService;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${spring.ai.rag.session.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 会话状态有效期（毫秒），从最后一轮记录时算起
+     */
+    @Value("${spring.ai.rag.session.ttl-ms:1800000}")
+    private long ttlMillis;
+
+    @Value("${spring.ai.rag.session.max-sessions:10000}")
+    private int maxSessions;
+
+    /**
+     * 每个会话保留的候选文档块数（新一轮的结果排在前面）
+     */
+    @Value("${spring.ai.rag.session.pool-size:40}")
+    private int poolSize;
+
+    /**
+     * 超过该 token 数的消息不视为追问
+     */
+    @Value("${spring.ai.rag.session.follow-up-max-tokens:24}")
+    private int followUpMaxTokens;
+
+    /**
+     * 候选集增量检索的相似度阈值（原始追问与候选块之间），需明显高于全量检索的相关度阈值
+     */
+    @Value("${spring.ai.rag.session.min-score:0.8}")
+    private float minScore;
+
+    /**
+     * 候选集中达到阈值的文档块少于该数量（且少于 topK）时退回全量检索
+     */
+    @Value("${spring.ai.rag.session.min-hits:2}")
+    private int minHits;
+
+    private ExpiringLruCache<String, Session> sessions;
+
+    @PostConstruct
+    public void init() {
+        sessions = new ExpiringLruCache<>(Math.max(1, maxSessions), ttlMillis);
+    }
+
+    @Override
+    public String rewrite(String conversationId, String query) {
+        Session session = session(conversationId);
+        if (session == null || !FollowUpRewriter.isFollowUp(query, followUpMaxTokens)) {
+            return query;
+        }
+        return FollowUpRewriter.rewrite(session.topic(), query);
+    }
+
+    @Override
+    public List<DocumentChunk> retrieve(String conversationId, String query, int topK, RetrievalFilter filter) {
+        if (ragService == null) {
+            return new ArrayList<>();
+        }
+        Session session = session(conversationId);
+        if (session == null || !FollowUpRewriter.isFollowUp(query, followUpMaxTokens)) {
+            return ragService.retrieveContext(query, topK, filter);
+        }
+
+        String rewritten = FollowUpRewriter.rewrite(session.topic(), query);
+        if (meterRegistry != null) {
+            meterRegistry.counter("rag.session.rewrites").increment();
+        }
+        log.info("追问改写，对话: {}，改写后查询: {}", conversationId, rewritten);
+
+        List<DocumentChunk> incremental = searchSession(session, query, topK, filter);
+        if (incremental != null) {
+            record("session");
+            log.info("会话候选集命中 {} 个文档块（候选集 {} 个），跳过全量检索",
+                    incremental.size(), session.candidates().size());
+            return incremental;
+        }
+
+        record("full");
+        return ragService.retrieveContext(rewritten, topK, filter);
+    }
+
+    @Override
+    public void recordTurn(String conversationId, String query, List<DocumentChunk> chunks) {
+        if (!enabled || conversationId == null || conversationId.isEmpty() || query == null) {
+            return;
+        }
+
+        Session previous = sessions.get(conversationId);
+        // 追问沿用上文问题，新问题成为后续追问的上文
+        String topic = previous != null && FollowUpRewriter.isFollowUp(query, followUpMaxTokens)
+                ? previous.topic() : query.strip();
+
+        List<Candidate> candidates = new ArrayList<>();
+        Set<String> seen = new LinkedHashSet<>();
+        if (chunks != null && !chunks.isEmpty()) {
+            Map<String, float[]> embeddings = fetchEmbeddings(chunks);
+            for (DocumentChunk chunk : chunks) {
+                float[] embedding = embeddings.get(chunk.getId());
+                if (embedding != null && seen.add(chunk.getId())) {
+                    candidates.add(new Candidate(chunk, embedding));
+                }
+            }
+        }
+        if (previous != null) {
+            for (Candidate candidate : previous.candidates()) {
+                if (candidates.size() >= poolSize) {
+                    break;
+                }
+                if (seen.add(candidate.chunk().getId())) {
+                    candidates.add(candidate);
+                }
+            }
+        }
+        if (candidates.size() > poolSize) {
+            candidates = new ArrayList<>(candidates.subList(0, poolSize));
+        }
+        sessions.put(conversationId, new Session(topic, List.copyOf(candidates)));
+    }
+
+    @Override
+    public void evictDocument(String documentId) {
+        if (!enabled || documentId == null) {
+            return;
+        }
+        int evicted = sessions.removeIf(session -> session.candidates().stream()
+                .anyMatch(candidate -> documentId.equals(candidate.chunk().getDocumentId())));
+        if (evicted > 0) {
+            log.info("文档 {} 已变更，丢弃 {} 个会话的检索候选集", documentId, evicted);
+        }
+    }
+
+    /**
+     * 在会话候选集中检索
+     *
+     * @param query 原始追问
+     * @return 达到阈值的候选足够多时返回前 topK 个（分数为与原始追问的相似度），否则返回 null
+     */
+    private List<DocumentChunk> searchSession(Session session, String query, int topK, RetrievalFilter filter) {
+        if (session.candidates().isEmpty() || embeddingService == null) {
+            return null;
+        }
+
+        float[] queryEmbedding;
+        try {
+            queryEmbedding = embeddingService.embed(query);
+        } catch (RuntimeException e) {
+            log.warn("追问向量生成失败，退回全量检索: {}", e.getMessage());
+            return null;
+        }
+
+        List<DocumentChunk> hits = new ArrayList<>();
+        for (Candidate candidate : session.candidates()) {
+            DocumentChunk chunk = candidate.chunk();
+            if (filter != null && !filter.matches(chunk.getCollection(), chunk.getDocumentId())) {
+                continue;
+            }
+            if (candidate.embedding().length != queryEmbedding.length) {
+                continue;
+            }
+            float score = VectorMath.cosine(queryEmbedding, candidate.embedding());
+            if (score >= minScore) {
+                hits.add(copyWithScore(chunk, score));
+            }
+        }
+        if (hits.size() < Math.min(minHits, topK)) {
+            return null;
+        }
+
+        hits.sort(Comparator.comparing(DocumentChunk::getScore).reversed());
+        return hits.size() > topK ? new ArrayList<>(hits.subList(0, topK)) : hits;
+    }
+
+    /**
+     * 获取本轮文档块的向量；扩展合并后的段落使用命中块的向量
+     */
+    private Map<String, float[]> fetchEmbeddings(List<DocumentChunk> chunks) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (DocumentChunk chunk : chunks) {
+            if (chunk.getId() != null) {
+                ids.add(chunk.getId());
+            }
+        }
+        try {
+            return ragService != null ? ragService.fetchEmbeddings(ids) : Map.of();
+        } catch (RuntimeException e) {
+            log.warn("获取文档块向量失败，本轮结果不加入会话候选集: {}", e.getMessage());
+            return Map.of();
+        }
+    }
+
+    private Session session(String conversationId) {
+        if (!enabled || conversationId == null || conversationId.isEmpty()) {
+            return null;
+        }
+        return sessions.get(conversationId);
+    }
+
+    private void record(String result) {
+        if (meterRegistry != null) {
+            meterRegistry.counter("rag.session.lookups", "result", result).increment();
+        }
+    }
+
+    private static DocumentChunk copyWithScore(DocumentChunk source, float score) {
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setId(source.getId());
+        chunk.setDocumentId(source.getDocumentId());
+        chunk.setCollection(source.getCollection());
+        chunk.setChunkIndex(source.getChunkIndex());
+        chunk.setContent(source.getContent());
+        chunk.setTokenCount(source.getTokenCount());
+        chunk.setVectorId(source.getVectorId());
+        chunk.setScore(score);
+        chunk.setCreatedAt(source.getCreatedAt());
+        return chunk;
+    }
+
+    /**
+     * 会话状态（不可变，每轮整体替换）
+     *
+     * @param topic 最近一次独立问题
+     * @param candidates 候选文档块，最近一轮的排在前面
+     */
+    private record Session(String topic, List<Candidate> candidates) {
+    }
+
+    private record Candidate(DocumentChunk chunk, float[] embedding) {
+    }
+}
@@ -1,25 +1,43 @@
 package com.aiagent.service.impl;
 
 import com.aiagent.dto.PageResponse;
+import com.aiagent.exception.TooManyRequestsException;
 import com.aiagent.mapper.DocumentChunkMapper;
 import com.aiagent.mapper.DocumentMapper;
 import com.aiagent.model.Document;
 import com.aiagent.model.DocumentChunk;
+import com.aiagent.service.ConversationRetrievalService;
 import com.aiagent.service.DocumentService;
+import com.aiagent.service.EmbeddingService;
+import com.aiagent.service.KeywordSearchService;
+import com.aiagent.service.LlmAdmissionService;
+import com.aiagent.service.ResponseCacheService;
+import com.aiagent.service.VectorSearchService;
+import com.aiagent.util.PartitionRouter;
+import com.aiagent.util.TextTokenizer;
+import com.aiagent.util.TokenEstimator;
+import com.aiagent.util.VectorMath;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.ollama.api.OllamaApi;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
-import org.springframework.web.client.RestTemplate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
 /**
  * 文档服务实现类
@@ -31,6 +49,11 @@ import org.springframework.web.client.RestTemplate;
 @Service
 public class DocumentServiceImpl implements DocumentService {
 
+    /**
+     * 入库向量化被准入控制拒绝时的最大尝试次数
+     */
+    private static final int MAX_ADMISSION_ATTEMPTS = 10;
+
     @Autowired(required = false)
     private DocumentMapper documentMapper;
 
@@ -40,26 +63,67 @@ public class DocumentServiceImpl implements DocumentService {
     @Autowired(required = false)
     private OllamaApi ollamaApi;
 
+    @Autowired
+    private EmbeddingService embeddingService;
+
+    @Autowired(required = false)
+    private List<VectorSearchService> vectorSearchServices;
+
+    @Autowired(required = false)
+    private List<KeywordSearchService> keywordSearchServices;
+
+    @Autowired(required = false)
+    private PartitionRouter partitionRouter;
+
+    @Autowired(required = false)
+    private ResponseCacheService responseCacheService;
+
+    @Autowired(required = false)
+    private ConversationRetrievalService conversationRetrievalService;
+
+    @Autowired(required = false)
+    private LlmAdmissionService admissionService;
+
     @Value("${spring.ai.rag.chunk-size:1000}")
     private int chunkSize;
 
     @Value("${spring.ai.rag.chunk-overlap:200}")
     private int chunkOverlap;
     
-    @Value("${spring.ai.embedding.ollama.base-url:http://localhost:11434}")
-    private String embeddingBaseUrl;
-    
-    @Value("${spring.ai.embedding.ollama.options.model:nomic-embed-text}")
-    private String embeddingModel;
-    
-    private final RestTemplate restTemplate = new RestTemplate();
+    /**
+     * 入库时每次批量向量化的文档块数
+     */
+    @Value("${spring.ai.embedding.ingest-batch-size:32}")
+    private int ingestBatchSize;
+
+    /**
+     * 同时处理的文档数上限（入库任务在虚拟线程上执行，限制对嵌入服务的并发压力）
+     */
+    @Value("${spring.ai.rag.ingest.max-concurrency:4}")
+    private int ingestMaxConcurrency;
+
+    private final ExecutorService ingestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private Semaphore ingestPermits;
+
+    @PostConstruct
+    public void init() {
+        ingestPermits = new Semaphore(Math.max(1, ingestMaxConcurrency));
+    }
+
+    @PreDestroy
+    public void close() {
+        ingestExecutor.shutdownNow();
+    }
 
     @Override
     @Transactional
-    public Document uploadDocument(MultipartFile file, String title) {
+    public Document uploadDocument(MultipartFile file, String title, String collection) {
         Document document = new Document();
         document.setId(UUID.randomUUID().toString());
         document.setTitle(title != null ? title : file.getOriginalFilename());
+        document.setCollection(collection != null && !collection.isBlank()
+                ? collection.trim() : Document.DEFAULT_COLLECTION);
         document.setFileName(file.getOriginalFilename());
         document.setFileType(getFileType(file.getOriginalFilename()));
         document.setFileSize(file.getSize());
@@ -75,19 +139,67 @@ public class DocumentServiceImpl implements DocumentService {
             log.warn("DocumentMapper 未配置，使用内存存储（仅用于测试）");
         }
 
-        // 异步处理文档
-        processDocumentAsync(document, file);
+        // 上传的临时文件在请求结束后删除，需先读出内容；文档记录提交后再异步处理
+        byte[] bytes;
+        try {
+            bytes = file.getBytes();
+        } catch (IOException e) {
+            throw new RuntimeException("读取上传文件失败: " + e.getMessage(), e);
+        }
+        submitAfterCommit(() -> processDocument(document, file.getOriginalFilename(), bytes));
 
         return document;
     }
 
-    @Async
-    private void processDocumentAsync(Document document, MultipartFile file) {
+    /**
+     * 在当前事务提交后提交入库任务（无事务时立即提交）
+     */
+    private void submitAfterCommit(Runnable task) {
+        runAfterCommit(() -> submitIngest(task));
+    }
+
+    /**
+     * 在当前事务提交后执行（无事务时立即执行；事务回滚时不执行）
+     */
+    private void runAfterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void submitIngest(Runnable task) {
+        try {
+            ingestExecutor.execute(() -> {
+                try {
+                    ingestPermits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    task.run();
+                } finally {
+                    ingestPermits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("应用正在关闭，文档入库任务未提交");
+        }
+    }
+
+    private void processDocument(Document document, String fileName, byte[] bytes) {
         try {
             log.info("开始处理文档: {}", document.getId());
 
             // 1. 解析文档内容
-            String content = parseDocument(file);
+            String content = parseDocument(fileName, bytes);
             if (content == null || content.trim().isEmpty()) {
                 throw new RuntimeException("文档内容为空");
             }
@@ -96,8 +208,8 @@ public class DocumentServiceImpl implements DocumentService {
             List<String> chunks = chunkText(content);
             log.info("文档分块完成，共 {} 块", chunks.size());
 
-            // 3. 向量化并存储
-            if (documentChunkMapper != null) {
+            // 3. 向量化并存储（数据库或进程内向量索引任一可用即执行）
+            if (documentChunkMapper != null || hasVectorIndex()) {
                 List<DocumentChunk> documentChunks = new ArrayList<>();
                 
                 for (int i = 0; i < chunks.size(); i++) {
@@ -107,22 +219,34 @@ public class DocumentServiceImpl implements DocumentService {
                     DocumentChunk chunk = new DocumentChunk();
                     chunk.setId(UUID.randomUUID().toString());
                     chunk.setDocumentId(document.getId());
+                    chunk.setCollection(document.getCollection());
+                    chunk.setPartitionNo(partitionRouter != null
+                            ? partitionRouter.partitionOf(document.getId(), document.getCollection()) : 0);
                     chunk.setChunkIndex(i);
                     chunk.setContent(chunkText);
+                    chunk.setTokenCount(TokenEstimator.estimate(chunkText));
                     chunk.setVectorId(null);
-                    
-                    // 生成向量嵌入
-                    float[] embedding = generateEmbedding(chunkText);
-                    chunk.setEmbedding(embedding);
-                    
+                    chunk.setSearchTokens(TextTokenizer.joinTokens(chunkText));
                     chunk.setCreatedAt(LocalDateTime.now());
                     
                     documentChunks.add(chunk);
                 }
 
+                // 批量生成向量嵌入
+                generateEmbeddings(documentChunks);
+
                 // 批量保存文档块到数据库
-                documentChunkMapper.insertBatch(documentChunks);
-                log.info("保存 {} 个文档块到数据库，包含向量嵌入", documentChunks.size());
+                if (documentChunkMapper != null) {
+                    documentChunkMapper.insertBatch(documentChunks);
+                    log.info("保存 {} 个文档块到数据库，包含向量嵌入", documentChunks.size());
+                }
+
+                // 文档级向量（文档块向量的质心），供两级检索先定位文档
+                updateDocumentEmbedding(document, documentChunks);
+
+                // 写入进程内向量索引
+                forEachVectorIndex(service -> service.indexChunks(documentChunks));
+                forEachKeywordIndex(service -> service.indexChunks(documentChunks));
             }
 
             // 更新文档状态
@@ -133,6 +257,7 @@ public class DocumentServiceImpl implements DocumentService {
             if (documentMapper != null) {
                 documentMapper.update(document);
             }
+            invalidateResponseCache();
             
             log.info("文档处理完成: {}", document.getId());
         } catch (Exception e) {
@@ -146,11 +271,68 @@ public class DocumentServiceImpl implements DocumentService {
         }
     }
 
+    /**
+     * 计算并保存文档级向量；失败时该文档只是不参与两级检索的文档定位，不影响入库
+     */
+    private void updateDocumentEmbedding(Document document, List<DocumentChunk> documentChunks) {
+        if (documentMapper == null || documentChunks.isEmpty()) {
+            return;
+        }
+        try {
+            List<float[]> embeddings = new ArrayList<>(documentChunks.size());
+            for (DocumentChunk chunk : documentChunks) {
+                embeddings.add(chunk.getEmbedding());
+            }
+            documentMapper.updateEmbedding(document.getId(), VectorMath.centroid(embeddings));
+        } catch (Exception e) {
+            log.warn("保存文档级向量失败: {}，{}", document.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 是否存在可用的向量检索数据源
+     */
+    private boolean hasVectorIndex() {
+        return vectorSearchServices != null
+                && vectorSearchServices.stream().anyMatch(VectorSearchService::isAvailable);
+    }
+
+    /**
+     * 通知所有向量检索数据源（单个数据源失败不影响其他数据源）
+     */
+    private void forEachVectorIndex(Consumer<VectorSearchService> action) {
+        if (vectorSearchServices == null) {
+            return;
+        }
+        for (VectorSearchService service : vectorSearchServices) {
+            try {
+                action.accept(service);
+            } catch (Exception e) {
+                log.warn("更新向量索引 {} 失败: {}", service.getName(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 通知所有关键词检索数据源（单个数据源失败不影响其他数据源）
+     */
+    private void forEachKeywordIndex(Consumer<KeywordSearchService> action) {
+        if (keywordSearchServices == null) {
+            return;
+        }
+        for (KeywordSearchService service : keywordSearchServices) {
+            try {
+                action.accept(service);
+            } catch (Exception e) {
+                log.warn("更新关键词索引 {} 失败: {}", service.getName(), e.getMessage());
+            }
+        }
+    }
+
     /**
      * 解析文档内容
      */
-    private String parseDocument(MultipartFile file) throws IOException {
-        String fileName = file.getOriginalFilename();
+    private String parseDocument(String fileName, byte[] bytes) {
         if (fileName == null) {
             throw new IllegalArgumentException("文件名不能为空");
         }
@@ -159,11 +341,11 @@ public class DocumentServiceImpl implements DocumentService {
         
         // 目前只支持文本文件，后续可以扩展支持 PDF、Word 等
         if (fileType.equals("txt") || fileType.equals("md") || fileType.equals("text")) {
-            return new String(file.getBytes(), StandardCharsets.UTF_8);
+            return new String(bytes, StandardCharsets.UTF_8);
         } else {
             // 尝试按文本读取
             try {
-                return new String(file.getBytes(), StandardCharsets.UTF_8);
+                return new String(bytes, StandardCharsets.UTF_8);
             } catch (Exception e) {
                 throw new UnsupportedOperationException("暂不支持的文件类型: " + fileType);
             }
@@ -268,63 +450,45 @@ public class DocumentServiceImpl implements DocumentService {
         return fileName.substring(fileName.lastIndexOf(".") + 1).toLowerCase();
     }
     
-    @Value("${spring.ai.embedding.max-retries:3}")
-    private int maxRetries;
-    
-    @Value("${spring.ai.embedding.retry-delay:1000}")
-    private long retryDelay;
-    
     /**
-     * 生成文本向量嵌入 - 带重试机制
-     * @param text 要嵌入的文本
-     * @return 向量嵌入
+     * 分批生成文档块的向量嵌入（重试由 EmbeddingService 负责）
      */
-    private float[] generateEmbedding(String text) {
-        int retries = 0;
-        
-        while (retries < maxRetries) {
+    private void generateEmbeddings(List<DocumentChunk> chunks) {
+        int batchSize = Math.max(1, ingestBatchSize);
+        for (int from = 0; from < chunks.size(); from += batchSize) {
+            List<DocumentChunk> batch = chunks.subList(from, Math.min(from + batchSize, chunks.size()));
+            List<float[]> embeddings = embedBatchAdmitted(batch.stream().map(DocumentChunk::getContent).toList());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).setEmbedding(embeddings.get(i));
+            }
+        }
+    }
+
+    /**
+     * 以后台优先级在准入控制下批量向量化：与对话共用 Ollama 节点，对话优先执行
+     * （没有生成 token 数，不参与并发上限调整）。被拒绝时按建议的等待时间重试，多次仍被拒绝时入库失败。
+     */
+    private List<float[]> embedBatchAdmitted(List<String> texts) {
+        if (admissionService == null) {
+            return embeddingService.embedBatch(texts);
+        }
+        for (int attempt = 1; ; attempt++) {
             try {
-                String url = embeddingBaseUrl + "/api/embeddings";
-                
-                // 构建请求体
-                Map<String, Object> requestBody = Map.of(
-                    "model", embeddingModel,
-                    "prompt", text
-                );
-                
-                // 发送请求
-                var response = restTemplate.postForObject(url, requestBody, Map.class);
-                
-                if (response != null && response.containsKey("embedding")) {
-                    List<Double> embeddingList = (List<Double>) response.get("embedding");
-                    float[] embedding = new float[embeddingList.size()];
-                    for (int i = 0; i < embeddingList.size(); i++) {
-                        embedding[i] = embeddingList.get(i).floatValue();
-                    }
-                    return embedding;
-                } else {
-                    throw new RuntimeException("嵌入生成失败，响应格式错误");
+                return admissionService.execute(LlmAdmissionService.Priority.BACKGROUND,
+                        () -> embeddingService.embedBatch(texts));
+            } catch (TooManyRequestsException e) {
+                if (attempt >= MAX_ADMISSION_ATTEMPTS) {
+                    throw e;
                 }
-            } catch (Exception e) {
-                retries++;
-                log.warn("生成嵌入失败，正在重试 ({}/{})...", retries, maxRetries, e);
-                
-                if (retries >= maxRetries) {
-                    log.error("生成嵌入失败，已达到最大重试次数", e);
-                    throw new RuntimeException("嵌入生成失败: " + e.getMessage(), e);
-                }
-                
-                // 等待重试延迟
+                log.info("模型服务繁忙，{} 秒后重试入库向量化（第 {} 次）", e.getRetryAfterSeconds(), attempt);
                 try {
-                    Thread.sleep(retryDelay * retries); // 指数退避
-                } catch (InterruptedException ie) {
+                    Thread.sleep(e.getRetryAfterSeconds() * 1000);
+                } catch (InterruptedException interrupted) {
                     Thread.currentThread().interrupt();
-                    throw new RuntimeException("嵌入生成被中断", ie);
+                    throw new IllegalStateException("入库向量化被中断", interrupted);
                 }
             }
         }
-        
-        throw new RuntimeException("生成嵌入失败，未执行任何重试");
     }
 
     @Override
@@ -378,6 +542,7 @@ public class DocumentServiceImpl implements DocumentService {
 
         // 软删除文档
         documentMapper.deleteById(id);
+        runAfterCommit(() -> purgeDerivedState(id));
         log.info("删除文档: {}", id);
     }
 
@@ -393,6 +558,7 @@ public class DocumentServiceImpl implements DocumentService {
         if (documentChunkMapper != null) {
             documentChunkMapper.deleteByDocumentId(id);
         }
+        runAfterCommit(() -> purgeDerivedState(id));
 
         // 重新处理（需要文件内容，这里简化处理）
         document.setStatus("processing");
@@ -407,4 +573,26 @@ public class DocumentServiceImpl implements DocumentService {
         log.info("文档重新处理已启动: {}", id);
         // 注意：重新处理需要原始文件，这里只是标记，实际需要重新上传文件
     }
+
+    /**
+     * 文档块删除提交后，清理由其派生的进程内状态：索引中的文档块、会话候选集和已缓存的回复。
+     * 必须在提交之后执行：提交前失效的缓存可能被并发请求按旧数据重新写入，事务回滚时索引也无法恢复。
+     */
+    private void purgeDerivedState(String documentId) {
+        forEachVectorIndex(service -> service.removeDocument(documentId));
+        forEachKeywordIndex(service -> service.removeDocument(documentId));
+        if (conversationRetrievalService != null) {
+            conversationRetrievalService.evictDocument(documentId);
+        }
+        invalidateResponseCache();
+    }
+
+    /**
+     * 语料变更后使已缓存的回复失效
+     */
+    private void invalidateResponseCache() {
+        if (responseCacheService != null) {
+            responseCacheService.invalidate();
+        }
+    }
 }
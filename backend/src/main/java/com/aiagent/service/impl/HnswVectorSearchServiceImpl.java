@@ -0,0 +1,767 @@
+package com.aiagent.service.impl;
+
+import com.aiagent.dto.RetrievalFilter;
+import com.aiagent.mapper.DocumentChunkMapper;
+import com.aiagent.model.DocumentChunk;
+import com.aiagent.service.VectorSearchService;
+import com.aiagent.util.HnswIndex;
+import com.aiagent.util.MappedVectorStorage;
+import com.aiagent.util.TokenEstimator;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 进程内 HNSW 向量检索实现
+ *
+ * 向量保存在内存映射文件中，图结构与文档块元数据定期写入快照，重启时直接恢复，无需重建。
+ * 配置了数据库时，会按变更游标从 document_chunks 增量同步（包括软删除），
+ * 因此既可以作为主索引（mode=hnsw），也可以作为 pgvector 的只读副本（mode=replica）。
+ * 初始同步完成之前不对外提供检索（两种模式下都回退到 pgvector），避免返回不完整的结果。
+ *
+ * 删除只做墓碑标记，已删除节点仍占用向量文件和图；已删除占比超过 compact-ratio 时在后台用有效节点重建：
+ * 新索引写入独立的向量文件，构建期间的写入和删除在切换前补齐，切换在写锁内完成并立即写入快照。
+ * 切换时先删除旧快照再替换向量文件，切换与快照之间进程崩溃时重启会从数据库重建，而不会读到错位的快照。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Service("hnswVectorSearchService")
+public class HnswVectorSearchServiceImpl implements VectorSearchService {
+
+    private static final String MODE_PGVECTOR = "pgvector";
+
+    private static final String VECTOR_FILE = "vectors.dat";
+    private static final String COMPACT_VECTOR_FILE = "vectors.dat.compact";
+    private static final String GRAPH_FILE = "graph.snapshot";
+    private static final String CHUNK_FILE = "chunks.snapshot";
+    private static final int CHUNK_SNAPSHOT_MAGIC = 0x43484B53;
+    private static final int CHUNK_SNAPSHOT_VERSION = 3;
+
+    @Autowired(required = false)
+    private DocumentChunkMapper documentChunkMapper;
+
+    @Value("${spring.ai.rag.vector-store.mode:pgvector}")
+    private String mode;
+
+    @Value("${spring.ai.rag.vector-store.hnsw.dir:./data/hnsw}")
+    private String indexDir;
+
+    @Value("${spring.ai.vectorstore.postgresql.dimensions:768}")
+    private int dimensions;
+
+    @Value("${spring.ai.rag.vector-store.hnsw.m:16}")
+    private int m;
+
+    @Value("${spring.ai.rag.vector-store.hnsw.ef-construction:200}")
+    private int efConstruction;
+
+    @Value("${spring.ai.rag.vector-store.hnsw.ef-search:64}")
+    private int efSearch;
+
+    @Value("${spring.ai.rag.vector-store.hnsw.sync-batch-size:1000}")
+    private int syncBatchSize;
+
+    /**
+     * 已删除节点占比超过该值时重建索引
+     */
+    @Value("${spring.ai.rag.vector-store.hnsw.compact-ratio:0.2}")
+    private double compactRatio;
+
+    /**
+     * 保护索引写入、节点元数据和同步游标的一致性（向量检索不需要此锁，按位置取块时只在锁内复制节点列表）
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final ReentrantLock compactLock = new ReentrantLock();
+
+    /**
+     * 重建切换时持有写锁，检索持有读锁，保证检索看到的索引与节点元数据属于同一代
+     */
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+
+    private volatile HnswIndex index;
+    private MappedVectorStorage storage;
+
+    /**
+     * 节点编号 -> 文档块元数据（不含向量）
+     */
+    private volatile DocumentChunk[] records = new DocumentChunk[0];
+    private final Map<String, Integer> chunkNodes = new ConcurrentHashMap<>();
+    private final Map<String, List<Integer>> documentNodes = new ConcurrentHashMap<>();
+
+    private long syncedSeq;
+    private String syncedId = "";
+    private volatile boolean ready;
+    private final AtomicLong pendingChanges = new AtomicLong();
+
+    /**
+     * 打开向量文件并从快照恢复，随后在后台从数据库追平增量
+     */
+    @PostConstruct
+    public void init() {
+        if (MODE_PGVECTOR.equalsIgnoreCase(mode)) {
+            return;
+        }
+
+        Path dir = Paths.get(indexDir);
+        try {
+            storage = new MappedVectorStorage(dir.resolve(VECTOR_FILE), dimensions);
+            index = restoreOrCreate(dir);
+        } catch (IOException e) {
+            log.error("初始化 HNSW 向量索引失败，进程内检索不可用", e);
+            return;
+        }
+
+        if (documentChunkMapper == null) {
+            log.warn("DocumentChunkMapper 未配置，HNSW 索引仅包含本进程写入的文档块");
+            ready = true;
+            return;
+        }
+
+        Thread.ofVirtual().name("hnsw-initial-sync").start(() -> {
+            syncFromDatabase();
+            ready = true;
+            log.info("HNSW 索引初始同步完成，当前有效文档块 {} 个", index.liveCount());
+        });
+    }
+
+    @Override
+    public String getName() {
+        return "hnsw";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return index != null && ready;
+    }
+
+    @Override
+    public List<Map<String, Object>> searchSimilarWithScore(float[] embedding, int topK, RetrievalFilter filter) {
+        swapLock.readLock().lock();
+        try {
+            return search(embedding, topK, filter);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    private List<Map<String, Object>> search(float[] embedding, int topK, RetrievalFilter filter) {
+        HnswIndex current = index;
+        if (current == null) {
+            return new ArrayList<>();
+        }
+
+        // 过滤条件在图遍历时生效：不满足条件的节点仍用于导航，但不计入结果，从而保证返回 topK 个
+        DocumentChunk[] snapshot = records;
+        IntPredicate accept = null;
+        if (filter != null && filter.hasCondition()) {
+            accept = node -> {
+                DocumentChunk chunk = node < snapshot.length ? snapshot[node] : null;
+                return chunk != null && filter.matches(chunk.getCollection(), chunk.getDocumentId());
+            };
+        }
+
+        List<HnswIndex.SearchResult> hits = current.search(embedding, topK, Math.max(efSearch, topK), accept);
+        List<Map<String, Object>> rows = new ArrayList<>(hits.size());
+        for (HnswIndex.SearchResult hit : hits) {
+            DocumentChunk chunk = hit.node() < snapshot.length ? snapshot[hit.node()] : null;
+            if (chunk != null) {
+                Map<String, Object> row = toRow(chunk, hit.score());
+                row.put("embedding", current.vector(hit.node()));
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public Map<String, float[]> fetchEmbeddings(Collection<String> chunkIds) {
+        Map<String, float[]> embeddings = new HashMap<>();
+        swapLock.readLock().lock();
+        try {
+            HnswIndex current = index;
+            if (current == null) {
+                return embeddings;
+            }
+            for (String chunkId : chunkIds) {
+                Integer node = chunkNodes.get(chunkId);
+                if (node != null) {
+                    embeddings.put(chunkId, current.vector(node));
+                }
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        return embeddings;
+    }
+
+    @Override
+    public List<DocumentChunk> fetchChunksByPosition(List<DocumentChunk> positions) {
+        // 节点列表是普通 ArrayList，由写入方在 writeLock 下修改，这里同样在锁内复制
+        Map<String, List<Integer>> nodesByDocument = new HashMap<>();
+        DocumentChunk[] snapshot;
+        writeLock.lock();
+        try {
+            snapshot = records;
+            for (DocumentChunk position : positions) {
+                String documentId = position.getDocumentId();
+                List<Integer> nodes = documentNodes.get(documentId);
+                if (nodes != null && !nodesByDocument.containsKey(documentId)) {
+                    nodesByDocument.put(documentId, List.copyOf(nodes));
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        List<DocumentChunk> chunks = new ArrayList<>();
+        for (DocumentChunk position : positions) {
+            List<Integer> nodes = nodesByDocument.get(position.getDocumentId());
+            if (nodes == null) {
+                continue;
+            }
+            for (int node : nodes) {
+                DocumentChunk chunk = node < snapshot.length ? snapshot[node] : null;
+                if (chunk != null && position.getChunkIndex().equals(chunk.getChunkIndex())) {
+                    chunks.add(chunk);
+                    break;
+                }
+            }
+        }
+        return chunks;
+    }
+
+    @Override
+    public void indexChunks(List<DocumentChunk> chunks) {
+        if (index == null || chunks == null || chunks.isEmpty()) {
+            return;
+        }
+
+        int added = 0;
+        writeLock.lock();
+        try {
+            for (DocumentChunk chunk : chunks) {
+                if (addChunk(chunk)) {
+                    added++;
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        log.debug("HNSW 索引写入 {} 个文档块", added);
+    }
+
+    @Override
+    public void removeDocument(String documentId) {
+        if (index == null) {
+            return;
+        }
+
+        writeLock.lock();
+        try {
+            List<Integer> nodes = documentNodes.remove(documentId);
+            if (nodes == null) {
+                return;
+            }
+            for (int node : nodes) {
+                removeNode(node);
+            }
+            log.debug("HNSW 索引移除文档 {} 的 {} 个文档块", documentId, nodes.size());
+        } finally {
+            writeLock.unlock();
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * 定期从数据库增量同步（其他节点写入的文档块、软删除）
+     */
+    @Scheduled(fixedDelayString = "${spring.ai.rag.vector-store.hnsw.sync-interval:30000}")
+    public void scheduledSync() {
+        if (ready) {
+            syncFromDatabase();
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * 定期写入快照（仅在有变更时）
+     */
+    @Scheduled(fixedDelayString = "${spring.ai.rag.vector-store.hnsw.snapshot-interval:300000}")
+    public void scheduledSnapshot() {
+        snapshot();
+    }
+
+    /**
+     * 应用关闭时写入快照并释放向量文件
+     */
+    @PreDestroy
+    public void close() {
+        if (index == null) {
+            return;
+        }
+        snapshot();
+        try {
+            storage.close();
+        } catch (IOException e) {
+            log.warn("关闭 HNSW 向量文件失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 将图结构和文档块元数据写入快照
+     */
+    public void snapshot() {
+        if (index == null || pendingChanges.get() == 0) {
+            return;
+        }
+
+        Path dir = Paths.get(indexDir);
+        writeLock.lock();
+        try {
+            long changes = pendingChanges.getAndSet(0);
+            long start = System.currentTimeMillis();
+            index.writeSnapshot(dir.resolve(GRAPH_FILE));
+            writeChunkSnapshot(dir.resolve(CHUNK_FILE));
+            log.info("HNSW 索引快照完成，{} 个节点，{} 次变更，耗时 {} ms",
+                    index.size(), changes, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            pendingChanges.incrementAndGet();
+            log.error("写入 HNSW 索引快照失败", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 按变更游标从数据库拉取文档块，写入新增、移除已删除
+     */
+    private void syncFromDatabase() {
+        if (index == null || documentChunkMapper == null || !syncLock.tryLock()) {
+            return;
+        }
+
+        try {
+            int total = 0;
+            while (true) {
+                List<DocumentChunk> batch = documentChunkMapper.selectChangedSince(syncedSeq, syncedId,
+                        syncBatchSize);
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                writeLock.lock();
+                try {
+                    for (DocumentChunk chunk : batch) {
+                        if (chunk.getDeletedAt() != null) {
+                            Integer node = chunkNodes.get(chunk.getId());
+                            if (node != null) {
+                                removeNode(node);
+                                List<Integer> nodes = documentNodes.get(chunk.getDocumentId());
+                                if (nodes != null) {
+                                    nodes.remove(node);
+                                }
+                            }
+                        } else {
+                            addChunk(chunk);
+                        }
+                        syncedSeq = chunk.getChangeSeq();
+                        syncedId = chunk.getId();
+                    }
+                    pendingChanges.incrementAndGet();
+                } finally {
+                    writeLock.unlock();
+                }
+
+                total += batch.size();
+                if (batch.size() < syncBatchSize) {
+                    break;
+                }
+            }
+
+            if (total > 0) {
+                log.info("HNSW 索引同步 {} 条变更，当前有效文档块 {} 个", total, index.liveCount());
+            }
+        } catch (Exception e) {
+            log.warn("HNSW 索引同步失败，稍后重试: {}", e.getMessage());
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * 已删除占比超过阈值时在后台重建索引（同一时间只有一个重建任务）
+     */
+    private void compactIfNeeded() {
+        HnswIndex current = index;
+        if (current == null || current.deletedRatio() <= compactRatio || compactLock.isLocked()) {
+            return;
+        }
+        Thread.ofVirtual().name("hnsw-compact").start(() -> {
+            if (!compactLock.tryLock()) {
+                return;
+            }
+            try {
+                compact();
+            } catch (Exception e) {
+                log.error("HNSW 索引重建失败，继续使用原索引", e);
+            } finally {
+                compactLock.unlock();
+            }
+        });
+    }
+
+    /**
+     * 用有效节点重建索引并切换
+     *
+     * 构建在锁外进行，不阻塞检索和写入；切换前在写锁内补齐构建期间新增和删除的节点。
+     */
+    private void compact() throws IOException {
+        HnswIndex old;
+        DocumentChunk[] oldRecords;
+        int builtSize;
+        writeLock.lock();
+        try {
+            old = index;
+            oldRecords = records;
+            builtSize = old.size();
+        } finally {
+            writeLock.unlock();
+        }
+
+        long start = System.currentTimeMillis();
+        Path dir = Paths.get(indexDir);
+        Path compactFile = dir.resolve(COMPACT_VECTOR_FILE);
+        Files.deleteIfExists(compactFile);
+        MappedVectorStorage newStorage = new MappedVectorStorage(compactFile, dimensions);
+        boolean swapped = false;
+        try {
+            HnswIndex rebuilt = new HnswIndex(newStorage, m, efConstruction);
+            DocumentChunk[] newRecords = new DocumentChunk[Math.max(old.liveCount(), 16)];
+            int[] mapping = new int[builtSize];
+            newRecords = copyLive(old, oldRecords, 0, builtSize, rebuilt, newRecords, mapping);
+            swap(old, builtSize, mapping, rebuilt, newStorage, newRecords);
+            swapped = true;
+            log.info("HNSW 索引重建完成，{} -> {} 个节点，耗时 {} ms",
+                    old.size(), rebuilt.size(), System.currentTimeMillis() - start);
+        } finally {
+            if (!swapped) {
+                newStorage.close();
+                Files.deleteIfExists(compactFile);
+            }
+        }
+        snapshot();
+    }
+
+    /**
+     * 补齐构建期间的变更并切换到新索引
+     */
+    private void swap(HnswIndex old, int builtSize, int[] mapping, HnswIndex rebuilt, MappedVectorStorage newStorage,
+            DocumentChunk[] newRecords) throws IOException {
+        Path dir = Paths.get(indexDir);
+        writeLock.lock();
+        swapLock.writeLock().lock();
+        try {
+            // 构建期间删除的节点在新索引中同样删除，新增的节点直接补入
+            DocumentChunk[] latest = records;
+            for (int node = 0; node < builtSize; node++) {
+                if (mapping[node] >= 0 && old.isDeleted(node)) {
+                    rebuilt.delete(mapping[node]);
+                    newRecords[mapping[node]] = null;
+                }
+            }
+            int size = old.size();
+            int[] tailMapping = new int[size - builtSize];
+            newRecords = copyLive(old, latest, builtSize, size, rebuilt, newRecords, tailMapping);
+
+            try {
+                Files.deleteIfExists(dir.resolve(GRAPH_FILE));
+                Files.deleteIfExists(dir.resolve(CHUNK_FILE));
+                Files.move(dir.resolve(COMPACT_VECTOR_FILE), dir.resolve(VECTOR_FILE),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // 旧快照可能已删除，继续使用旧索引并在下次快照时重新写入
+                pendingChanges.incrementAndGet();
+                throw e;
+            }
+
+            chunkNodes.clear();
+            documentNodes.clear();
+            for (int node = 0; node < rebuilt.size(); node++) {
+                DocumentChunk chunk = newRecords[node];
+                if (chunk != null) {
+                    chunkNodes.put(chunk.getId(), node);
+                    documentNodes.computeIfAbsent(chunk.getDocumentId(), k -> new ArrayList<>()).add(node);
+                }
+            }
+            MappedVectorStorage oldStorage = storage;
+            storage = newStorage;
+            records = newRecords;
+            index = rebuilt;
+            pendingChanges.incrementAndGet();
+            try {
+                // 旧文件已被替换，映射在旧索引不再被引用后随 GC 释放
+                oldStorage.close();
+            } catch (IOException e) {
+                log.warn("关闭旧 HNSW 向量文件失败: {}", e.getMessage());
+            }
+        } finally {
+            swapLock.writeLock().unlock();
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 把旧索引 [from, to) 中的有效节点写入新索引
+     *
+     * @param mapping 旧节点编号（减去 from）-> 新节点编号
+     * @return 可能扩容后的新元数据数组
+     */
+    private static DocumentChunk[] copyLive(HnswIndex old, DocumentChunk[] oldRecords, int from, int to,
+            HnswIndex rebuilt, DocumentChunk[] newRecords, int[] mapping) {
+        Arrays.fill(mapping, -1);
+        for (int node = from; node < to; node++) {
+            DocumentChunk chunk = node < oldRecords.length ? oldRecords[node] : null;
+            if (chunk == null || old.isDeleted(node)) {
+                continue;
+            }
+            int added = rebuilt.add(old.vector(node));
+            if (added >= newRecords.length) {
+                newRecords = Arrays.copyOf(newRecords, Math.max(added + 1, newRecords.length * 2));
+            }
+            newRecords[added] = chunk;
+            mapping[node - from] = added;
+        }
+        return newRecords;
+    }
+
+    /**
+     * 写入单个文档块（调用方持有 writeLock）
+     *
+     * @return 是否为新写入
+     */
+    private boolean addChunk(DocumentChunk chunk) {
+        float[] embedding = chunk.getEmbedding();
+        if (embedding == null || embedding.length != dimensions || chunkNodes.containsKey(chunk.getId())) {
+            return false;
+        }
+
+        // 节点编号按顺序分配；先发布元数据再写入索引，检索线程看到节点时元数据一定可见
+        int node = index.size();
+        DocumentChunk[] current = records;
+        if (node >= current.length) {
+            current = Arrays.copyOf(current, Math.max(node + 1, current.length * 2));
+        }
+        current[node] = copyWithoutEmbedding(chunk);
+        records = current;
+
+        int added = index.add(embedding);
+        if (added != node) {
+            throw new IllegalStateException("HNSW 节点编号不一致: " + added + " != " + node);
+        }
+        chunkNodes.put(chunk.getId(), node);
+        documentNodes.computeIfAbsent(chunk.getDocumentId(), k -> new ArrayList<>()).add(node);
+        pendingChanges.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 删除单个节点（调用方持有 writeLock）
+     */
+    private void removeNode(int node) {
+        index.delete(node);
+        DocumentChunk[] current = records;
+        DocumentChunk chunk = current[node];
+        if (chunk != null) {
+            chunkNodes.remove(chunk.getId());
+            current[node] = null;
+        }
+        pendingChanges.incrementAndGet();
+    }
+
+    private HnswIndex restoreOrCreate(Path dir) {
+        Path graph = dir.resolve(GRAPH_FILE);
+        Path chunks = dir.resolve(CHUNK_FILE);
+        if (Files.exists(graph) && Files.exists(chunks)) {
+            try {
+                long start = System.currentTimeMillis();
+                HnswIndex restored = HnswIndex.readSnapshot(graph, storage);
+                readChunkSnapshot(chunks, restored);
+                log.info("从快照恢复 HNSW 索引，{} 个有效文档块，耗时 {} ms",
+                        restored.liveCount(), System.currentTimeMillis() - start);
+                return restored;
+            } catch (IOException e) {
+                log.warn("HNSW 快照不可用，将从数据库重建索引: {}", e.getMessage());
+                records = new DocumentChunk[0];
+                chunkNodes.clear();
+                documentNodes.clear();
+                syncedSeq = 0;
+                syncedId = "";
+            }
+        }
+        return new HnswIndex(storage, m, efConstruction);
+    }
+
+    private void writeChunkSnapshot(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        int size = index.size();
+        DocumentChunk[] current = records;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(CHUNK_SNAPSHOT_MAGIC);
+            out.writeInt(CHUNK_SNAPSHOT_VERSION);
+            out.writeInt(size);
+            out.writeLong(syncedSeq);
+            writeString(out, syncedId);
+            for (int node = 0; node < size; node++) {
+                DocumentChunk chunk = node < current.length ? current[node] : null;
+                out.writeBoolean(chunk != null);
+                if (chunk != null) {
+                    writeString(out, chunk.getId());
+                    writeString(out, chunk.getDocumentId());
+                    writeString(out, chunk.getCollection());
+                    out.writeInt(chunk.getChunkIndex() != null ? chunk.getChunkIndex() : -1);
+                    writeString(out, chunk.getContent());
+                    writeString(out, chunk.getVectorId());
+                    writeTime(out, chunk.getCreatedAt());
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readChunkSnapshot(Path file, HnswIndex restored) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != CHUNK_SNAPSHOT_MAGIC) {
+                throw new IOException("不是有效的文档块快照文件: " + file);
+            }
+            int version = in.readInt();
+            if (version != CHUNK_SNAPSHOT_VERSION) {
+                throw new IOException("文档块快照版本不兼容: " + version);
+            }
+            int size = in.readInt();
+            if (size != restored.size()) {
+                throw new IOException("文档块快照与图快照节点数不一致: " + size + " != " + restored.size());
+            }
+            syncedSeq = in.readLong();
+            syncedId = readString(in);
+
+            DocumentChunk[] restoredRecords = new DocumentChunk[size];
+            for (int node = 0; node < size; node++) {
+                if (!in.readBoolean()) {
+                    continue;
+                }
+                DocumentChunk chunk = new DocumentChunk();
+                chunk.setId(readString(in));
+                chunk.setDocumentId(readString(in));
+                chunk.setCollection(readString(in));
+                int chunkIndex = in.readInt();
+                chunk.setChunkIndex(chunkIndex >= 0 ? chunkIndex : null);
+                chunk.setContent(readString(in));
+                chunk.setTokenCount(TokenEstimator.estimate(chunk.getContent()));
+                chunk.setVectorId(readString(in));
+                chunk.setCreatedAt(readTime(in));
+                if (restored.isDeleted(node)) {
+                    continue;
+                }
+                restoredRecords[node] = chunk;
+                chunkNodes.put(chunk.getId(), node);
+                documentNodes.computeIfAbsent(chunk.getDocumentId(), k -> new ArrayList<>()).add(node);
+            }
+            records = restoredRecords;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(value.getNano());
+        }
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        long seconds = in.readLong();
+        return LocalDateTime.ofEpochSecond(seconds, in.readInt(), ZoneOffset.UTC);
+    }
+
+    private static DocumentChunk copyWithoutEmbedding(DocumentChunk source) {
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setId(source.getId());
+        chunk.setDocumentId(source.getDocumentId());
+        chunk.setCollection(source.getCollection());
+        chunk.setChunkIndex(source.getChunkIndex());
+        chunk.setContent(source.getContent());
+        chunk.setTokenCount(source.getTokenCount() != null
+                ? source.getTokenCount() : TokenEstimator.estimate(source.getContent()));
+        chunk.setVectorId(source.getVectorId());
+        chunk.setCreatedAt(source.getCreatedAt());
+        return chunk;
+    }
+
+    private static Map<String, Object> toRow(DocumentChunk chunk, float score) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", chunk.getId());
+        row.put("document_id", chunk.getDocumentId());
+        row.put("collection", chunk.getCollection());
+        row.put("chunk_index", chunk.getChunkIndex());
+        row.put("content", chunk.getContent());
+        row.put("token_count", chunk.getTokenCount());
+        row.put("vector_id", chunk.getVectorId());
+        row.put("created_at", chunk.getCreatedAt());
+        row.put("similarity_score", (double) score);
+        return row;
+    }
+}
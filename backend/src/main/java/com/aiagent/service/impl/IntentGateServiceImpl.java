@@ -0,0 +1,198 @@
+package com.aiagent.service.impl;
+
+import com.aiagent.service.EmbeddingService;
+import com.aiagent.service.IntentGateService;
+import com.aiagent.util.TokenEstimator;
+import com.aiagent.util.VectorMath;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * 检索意图判断实现：规则 + 最近质心线性分类器
+ *
+ * 1. 规则：寒暄/致谢/确认，以及针对上一轮回答的改写指令（简短一点、继续、翻译成英文……）直接跳过检索；
+ *    较长的消息直接检索
+ * 2. 其余较短且不确定的消息用线性分类器判断：两组种子语句（闲聊 / 知识问题）的向量质心构成
+ *    w = c_knowledge - c_chat、b = (|c_chat|² - |c_knowledge|²) / 2，w·x + b 小于 -margin 时跳过检索。
+ *    种子向量首次使用时一次批量生成；查询向量由 EmbeddingService 缓存，随后的检索可直接复用。
+ * 分类器不可用时默认检索，保证不会因意图判断丢失知识库回答。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Service
+public class IntentGateServiceImpl implements IntentGateService {
+
+    /**
+     * 整条消息由寒暄、致谢、确认类短语组成
+     */
+    private static final Pattern CHITCHAT = Pattern.compile(
+            "^((你好|您好|嗨|哈喽|早上好|中午好|下午好|晚上好|早安|晚安|谢谢|多谢|谢啦|谢了|感谢|辛苦了|好的|好滴|好|嗯|嗯嗯|哦|噢"
+                    + "|行|可以|没问题|收到|明白了|明白|知道了|懂了|了解|再见|拜拜|ok|okay|k|hi|hello|hey|thanks|thank you"
+                    + "|thx|ty|bye|goodbye|got it|cool|great|nice|good|yes|no|sure)"
+                    + "(啊|呀|哈|啦|了|哦|呢|你|您| ?you| ?a lot| ?so much| ?very much)* ?)+$");
+
+    /**
+     * 整条消息只是针对上一轮回答的改写指令（不含新的问题内容）
+     */
+    private static final Pattern FOLLOW_UP_INSTRUCTION = Pattern.compile(
+            "^(请|麻烦|能不能|可以)?你?(再|更)?(简短|简洁|精简|短|长|详细|具体|通俗|展开|继续|重新|换个说法|换种说法"
+                    + "|翻译成(英文|中文)|用(英文|中文)|举个例子|举例)(一点|一些|些)?地?(说|讲|回答|解释|说明|写)?(一下|一遍)?"
+                    + "(吧|呢|哦|啊|吗)?$"
+                    + "|^(please )?(shorter|longer|more detail(ed)?|in more detail|continue|go on|rephrase( that| it)?"
+                    + "|simplify( that| it)?|tl ?dr|eli5|translate (it|that) (to|into) \\w+|make it (shorter|longer|simpler))"
+                    + "( please)?$");
+
+    private static final Pattern PUNCTUATION = Pattern.compile("[\\p{P}\\p{S}\\s]+");
+
+    private static final List<String> CHAT_SEEDS = List.of(
+            "你好呀", "谢谢你的帮助", "太棒了", "今天心情不错", "你是谁", "哈哈哈", "辛苦啦", "好的我知道了",
+            "hello there", "thanks a lot", "you are great", "how are you", "good morning", "lol");
+
+    private static final List<String> KNOWLEDGE_SEEDS = List.of(
+            "如何配置向量检索", "文档上传失败怎么办", "这个接口的参数是什么", "部署需要哪些步骤", "混合检索的原理",
+            "报错信息是什么意思", "支持哪些文件格式", "how do I configure the index", "what does this error mean",
+            "which parameters does the API accept", "steps to deploy the service", "difference between the two modes");
+
+    @Autowired(required = false)
+    private EmbeddingService embeddingService;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${spring.ai.rag.intent-gate.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 超过该 token 数的消息直接检索，不做判断
+     */
+    @Value("${spring.ai.rag.intent-gate.max-tokens:16}")
+    private int maxGateTokens;
+
+    /**
+     * 是否对规则无法判断的短消息使用分类器（需要一次查询向量化）
+     */
+    @Value("${spring.ai.rag.intent-gate.classifier-enabled:true}")
+    private boolean classifierEnabled;
+
+    /**
+     * 分类器跳过检索的余量：w·x + b 低于 -margin 才跳过，偏向检索
+     */
+    @Value("${spring.ai.rag.intent-gate.margin:0.02}")
+    private double margin;
+
+    private final ReentrantLock classifierLock = new ReentrantLock();
+    private volatile float[] weights;
+    private volatile double bias;
+    private volatile boolean classifierFailed;
+
+    @Override
+    public Decision evaluate(String message) {
+        Decision decision = decide(message);
+        if (meterRegistry != null) {
+            meterRegistry.counter("rag.intent.decisions",
+                    "decision", decision.retrieve() ? "retrieve" : "skip", "reason", decision.reason()).increment();
+        }
+        if (!decision.retrieve()) {
+            log.info("意图判断：跳过检索（{}，score={}）", decision.reason(), String.format("%.4f", decision.score()));
+        }
+        return decision;
+    }
+
+    @Override
+    public void recordOverride(String message, Decision decision) {
+        if (meterRegistry != null) {
+            meterRegistry.counter("rag.intent.overrides", "reason", decision.reason()).increment();
+        }
+        log.info("意图判断被强制检索纠正（{}，score={}）: {}", decision.reason(),
+                String.format("%.4f", decision.score()), message);
+    }
+
+    private Decision decide(String message) {
+        if (!enabled || message == null) {
+            return new Decision(true, "default", 0);
+        }
+
+        String normalized = PUNCTUATION.matcher(message.toLowerCase(Locale.ROOT)).replaceAll(" ").strip();
+        if (normalized.isEmpty()) {
+            return new Decision(false, "rule", 0);
+        }
+        if (TokenEstimator.estimate(normalized) > maxGateTokens) {
+            return new Decision(true, "rule", 0);
+        }
+        String compact = normalized.replace(" ", "");
+        if (CHITCHAT.matcher(compact).matches() || CHITCHAT.matcher(normalized).matches()
+                || FOLLOW_UP_INSTRUCTION.matcher(compact).matches()
+                || FOLLOW_UP_INSTRUCTION.matcher(normalized).matches()) {
+            return new Decision(false, "rule", 0);
+        }
+
+        if (!classifierEnabled || embeddingService == null || !ensureClassifier()) {
+            return new Decision(true, "default", 0);
+        }
+        try {
+            float[] vector = VectorMath.normalize(embeddingService.embed(message));
+            double score = VectorMath.dot(weights, vector) + bias;
+            return new Decision(score >= -margin, "classifier", score);
+        } catch (RuntimeException e) {
+            log.warn("意图分类失败，默认检索: {}", e.getMessage());
+            return new Decision(true, "default", 0);
+        }
+    }
+
+    /**
+     * 首次使用时批量生成种子向量并计算分类器参数；失败后不再重试
+     */
+    private boolean ensureClassifier() {
+        if (weights != null) {
+            return true;
+        }
+        if (classifierFailed) {
+            return false;
+        }
+
+        classifierLock.lock();
+        try {
+            if (weights == null && !classifierFailed) {
+                float[] chat = centroid(embeddingService.embedBatch(CHAT_SEEDS));
+                float[] knowledge = centroid(embeddingService.embedBatch(KNOWLEDGE_SEEDS));
+                float[] w = new float[chat.length];
+                for (int i = 0; i < w.length; i++) {
+                    w[i] = knowledge[i] - chat[i];
+                }
+                bias = (VectorMath.dot(chat, chat) - VectorMath.dot(knowledge, knowledge)) / 2;
+                weights = w;
+                log.info("意图分类器初始化完成，维度 {}", w.length);
+            }
+        } catch (RuntimeException e) {
+            classifierFailed = true;
+            log.warn("意图分类器初始化失败，仅使用规则判断: {}", e.getMessage());
+        } finally {
+            classifierLock.unlock();
+        }
+        return weights != null;
+    }
+
+    private static float[] centroid(List<float[]> vectors) {
+        float[] sum = new float[vectors.get(0).length];
+        for (float[] vector : vectors) {
+            float[] normalized = VectorMath.normalize(vector);
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] += normalized[i];
+            }
+        }
+        for (int i = 0; i < sum.length; i++) {
+            sum[i] /= vectors.size();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,158 @@
+package com.aiagent.service.impl;
+
+import com.aiagent.client.OllamaException;
+import com.aiagent.exception.TooManyRequestsException;
+import com.aiagent.service.LlmAdmissionService;
+import com.aiagent.util.AdaptiveConcurrencyLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * LLM 调用准入控制服务实现
+ *
+ * 基于 {@link AdaptiveConcurrencyLimiter}：并发上限随每个生成 token 的平均耗时自适应调整，超时和 5xx 视为过载信号；
+ * 客户端断开、请求参数错误等与服务端负载无关的结束不计入调整。
+ * 文档入库的批量向量化以 BACKGROUND 优先级占用许可（不带 token 数，只计入平均调用耗时），排在对话之后；
+ * 检索时的查询向量化不经过准入控制：单次只嵌入一条查询、耗时很短，且位于对话自身获取许可之前，
+ * 若同样排队，对话会在检索和生成两处各等待一次。
+ * 指标：llm.admission.limit、llm.admission.in-flight、llm.admission.queued、
+ * llm.admission.wait（priority）、llm.admission.rejected（priority，reason=queue-full|deadline|timeout|interrupted）。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Service
+public class LlmAdmissionServiceImpl implements LlmAdmissionService {
+
+    /**
+     * 生成 token 数少于该值的调用不参与并发上限调整
+     */
+    private static final int MIN_SAMPLE_TOKENS = 16;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${spring.ai.ollama.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${spring.ai.ollama.admission.initial-limit:4}")
+    private int initialLimit;
+
+    @Value("${spring.ai.ollama.admission.min-limit:1}")
+    private int minLimit;
+
+    @Value("${spring.ai.ollama.admission.max-limit:32}")
+    private int maxLimit;
+
+    @Value("${spring.ai.ollama.admission.queue-capacity:100}")
+    private int queueCapacity;
+
+    /**
+     * 短期平均耗时超过长期平均耗时多少倍时收缩并发上限
+     */
+    @Value("${spring.ai.ollama.admission.tolerance:2.0}")
+    private double tolerance;
+
+    @Value("${spring.ai.ollama.admission.backoff:0.9}")
+    private double backoff;
+
+    @Value("${spring.ai.ollama.admission.max-wait-ms.interactive:15000}")
+    private long interactiveMaxWaitMs;
+
+    @Value("${spring.ai.ollama.admission.max-wait-ms.background:60000}")
+    private long backgroundMaxWaitMs;
+
+    private AdaptiveConcurrencyLimiter limiter;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            log.info("LLM 调用准入控制未启用");
+            return;
+        }
+        limiter = new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, queueCapacity, tolerance,
+                backoff);
+        if (meterRegistry != null) {
+            meterRegistry.gauge("llm.admission.limit", limiter, AdaptiveConcurrencyLimiter::limit);
+            meterRegistry.gauge("llm.admission.in-flight", limiter, AdaptiveConcurrencyLimiter::inFlight);
+            meterRegistry.gauge("llm.admission.queued", limiter, AdaptiveConcurrencyLimiter::queued);
+        }
+        log.info("LLM 调用准入控制已启用，初始并发上限: {}，范围: [{}, {}]，队列容量: {}",
+                initialLimit, minLimit, maxLimit, queueCapacity);
+    }
+
+    @Override
+    public <T> T execute(Priority priority, Supplier<T> call, ToIntFunction<? super T> tokens) {
+        if (limiter == null) {
+            return call.get();
+        }
+
+        long waitStart = System.nanoTime();
+        AdaptiveConcurrencyLimiter.Permit permit;
+        try {
+            permit = limiter.acquire(priority.ordinal(), maxWaitMs(priority));
+        } catch (AdaptiveConcurrencyLimiter.Rejected e) {
+            if (meterRegistry != null) {
+                meterRegistry.counter("llm.admission.rejected", "priority", tag(priority), "reason", e.reason())
+                        .increment();
+            }
+            long retryAfterSeconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(e.retryAfterMillis() + 999));
+            log.warn("LLM 调用被拒绝（{}）: {}，并发上限: {}，排队: {}", tag(priority), e.getMessage(),
+                    limiter.limit(), limiter.queued());
+            throw new TooManyRequestsException("AI 服务繁忙，请 " + retryAfterSeconds + " 秒后重试",
+                    retryAfterSeconds);
+        }
+        if (meterRegistry != null) {
+            meterRegistry.timer("llm.admission.wait", "priority", tag(priority))
+                    .record(System.nanoTime() - waitStart, TimeUnit.NANOSECONDS);
+        }
+
+        try {
+            T result = call.get();
+            int generated = result != null ? tokens.applyAsInt(result) : 0;
+            // 回复过短时耗时主要是 Prompt 预填充，按 token 归一化会失真，只计入平均调用耗时
+            permit.complete(generated >= MIN_SAMPLE_TOKENS ? generated : 0);
+            return result;
+        } catch (RuntimeException e) {
+            if (isOverloadSignal(e)) {
+                permit.fail();
+            } else {
+                permit.cancel();
+            }
+            throw e;
+        } finally {
+            // Error 等未捕获的情况同样释放许可（已释放时为空操作）
+            permit.cancel();
+        }
+    }
+
+    private long maxWaitMs(Priority priority) {
+        return priority == Priority.INTERACTIVE ? interactiveMaxWaitMs : backgroundMaxWaitMs;
+    }
+
+    /**
+     * 超时、连接失败和服务端错误视为过载；客户端断开、合并执行被取消等不计入
+     */
+    private static boolean isOverloadSignal(RuntimeException e) {
+        if (e instanceof UncheckedIOException || e instanceof CancellationException) {
+            return false;
+        }
+        return e instanceof OllamaException ollama
+                && (ollama.getStatusCode() < 0 || ollama.getStatusCode() >= 500);
+    }
+
+    private static String tag(Priority priority) {
+        return priority.name().toLowerCase();
+    }
+}
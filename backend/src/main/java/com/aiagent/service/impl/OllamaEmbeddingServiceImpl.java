@@ -0,0 +1,254 @@
+package com.aiagent.service.impl;
+
+import com.aiagent.client.OllamaClient;
+import com.aiagent.client.OllamaException;
+import com.aiagent.service.EmbeddingService;
+import com.aiagent.util.ExpiringLruCache;
+import com.aiagent.util.MicroBatcher;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * 基于 Ollama 的向量嵌入实现
+ *
+ * 单条文本使用 /api/embeddings；批量使用 /api/embed（一次请求传入多条文本，Ollama 0.3.4+），
+ * 服务端不支持 /api/embed 时退回逐条请求。
+ * 单条嵌入结果按文本缓存（意图判断与随后的检索使用同一条查询，只需向量化一次）。
+ * 启用微批处理时，并发请求的未命中缓存的单条文本合并为一次 /api/embed 调用（见 {@link MicroBatcher}）；
+ * 低负载时不等待，直接发出请求。指标：embedding.batch.size。
+ * 请求经由共享的 {@link OllamaClient}（EMBED 类别，服务地址为 spring.ai.embedding.ollama.base-url）。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Service
+public class OllamaEmbeddingServiceImpl implements EmbeddingService {
+
+    @Value("${spring.ai.embedding.ollama.options.model:nomic-embed-text}")
+    private String embeddingModel;
+
+    @Value("${spring.ai.embedding.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${spring.ai.embedding.retry-delay:1000}")
+    private long retryDelay;
+
+    @Value("${spring.ai.embedding.cache.max-size:1000}")
+    private int cacheMaxSize;
+
+    @Value("${spring.ai.embedding.cache.ttl:600000}")
+    private long cacheTtl;
+
+    /**
+     * 是否合并并发的单条嵌入请求
+     */
+    @Value("${spring.ai.embedding.batch.enabled:true}")
+    private boolean batchEnabled;
+
+    @Value("${spring.ai.embedding.batch.max-size:16}")
+    private int batchMaxSize;
+
+    /**
+     * 已有请求在执行时，新请求凑批的最长等待时间（毫秒）
+     */
+    @Value("${spring.ai.embedding.batch.max-wait-ms:3}")
+    private long batchMaxWaitMs;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private OllamaClient ollamaClient;
+
+    private ExpiringLruCache<String, float[]> cache;
+
+    private MicroBatcher<String, float[]> batcher;
+
+    /**
+     * 服务端是否支持批量接口（404 后不再尝试）
+     */
+    private volatile boolean batchSupported = true;
+
+    @PostConstruct
+    public void init() {
+        cache = new ExpiringLruCache<>(Math.max(1, cacheMaxSize), cacheTtl);
+        if (batchEnabled) {
+            batcher = new MicroBatcher<>("embedding-batcher", Math.max(1, batchMaxSize), batchMaxWaitMs,
+                    this::embedUncached, size -> {
+                        if (meterRegistry != null) {
+                            meterRegistry.summary("embedding.batch.size").record(size);
+                        }
+                    });
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] cached = cache.get(text);
+        if (cached != null) {
+            return cached;
+        }
+        float[] embedding = batcher != null ? await(text) : requestSingle(text);
+        cache.put(text, embedding);
+        return embedding;
+    }
+
+    /**
+     * 等待微批处理结果
+     */
+    private float[] await(String text) {
+        try {
+            return batcher.submit(text).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException("嵌入生成失败: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * 微批处理函数：同一批中的重复文本只请求一次
+     */
+    private List<float[]> embedUncached(List<String> texts) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(texts));
+        List<float[]> vectors = distinct.size() == 1
+                ? List.of(requestSingle(distinct.get(0))) : requestBatch(distinct);
+
+        Map<String, float[]> byText = new HashMap<>();
+        for (int i = 0; i < distinct.size(); i++) {
+            byText.put(distinct.get(i), vectors.get(i));
+        }
+        List<float[]> results = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            results.add(byText.get(text));
+        }
+        return results;
+    }
+
+    private float[] requestSingle(String text) {
+        return withRetry(() -> {
+            Map<String, Object> requestBody = Map.of("model", embeddingModel, "prompt", text);
+            JsonNode embedding = ollamaClient.post(OllamaClient.Operation.EMBED, "/api/embeddings", requestBody)
+                    .path("embedding");
+            if (!embedding.isArray() || embedding.isEmpty()) {
+                throw new RuntimeException("嵌入生成失败，响应格式错误");
+            }
+            return toFloatArray(embedding);
+        });
+    }
+
+    @Override
+    public List<float[]> embedBatch(List<String> texts) {
+        if (texts.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (texts.size() == 1 || !batchSupported) {
+            return embedEach(texts);
+        }
+        return requestBatch(texts);
+    }
+
+    /**
+     * 一次请求生成多条文本的嵌入；服务端不支持批量接口时退回逐条请求（不经过缓存和微批处理）
+     */
+    private List<float[]> requestBatch(List<String> texts) {
+        if (!batchSupported) {
+            List<float[]> vectors = new ArrayList<>(texts.size());
+            for (String text : texts) {
+                vectors.add(requestSingle(text));
+            }
+            return vectors;
+        }
+
+        try {
+            return withRetry(() -> {
+                Map<String, Object> requestBody = Map.of("model", embeddingModel, "input", texts);
+                JsonNode embeddings = ollamaClient.post(OllamaClient.Operation.EMBED, "/api/embed", requestBody)
+                        .path("embeddings");
+                if (!embeddings.isArray() || embeddings.size() != texts.size()) {
+                    throw new RuntimeException("批量嵌入生成失败，响应格式错误");
+                }
+                List<float[]> vectors = new ArrayList<>(embeddings.size());
+                for (JsonNode embedding : embeddings) {
+                    vectors.add(toFloatArray(embedding));
+                }
+                return vectors;
+            });
+        } catch (OllamaException e) {
+            if (!e.isNotFound()) {
+                throw e;
+            }
+            log.warn("Ollama 不支持 /api/embed，改为逐条生成嵌入");
+            batchSupported = false;
+            return requestBatch(texts);
+        }
+    }
+
+    private List<float[]> embedEach(List<String> texts) {
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            vectors.add(embed(text));
+        }
+        return vectors;
+    }
+
+    /**
+     * 带重试执行请求，重试间隔线性递增；404 不重试
+     */
+    private <T> T withRetry(Supplier<T> request) {
+        int retries = 0;
+        while (true) {
+            try {
+                return request.get();
+            } catch (Exception e) {
+                if (e instanceof OllamaException ollamaException && ollamaException.isNotFound()) {
+                    throw ollamaException;
+                }
+                retries++;
+                if (retries >= maxRetries) {
+                    log.error("生成嵌入失败，已达到最大重试次数", e);
+                    throw new RuntimeException("嵌入生成失败: " + e.getMessage(), e);
+                }
+                log.warn("生成嵌入失败，正在重试 ({}/{})...", retries, maxRetries, e);
+
+                try {
+                    Thread.sleep(retryDelay * retries);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("嵌入生成被中断", ie);
+                }
+            }
+        }
+    }
+
+    private static float[] toFloatArray(JsonNode values) {
+        float[] vector = new float[values.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) values.get(i).asDouble();
+        }
+        return vector;
+    }
+}
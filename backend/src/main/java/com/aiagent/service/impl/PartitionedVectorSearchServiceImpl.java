@@ -0,0 +1,151 @@
+package com.aiagent.service.impl;
+
+import com.aiagent.dto.RetrievalFilter;
+import com.aiagent.model.DocumentChunk;
+import com.aiagent.service.VectorSearchService;
+import com.aiagent.util.PartitionRouter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分区并行向量检索实现
+ *
+ * document_chunks 按 partition_no 划分为 N 个分区，每个分区有独立的部分 HNSW 索引。
+ * 检索时每个分区在独立的虚拟线程上查询 topK，超过单分区超时的分区直接丢弃，
+ * 其余分区的结果用容量为 topK 的小顶堆合并。
+ *
+ * 注意：并发查询会同时占用最多 N 个数据库连接，连接池大小需要相应调整。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Service("partitionedVectorSearchService")
+public class PartitionedVectorSearchServiceImpl implements VectorSearchService {
+
+    private static final Comparator<Map<String, Object>> BY_SCORE =
+            Comparator.comparingDouble(PartitionedVectorSearchServiceImpl::score);
+
+    @Autowired(required = false)
+    private PgVectorSearchServiceImpl pgVectorSearchService;
+
+    @Autowired(required = false)
+    private PartitionRouter partitionRouter;
+
+    /**
+     * 单分区查询超时（毫秒），超时的分区不参与合并
+     */
+    @Value("${spring.ai.rag.partition.timeout-ms:500}")
+    private long partitionTimeoutMs;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Override
+    public String getName() {
+        return "pgvector-partitioned";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return pgVectorSearchService != null && pgVectorSearchService.isAvailable() && partitionRouter != null;
+    }
+
+    @Override
+    public List<Map<String, Object>> searchSimilarWithScore(float[] embedding, int topK, RetrievalFilter filter) {
+        if (!isAvailable()) {
+            return new ArrayList<>();
+        }
+
+        List<Integer> partitions = filter != null
+                ? partitionRouter.prune(filter.getCollections(), filter.getDocumentIds())
+                : partitionRouter.prune(null, null);
+        List<Callable<List<Map<String, Object>>>> tasks = new ArrayList<>(partitions.size());
+        for (int partition : partitions) {
+            tasks.add(() -> pgVectorSearchService.searchPartitionWithScore(embedding, partition, topK, filter));
+        }
+
+        List<Future<List<Map<String, Object>>>> futures;
+        try {
+            // 超时后未完成的任务会被取消
+            futures = executor.invokeAll(tasks, partitionTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("分区检索被中断", e);
+        }
+
+        PriorityQueue<Map<String, Object>> heap = new PriorityQueue<>(topK + 1, BY_SCORE);
+        int dropped = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            List<Map<String, Object>> rows;
+            try {
+                rows = futures.get(i).get();
+            } catch (CancellationException e) {
+                dropped++;
+                log.warn("分区 {} 检索超过 {} ms，已丢弃", partitions.get(i), partitionTimeoutMs);
+                continue;
+            } catch (ExecutionException e) {
+                dropped++;
+                log.warn("分区 {} 检索失败，已丢弃: {}", partitions.get(i), e.getCause().getMessage());
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("分区检索被中断", e);
+            }
+
+            for (Map<String, Object> row : rows) {
+                if (heap.size() < topK) {
+                    heap.add(row);
+                } else if (score(row) > score(heap.peek())) {
+                    heap.poll();
+                    heap.add(row);
+                }
+            }
+        }
+
+        if (dropped == partitions.size() && !partitions.isEmpty()) {
+            throw new IllegalStateException("所有分区检索均失败或超时");
+        }
+
+        List<Map<String, Object>> merged = new ArrayList<>(heap);
+        merged.sort(BY_SCORE.reversed());
+        log.debug("分区检索完成，查询 {} 个分区，丢弃 {} 个，返回 {} 条", partitions.size(), dropped, merged.size());
+        return merged;
+    }
+
+    @Override
+    public Map<String, float[]> fetchEmbeddings(Collection<String> chunkIds) {
+        return isAvailable() ? pgVectorSearchService.fetchEmbeddings(chunkIds) : Map.of();
+    }
+
+    @Override
+    public List<DocumentChunk> fetchChunksByPosition(List<DocumentChunk> positions) {
+        return isAvailable() ? pgVectorSearchService.fetchChunksByPosition(positions) : List.of();
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static double score(Map<String, Object> row) {
+        Object score = row.get("similarity_score");
+        return score instanceof Number number ? number.doubleValue() : 0.0;
+    }
+}
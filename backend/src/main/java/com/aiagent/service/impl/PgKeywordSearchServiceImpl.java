@@ -0,0 +1,92 @@
+package com.aiagent.service.impl;
+
+import com.aiagent.dto.RetrievalFilter;
+import com.aiagent.mapper.DocumentChunkMapper;
+import com.aiagent.model.DocumentChunk;
+import com.aiagent.service.KeywordSearchService;
+import com.aiagent.util.TextTokenizer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 PostgreSQL 全文检索的关键词检索实现
+ *
+ * PostgreSQL 内置的分词配置无法切分中文，因此由应用侧用 {@link TextTokenizer} 生成词项写入
+ * search_tokens 列，再由生成列 content_tsv（simple 配置）建立 GIN 索引；查询侧使用同一分词器，
+ * 词项之间为“或”关系，按 ts_rank_cd 排序。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Service("pgKeywordSearchService")
+public class PgKeywordSearchServiceImpl implements KeywordSearchService {
+
+    @Autowired(required = false)
+    private DocumentChunkMapper documentChunkMapper;
+
+    @Value("${spring.ai.rag.hybrid.enabled:false}")
+    private boolean hybridEnabled;
+
+    @Value("${spring.ai.rag.hybrid.backfill-batch-size:500}")
+    private int backfillBatchSize;
+
+    /**
+     * 为升级前入库、还没有 search_tokens 的文档块补齐词项
+     */
+    @PostConstruct
+    public void init() {
+        if (!hybridEnabled || documentChunkMapper == null) {
+            return;
+        }
+        Thread.ofVirtual().name("keyword-backfill").start(this::backfillSearchTokens);
+    }
+
+    @Override
+    public String getName() {
+        return "pg-fulltext";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return documentChunkMapper != null;
+    }
+
+    @Override
+    public List<Map<String, Object>> searchKeywordWithScore(String query, int topK, RetrievalFilter filter) {
+        String queryText = TextTokenizer.joinTokens(query);
+        if (documentChunkMapper == null || queryText.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return documentChunkMapper.searchKeywordWithScore(queryText, topK, filter);
+    }
+
+    private void backfillSearchTokens() {
+        int total = 0;
+        try {
+            while (true) {
+                List<DocumentChunk> batch = documentChunkMapper.selectMissingSearchTokens(backfillBatchSize);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (DocumentChunk chunk : batch) {
+                    chunk.setSearchTokens(TextTokenizer.joinTokens(chunk.getContent()));
+                }
+                documentChunkMapper.updateSearchTokensBatch(batch);
+                total += batch.size();
+            }
+            if (total > 0) {
+                log.info("关键词索引补齐完成，共 {} 个文档块", total);
+            }
+        } catch (Exception e) {
+            log.warn("关键词索引补齐失败（可能尚未执行 schema 升级）: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.aiagent.service.impl;
+
+import com.aiagent.dto.RetrievalFilter;
+import com.aiagent.mapper.DocumentChunkMapper;
+import com.aiagent.model.DocumentChunk;
+import com.aiagent.service.VectorSearchService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 PostgreSQL + pgvector 的向量检索实现
+ *
+ * 带过滤条件的检索在事务内开启 hnsw.iterative_scan：HNSW 索引返回的候选被过滤掉后继续扫描，
+ * 直到凑满 topK，避免“先取 topK 再过滤”导致结果不足。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Service("pgVectorSearchService")
+public class PgVectorSearchServiceImpl implements VectorSearchService {
+
+    @Autowired(required = false)
+    private DocumentChunkMapper documentChunkMapper;
+
+    /**
+     * 迭代扫描模式：relaxed_order、strict_order，off 表示不开启（pgvector 0.8 以下版本需设为 off）
+     */
+    @Value("${spring.ai.rag.vector-store.pgvector.iterative-scan:relaxed_order}")
+    private String iterativeScan;
+
+    @Override
+    public String getName() {
+        return "pgvector";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return documentChunkMapper != null;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> searchSimilarWithScore(float[] embedding, int topK, RetrievalFilter filter) {
+        if (documentChunkMapper == null) {
+            log.warn("DocumentChunkMapper 未配置，pgvector 检索不可用");
+            return new ArrayList<>();
+        }
+        prepareFilteredScan(filter);
+        return documentChunkMapper.searchSimilarWithScore(embedding, topK, filter);
+    }
+
+    @Override
+    public Map<String, float[]> fetchEmbeddings(Collection<String> chunkIds) {
+        Map<String, float[]> embeddings = new HashMap<>();
+        if (documentChunkMapper == null || chunkIds.isEmpty()) {
+            return embeddings;
+        }
+        for (DocumentChunk chunk : documentChunkMapper.selectEmbeddingsByIds(chunkIds)) {
+            embeddings.put(chunk.getId(), chunk.getEmbedding());
+        }
+        return embeddings;
+    }
+
+    @Override
+    public List<DocumentChunk> fetchChunksByPosition(List<DocumentChunk> positions) {
+        if (documentChunkMapper == null || positions.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return documentChunkMapper.selectByPositions(positions);
+    }
+
+    /**
+     * 单分区向量检索（供分区并行检索使用）
+     *
+     * @see DocumentChunkMapper#searchPartitionWithScore
+     */
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> searchPartitionWithScore(float[] embedding, int partitionNo, int topK,
+            RetrievalFilter filter) {
+        if (documentChunkMapper == null) {
+            return new ArrayList<>();
+        }
+        prepareFilteredScan(filter);
+        return documentChunkMapper.searchPartitionWithScore(embedding, partitionNo, topK, filter);
+    }
+
+    /**
+     * 混合检索：一条 SQL 完成向量召回、关键词召回和 RRF 融合
+     *
+     * @see DocumentChunkMapper#searchHybridWithScore
+     */
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> searchHybridWithScore(float[] embedding, String queryText, int topK,
+            int candidateK, int rrfK, RetrievalFilter filter) {
+        if (documentChunkMapper == null) {
+            return new ArrayList<>();
+        }
+        prepareFilteredScan(filter);
+        return documentChunkMapper.searchHybridWithScore(embedding, queryText, topK, candidateK, rrfK, filter);
+    }
+
+    /**
+     * 有过滤条件时在当前事务内开启迭代扫描（SET LOCAL 语义，事务结束自动恢复）
+     */
+    private void prepareFilteredScan(RetrievalFilter filter) {
+        if (filter != null && filter.hasCondition() && !"off".equalsIgnoreCase(iterativeScan)) {
+            documentChunkMapper.enableIterativeScan(iterativeScan);
+        }
+    }
+}
@@ -1,18 +1,47 @@
 package com.aiagent.service.impl;
 
-import com.aiagent.mapper.DocumentChunkMapper;
+import com.aiagent.dto.RetrievalFilter;
+import com.aiagent.mapper.DocumentMapper;
 import com.aiagent.model.DocumentChunk;
+import com.aiagent.service.EmbeddingService;
+import com.aiagent.service.KeywordSearchService;
 import com.aiagent.service.RAGService;
+import com.aiagent.service.VectorSearchService;
+import com.aiagent.util.ChunkMerger;
+import com.aiagent.util.ContextPacker;
+import com.aiagent.util.ExtractiveCompressor;
+import com.aiagent.util.MmrSelector;
+import com.aiagent.util.OverFetchTuner;
+import com.aiagent.util.QueryDecomposer;
+import com.aiagent.util.RankFusion;
+import com.aiagent.util.ScoreCutoff;
+import com.aiagent.util.TextTokenizer;
+import com.aiagent.util.TokenEstimator;
+import com.aiagent.util.VectorUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -26,40 +55,236 @@ import java.util.stream.Collectors;
 public class RAGServiceImpl implements RAGService {
 
     @Autowired(required = false)
-    private DocumentChunkMapper documentChunkMapper;
+    private PgVectorSearchServiceImpl pgVectorSearchService;
+
+    @Autowired(required = false)
+    @Qualifier("hnswVectorSearchService")
+    private VectorSearchService hnswVectorSearchService;
+
+    @Autowired(required = false)
+    @Qualifier("partitionedVectorSearchService")
+    private VectorSearchService partitionedVectorSearchService;
+
+    @Autowired(required = false)
+    @Qualifier("pgKeywordSearchService")
+    private KeywordSearchService pgKeywordSearchService;
+
+    @Autowired(required = false)
+    @Qualifier("bm25KeywordSearchService")
+    private KeywordSearchService bm25KeywordSearchService;
+
+    /**
+     * 向量检索数据源：pgvector、hnsw（进程内索引为主）、replica（进程内索引作为 pgvector 只读副本）、
+     * partitioned（pgvector 分区并行检索）
+     */
+    @Value("${spring.ai.rag.vector-store.mode:pgvector}")
+    private String vectorStoreMode;
+
+    /**
+     * 是否启用混合检索（向量 + 关键词）
+     */
+    @Value("${spring.ai.rag.hybrid.enabled:false}")
+    private boolean hybridEnabled;
+
+    /**
+     * 关键词检索数据源：pg（PostgreSQL 全文检索）、bm25（进程内倒排索引）
+     */
+    @Value("${spring.ai.rag.hybrid.keyword-source:pg}")
+    private String keywordSource;
+
+    /**
+     * 混合检索时每一路召回的候选倍数
+     */
+    @Value("${spring.ai.rag.hybrid.candidate-factor:4}")
+    private int hybridCandidateFactor;
+
+    /**
+     * RRF 平滑常数
+     */
+    @Value("${spring.ai.rag.hybrid.rrf-k:60}")
+    private int rrfK;
+
+    /**
+     * 是否启用最大边际相关性（MMR）多样性重排
+     */
+    @Value("${spring.ai.rag.mmr.enabled:false}")
+    private boolean mmrEnabled;
+
+    /**
+     * MMR 相关性权重，越小越偏向多样性
+     */
+    @Value("${spring.ai.rag.mmr.lambda:0.7}")
+    private float mmrLambda;
+
+    /**
+     * 启用 MMR 时的候选倍数（候选数 = topK * candidate-factor）
+     */
+    @Value("${spring.ai.rag.mmr.candidate-factor:4}")
+    private int mmrCandidateFactor;
+
+    /**
+     * 是否将命中块扩展为包含相邻块的连续段落
+     */
+    @Value("${spring.ai.rag.expansion.enabled:false}")
+    private boolean expansionEnabled;
+
+    /**
+     * 扩展窗口：命中块前后各取几个相邻块
+     */
+    @Value("${spring.ai.rag.expansion.window:1}")
+    private int expansionWindow;
+
+    /**
+     * 是否启用面向查询的抽取式压缩
+     */
+    @Value("${spring.ai.rag.compression.enabled:false}")
+    private boolean compressionEnabled;
+
+    /**
+     * 压缩目标：保留原块 token 数的比例
+     */
+    @Value("${spring.ai.rag.compression.target-ratio:0.5}")
+    private double compressionTargetRatio;
+
+    /**
+     * 低于该 token 数的块不压缩
+     */
+    @Value("${spring.ai.rag.compression.min-chunk-tokens:120}")
+    private int compressionMinChunkTokens;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
 
     @Value("${spring.ai.rag.top-k:5}")
     private int defaultTopK;
 
-    @Value("${spring.ai.embedding.ollama.base-url:http://localhost:11434}")
-    private String embeddingBaseUrl;
+    /**
+     * 是否将复合问题拆分为多个子查询并行检索
+     */
+    @Value("${spring.ai.rag.multi-query.enabled:false}")
+    private boolean multiQueryEnabled;
+
+    /**
+     * 最多子查询数（含原始查询）
+     */
+    @Value("${spring.ai.rag.multi-query.max-queries:4}")
+    private int multiQueryMaxQueries;
+
+    /**
+     * 多查询并行检索的整体截止时间（毫秒），超时的子查询不参与融合
+     */
+    @Value("${spring.ai.rag.multi-query.timeout-ms:800}")
+    private long multiQueryTimeoutMs;
 
-    @Value("${spring.ai.embedding.ollama.options.model:nomic-embed-text}")
-    private String embeddingModel;
+    /**
+     * 是否按分数自适应截断检索结果（绝对阈值 + 相对落差拐点）
+     */
+    @Value("${spring.ai.rag.cutoff.enabled:false}")
+    private boolean cutoffEnabled;
+
+    /**
+     * 向量相似度下限，低于该值且没有关键词命中的候选被丢弃
+     */
+    @Value("${spring.ai.rag.cutoff.min-score:0.3}")
+    private float cutoffMinScore;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    /**
+     * 相邻候选的分数落差超过最高分的该比例时，在落差处截断
+     */
+    @Value("${spring.ai.rag.cutoff.gap-ratio:0.25}")
+    private float cutoffGapRatio;
+
+    /**
+     * 拐点截断后至少保留的候选数（阈值过滤后不足时以实际数量为准）
+     */
+    @Value("${spring.ai.rag.cutoff.min-keep:1}")
+    private int cutoffMinKeep;
+
+    /**
+     * 是否根据截断结果自动调整候选倍数（未启用 MMR 时生效）
+     */
+    @Value("${spring.ai.rag.cutoff.adaptive-fetch:true}")
+    private boolean adaptiveFetch;
+
+    @Value("${spring.ai.rag.cutoff.min-factor:1}")
+    private double minFetchFactor;
+
+    @Value("${spring.ai.rag.cutoff.max-factor:4}")
+    private double maxFetchFactor;
+
+    private OverFetchTuner overFetchTuner;
+
+    /**
+     * 是否启用两级检索：先按文档级向量定位文档，再在这些文档内检索文档块
+     */
+    @Value("${spring.ai.rag.hierarchical.enabled:false}")
+    private boolean hierarchicalEnabled;
+
+    /**
+     * 第一级定位的文档数
+     */
+    @Value("${spring.ai.rag.hierarchical.top-documents:20}")
+    private int hierarchicalTopDocuments;
+
+    /**
+     * 抽样对比比例：按该比例在后台同时执行一次扁平检索，记录两级检索的召回率和两种方式的耗时
+     */
+    @Value("${spring.ai.rag.hierarchical.compare-sample-rate:0.0}")
+    private double hierarchicalCompareSampleRate;
+
+    @Autowired(required = false)
+    private DocumentMapper documentMapper;
+
+    @Autowired
+    private EmbeddingService embeddingService;
+
+    private final ExecutorService fanOutExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     @Override
-    public List<DocumentChunk> retrieveContext(String query, int topK) {
-        if (documentChunkMapper == null) {
-            log.warn("DocumentChunkMapper 未配置，RAG 检索功能暂不可用");
+    public List<DocumentChunk> retrieveContext(String query, int topK, RetrievalFilter filter) {
+        VectorSearchService vectorSearchService = resolveVectorSearchService();
+        if (vectorSearchService == null) {
+            log.warn("向量检索数据源未配置，RAG 检索功能暂不可用");
             return new ArrayList<>();
         }
 
         try {
-            log.info("开始向量检索，查询: {}", query);
-
-            // 1. 生成查询向量
-            float[] queryEmbedding = generateEmbedding(query);
-
-            // 2. 执行向量相似度搜索，获取带分数的结果
-            List<Map<String, Object>> similarResults =
-                    documentChunkMapper.searchSimilarWithScore(queryEmbedding, topK * 2); // 获取更多结果用于重新排序
+            log.info("开始向量检索，数据源: {}，查询: {}，过滤条件: {}", vectorSearchService.getName(), query, filter);
+
+            // 1~2. 生成查询向量并执行检索（向量或混合），获取更多结果用于重新排序；复合问题拆分为子查询并行检索
+            boolean tuneFetch = cutoffEnabled && adaptiveFetch && !mmrEnabled;
+            int candidateCount = mmrEnabled ? topK * Math.max(2, mmrCandidateFactor)
+                    : tuneFetch ? overFetchTuner.candidateCount(topK) : topK * 2;
+            List<String> queries = multiQueryEnabled
+                    ? QueryDecomposer.decompose(query, Math.max(1, multiQueryMaxQueries)) : List.of(query);
+            List<Map<String, Object>> similarResults = queries.size() > 1
+                    ? searchMultiQuery(vectorSearchService, queries, candidateCount, filter)
+                    : searchCandidates(vectorSearchService, query, embeddingService.embed(query), candidateCount,
+                            filter);
+
+            log.info("检索完成，找到 {} 个相关文档块", similarResults.size());
+
+            // 按分数截断：只保留真正相关的候选，提示词随之变短
+            if (cutoffEnabled && !similarResults.isEmpty()) {
+                int fetched = similarResults.size();
+                similarResults = cutoffCandidates(similarResults);
+                if (tuneFetch) {
+                    overFetchTuner.observe(topK, fetched, similarResults.size(), candidateCount);
+                }
+                if (meterRegistry != null) {
+                    meterRegistry.summary("rag.cutoff.kept").record(similarResults.size());
+                }
+                log.info("分数截断：{} 个候选保留 {} 个，当前候选倍数 {}", fetched, similarResults.size(),
+                        String.format("%.2f", overFetchTuner.factor()));
+            }
 
-            log.info("向量检索完成，找到 {} 个相关文档块", similarResults.size());
+            // 3. 重新排序（多样性重排或多因素排序）
+            List<DocumentChunk> rankedChunks = rerankResults(similarResults, query, topK, vectorSearchService);
 
-            // 3. 多因素重新排序
-            List<DocumentChunk> rankedChunks = rerankResults(similarResults, query, topK);
+            // 4. 相邻块扩展
+            if (expansionEnabled && !rankedChunks.isEmpty()) {
+                rankedChunks = expandNeighbors(rankedChunks, vectorSearchService);
+            }
 
             log.info("重新排序完成，最终返回 {} 个文档块", rankedChunks.size());
             return rankedChunks;
@@ -69,16 +294,337 @@ public class RAGServiceImpl implements RAGService {
         }
     }
 
+    @Override
+    public Map<String, float[]> fetchEmbeddings(Collection<String> chunkIds) {
+        VectorSearchService vectorSearchService = resolveVectorSearchService();
+        if (vectorSearchService == null || chunkIds.isEmpty()) {
+            return Map.of();
+        }
+        return vectorSearchService.fetchEmbeddings(chunkIds);
+    }
+
+    @Override
+    public List<DocumentChunk> compressContext(String query, List<DocumentChunk> contextChunks) {
+        if (!compressionEnabled || contextChunks == null || contextChunks.isEmpty()) {
+            return contextChunks;
+        }
+
+        long start = System.nanoTime();
+        List<String> queryTokens = TextTokenizer.tokenize(query);
+        List<DocumentChunk> compressed = new ArrayList<>(contextChunks.size());
+        long originalTokens = 0;
+        long compressedTokens = 0;
+        for (DocumentChunk chunk : contextChunks) {
+            int tokens = ContextPacker.tokenCount(chunk);
+            originalTokens += tokens;
+            if (tokens < compressionMinChunkTokens || queryTokens.isEmpty()) {
+                compressed.add(chunk);
+                compressedTokens += tokens;
+                continue;
+            }
+
+            String content = ExtractiveCompressor.compress(chunk.getContent(), queryTokens,
+                    (int) Math.ceil(tokens * compressionTargetRatio));
+            DocumentChunk copy = copyWithContent(chunk, content);
+            compressed.add(copy);
+            compressedTokens += copy.getTokenCount();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double ratio = originalTokens > 0 ? (double) compressedTokens / originalTokens : 1.0;
+        if (meterRegistry != null) {
+            meterRegistry.timer("rag.compression.time").record(elapsed, TimeUnit.NANOSECONDS);
+            meterRegistry.summary("rag.compression.ratio").record(ratio);
+            meterRegistry.counter("rag.compression.tokens.saved").increment(originalTokens - compressedTokens);
+        }
+        log.info("上下文压缩：{} -> {} tokens（{}%），耗时 {} µs", originalTokens, compressedTokens,
+                Math.round(ratio * 100), elapsed / 1000);
+        return compressed;
+    }
+
+    private static DocumentChunk copyWithContent(DocumentChunk source, String content) {
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setId(source.getId());
+        chunk.setDocumentId(source.getDocumentId());
+        chunk.setCollection(source.getCollection());
+        chunk.setChunkIndex(source.getChunkIndex());
+        chunk.setContent(content);
+        chunk.setTokenCount(TokenEstimator.estimate(content));
+        chunk.setVectorId(source.getVectorId());
+        chunk.setScore(source.getScore());
+        chunk.setCreatedAt(source.getCreatedAt());
+        return chunk;
+    }
+
+    /**
+     * 按分数截断候选
+     *
+     * 1. 绝对阈值：向量相似度低于 min-score 的候选丢弃（同时有关键词命中也丢弃，只有关键词命中的候选保留）
+     * 2. 相对落差：按向量相似度寻找拐点，拐点之后的候选丢弃，至少保留 min-keep 个。
+     *    RRF 融合后的列表不做拐点截断：融合分数只反映排名，只被一路召回的候选分数天然约低一半，
+     *    会在两路结果的交界处形成假拐点
+     */
+    private List<Map<String, Object>> cutoffCandidates(List<Map<String, Object>> candidates) {
+        List<Map<String, Object>> kept = new ArrayList<>(candidates.size());
+        boolean fused = false;
+        for (Map<String, Object> row : candidates) {
+            fused |= row.containsKey(RankFusion.RRF_SCORE);
+            boolean belowThreshold = row.get("similarity_score") instanceof Number similarity
+                    && similarity.floatValue() < cutoffMinScore;
+            if (!belowThreshold) {
+                kept.add(row);
+            }
+        }
+        if (fused) {
+            return kept;
+        }
+
+        float[] scores = new float[kept.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = kept.get(i).get("similarity_score") instanceof Number number ? number.floatValue() : 0f;
+        }
+        int elbow = Math.max(ScoreCutoff.elbow(scores, cutoffGapRatio), Math.min(cutoffMinKeep, kept.size()));
+        return elbow < kept.size() ? new ArrayList<>(kept.subList(0, elbow)) : kept;
+    }
+
+    /**
+     * 多查询并行检索
+     *
+     * 所有子查询一次批量生成向量，每个子查询在独立的虚拟线程上检索，整体受截止时间约束；
+     * 超时或失败的子查询被丢弃，其余结果按 RRF 融合并按文档块去重。全部失败时抛出异常。
+     */
+    private List<Map<String, Object>> searchMultiQuery(VectorSearchService vectorSearchService, List<String> queries,
+            int limit, RetrievalFilter filter) {
+        long start = System.currentTimeMillis();
+        List<float[]> embeddings = embeddingService.embedBatch(queries);
+
+        List<Callable<List<Map<String, Object>>>> tasks = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            String subQuery = queries.get(i);
+            float[] embedding = embeddings.get(i);
+            tasks.add(() -> searchCandidates(vectorSearchService, subQuery, embedding, limit, filter));
+        }
+
+        List<Future<List<Map<String, Object>>>> futures;
+        try {
+            futures = fanOutExecutor.invokeAll(tasks, multiQueryTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("多查询检索被中断", e);
+        }
+
+        List<List<Map<String, Object>>> rankings = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                rankings.add(futures.get(i).get());
+            } catch (CancellationException e) {
+                log.warn("子查询超过 {} ms，已丢弃: {}", multiQueryTimeoutMs, queries.get(i));
+            } catch (ExecutionException e) {
+                log.warn("子查询检索失败，已丢弃: {}，{}", queries.get(i), e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("多查询检索被中断", e);
+            }
+        }
+        if (rankings.isEmpty()) {
+            throw new IllegalStateException("所有子查询检索均失败或超时");
+        }
+
+        List<Map<String, Object>> fused = RankFusion.reciprocalRankFusion(rankings, rrfK, limit);
+        log.info("多查询检索：{} 个子查询，{} 个完成，融合后 {} 条，耗时 {} ms，子查询: {}", queries.size(),
+                rankings.size(), fused.size(), System.currentTimeMillis() - start, queries);
+        return fused;
+    }
+
+    @PostConstruct
+    public void init() {
+        overFetchTuner = new OverFetchTuner(2, minFetchFactor, maxFetchFactor);
+    }
+
+    @PreDestroy
+    public void close() {
+        fanOutExecutor.shutdownNow();
+    }
+
+    /**
+     * 根据配置选择向量检索数据源
+     *
+     * @return 可用的数据源，均不可用时返回 null
+     */
+    private VectorSearchService resolveVectorSearchService() {
+        VectorSearchService selected;
+        if ("partitioned".equalsIgnoreCase(vectorStoreMode)) {
+            selected = partitionedVectorSearchService;
+        } else if ("hnsw".equalsIgnoreCase(vectorStoreMode) || "replica".equalsIgnoreCase(vectorStoreMode)) {
+            // 进程内索引未完成初始同步前结果不完整，直接读 pgvector（未配置数据库时没有可用数据源）
+            selected = hnswVectorSearchService != null && hnswVectorSearchService.isAvailable()
+                    ? hnswVectorSearchService : pgVectorSearchService;
+        } else {
+            selected = pgVectorSearchService;
+        }
+        return selected != null && selected.isAvailable() ? selected : null;
+    }
+
+    /**
+     * 检索候选结果
+     *
+     * 启用两级检索时，先按文档级向量定位最相近的文档，再把文档块检索限定在这些文档内；
+     * 定位不到文档时退回扁平检索。
+     */
+    private List<Map<String, Object>> searchCandidates(VectorSearchService vectorSearchService, String query,
+            float[] queryEmbedding, int limit, RetrievalFilter filter) {
+        if (!hierarchicalEnabled) {
+            return searchFlat(vectorSearchService, query, queryEmbedding, limit, filter);
+        }
+
+        long start = System.nanoTime();
+        RetrievalFilter routed = routeDocuments(queryEmbedding, filter);
+        List<Map<String, Object>> results = searchFlat(vectorSearchService, query, queryEmbedding, limit, routed);
+        if (routed != filter) {
+            long elapsed = System.nanoTime() - start;
+            if (meterRegistry != null) {
+                meterRegistry.timer("rag.hierarchical.search.time", "mode", "hierarchical")
+                        .record(elapsed, TimeUnit.NANOSECONDS);
+            }
+            if (ThreadLocalRandom.current().nextDouble() < hierarchicalCompareSampleRate) {
+                compareWithFlat(vectorSearchService, query, queryEmbedding, limit, filter, results, elapsed);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 两级检索第一级：按文档级向量取最相近的文档
+     *
+     * @return 限定到这些文档的过滤条件；原过滤条件已限定的文档不多于定位数量、没有文档级向量或定位失败时返回原过滤条件
+     */
+    private RetrievalFilter routeDocuments(float[] queryEmbedding, RetrievalFilter filter) {
+        if (documentMapper == null || (filter != null && filter.getDocumentIds() != null
+                && !filter.getDocumentIds().isEmpty() && filter.getDocumentIds().size() <= hierarchicalTopDocuments)) {
+            return filter;
+        }
+
+        try {
+            List<String> documentIds =
+                    documentMapper.selectSimilarDocumentIds(queryEmbedding, hierarchicalTopDocuments, filter);
+            if (documentIds.isEmpty()) {
+                log.debug("没有可用的文档级向量，退回扁平检索");
+                return filter;
+            }
+            log.debug("两级检索定位到 {} 个文档", documentIds.size());
+            return RetrievalFilter.of(filter != null ? filter.getCollections() : null, documentIds);
+        } catch (RuntimeException e) {
+            log.warn("文档定位失败，退回扁平检索: {}", e.getMessage());
+            return filter;
+        }
+    }
+
+    /**
+     * 后台执行一次扁平检索，与两级检索结果对比：召回率 = 两级检索结果中包含的扁平检索结果比例
+     */
+    private void compareWithFlat(VectorSearchService vectorSearchService, String query, float[] queryEmbedding,
+            int limit, RetrievalFilter filter, List<Map<String, Object>> hierarchicalResults, long hierarchicalNanos) {
+        Set<Object> hierarchicalIds = hierarchicalResults.stream()
+                .map(row -> row.get("id"))
+                .collect(Collectors.toSet());
+        fanOutExecutor.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                List<Map<String, Object>> flatResults =
+                        searchFlat(vectorSearchService, query, queryEmbedding, limit, filter);
+                long elapsed = System.nanoTime() - start;
+                if (flatResults.isEmpty()) {
+                    return;
+                }
+                long matched = flatResults.stream().filter(row -> hierarchicalIds.contains(row.get("id"))).count();
+                double recall = (double) matched / flatResults.size();
+                if (meterRegistry != null) {
+                    meterRegistry.summary("rag.hierarchical.recall").record(recall);
+                    meterRegistry.timer("rag.hierarchical.search.time", "mode", "flat")
+                            .record(elapsed, TimeUnit.NANOSECONDS);
+                }
+                log.info("两级检索对比：召回率 {}%，两级 {} µs，扁平 {} µs", Math.round(recall * 100),
+                        hierarchicalNanos / 1000, elapsed / 1000);
+            } catch (RuntimeException e) {
+                log.debug("扁平检索对比失败: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 扁平检索候选结果
+     *
+     * 未启用混合检索时只做向量检索；启用后：
+     * - 向量和关键词都走 PostgreSQL 时，用一条 SQL 完成两路召回和 RRF 融合
+     * - 否则两路分别召回，在内存中做 RRF 融合
+     * 关键词召回失败不影响向量检索结果。
+     */
+    private List<Map<String, Object>> searchFlat(VectorSearchService vectorSearchService, String query,
+            float[] queryEmbedding, int limit, RetrievalFilter filter) {
+        KeywordSearchService keywordSearchService = hybridEnabled ? resolveKeywordSearchService() : null;
+        if (keywordSearchService == null) {
+            return searchWithFallback(vectorSearchService, queryEmbedding, limit, filter);
+        }
+
+        int candidateK = limit * Math.max(1, hybridCandidateFactor);
+        try {
+            if (vectorSearchService == pgVectorSearchService && keywordSearchService == pgKeywordSearchService) {
+                return pgVectorSearchService.searchHybridWithScore(queryEmbedding, TextTokenizer.joinTokens(query),
+                        limit, candidateK, rrfK, filter);
+            }
+
+            List<Map<String, Object>> vectorResults =
+                    searchWithFallback(vectorSearchService, queryEmbedding, candidateK, filter);
+            List<Map<String, Object>> keywordResults =
+                    keywordSearchService.searchKeywordWithScore(query, candidateK, filter);
+            log.info("混合检索：向量召回 {} 条（{}），关键词召回 {} 条（{}）", vectorResults.size(),
+                    vectorSearchService.getName(), keywordResults.size(), keywordSearchService.getName());
+            return RankFusion.reciprocalRankFusion(List.of(vectorResults, keywordResults), rrfK, limit);
+        } catch (RuntimeException e) {
+            log.warn("混合检索失败，退回纯向量检索: {}", e.getMessage());
+            return searchWithFallback(vectorSearchService, queryEmbedding, limit, filter);
+        }
+    }
+
+    /**
+     * 选择关键词检索数据源
+     *
+     * @return 可用的数据源，不可用时返回 null
+     */
+    private KeywordSearchService resolveKeywordSearchService() {
+        KeywordSearchService selected = "bm25".equalsIgnoreCase(keywordSource)
+                ? bm25KeywordSearchService : pgKeywordSearchService;
+        return selected != null && selected.isAvailable() ? selected : null;
+    }
+
+    /**
+     * 执行向量检索；副本模式下进程内索引出错时回退到 pgvector
+     */
+    private List<Map<String, Object>> searchWithFallback(VectorSearchService vectorSearchService,
+            float[] queryEmbedding, int topK, RetrievalFilter filter) {
+        try {
+            return vectorSearchService.searchSimilarWithScore(queryEmbedding, topK, filter);
+        } catch (RuntimeException e) {
+            if (!"replica".equalsIgnoreCase(vectorStoreMode) || vectorSearchService == pgVectorSearchService
+                    || pgVectorSearchService == null || !pgVectorSearchService.isAvailable()) {
+                throw e;
+            }
+            log.warn("{} 检索失败，回退到 pgvector: {}", vectorSearchService.getName(), e.getMessage());
+            return pgVectorSearchService.searchSimilarWithScore(queryEmbedding, topK, filter);
+        }
+    }
+
     /**
      * 多因素重新排序
      * 
      * @param similarResults 相似结果列表
      * @param query 查询文本
      * @param topK 返回前K个结果
+     * @param vectorSearchService 向量数据源（用于补齐候选向量）
      * @return 重新排序后的文档块列表
      */
     private List<DocumentChunk> rerankResults(List<Map<String, Object>> similarResults,
-            String query, int topK) {
+            String query, int topK, VectorSearchService vectorSearchService) {
         // 1. 转换为DocumentChunk对象并添加相似度分数
         List<DocumentChunkWithScore> chunksWithScore = new ArrayList<>();
 
@@ -86,15 +632,23 @@ public class RAGServiceImpl implements RAGService {
             DocumentChunk chunk = new DocumentChunk();
             chunk.setId((String) result.get("id"));
             chunk.setDocumentId((String) result.get("document_id"));
+            chunk.setCollection((String) result.get("collection"));
             chunk.setChunkIndex((Integer) result.get("chunk_index"));
             chunk.setContent((String) result.get("content"));
+            chunk.setTokenCount(result.get("token_count") instanceof Number tokens ? tokens.intValue() : null);
             chunk.setVectorId((String) result.get("vector_id"));
             chunk.setCreatedAt((LocalDateTime) result.get("created_at"));
 
-            Double similarityScore = (Double) result.get("similarity_score");
+            // 混合检索结果按融合分数排序，纯向量检索按相似度排序
+            Object score = result.containsKey(RankFusion.RRF_SCORE)
+                    ? result.get(RankFusion.RRF_SCORE) : result.get("similarity_score");
+
+            chunk.setScore(score instanceof Number number ? number.floatValue() : 0.0f);
+            chunksWithScore.add(new DocumentChunkWithScore(chunk, chunk.getScore()));
+        }
 
-            chunksWithScore.add(new DocumentChunkWithScore(chunk,
-                    similarityScore != null ? similarityScore.floatValue() : 0.0f));
+        if (mmrEnabled && chunksWithScore.size() > 1) {
+            return selectDiverse(chunksWithScore, similarResults, topK, vectorSearchService);
         }
 
         // 2. 多因素排序
@@ -120,6 +674,106 @@ public class RAGServiceImpl implements RAGService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * 最大边际相关性选择：避免重叠分块占满 topK
+     *
+     * 相关性为检索分数按候选集做 min-max 归一化（兼容向量相似度与 RRF 融合分数），
+     * 候选间相似度为向量余弦相似度；检索结果中没有向量的候选统一向数据源批量补齐。
+     */
+    private List<DocumentChunk> selectDiverse(List<DocumentChunkWithScore> candidates,
+            List<Map<String, Object>> rows, int topK, VectorSearchService vectorSearchService) {
+        int n = candidates.size();
+        float[][] vectors = new float[n][];
+        Set<String> missing = new LinkedHashSet<>();
+        for (int i = 0; i < n; i++) {
+            Object embedding = rows.get(i).get("embedding");
+            if (embedding instanceof float[] vector) {
+                vectors[i] = vector;
+            } else if (embedding instanceof String literal) {
+                vectors[i] = VectorUtils.parse(literal);
+            } else {
+                missing.add(candidates.get(i).getChunk().getId());
+            }
+        }
+        if (!missing.isEmpty()) {
+            try {
+                Map<String, float[]> fetched = vectorSearchService.fetchEmbeddings(missing);
+                for (int i = 0; i < n; i++) {
+                    if (vectors[i] == null) {
+                        vectors[i] = fetched.get(candidates.get(i).getChunk().getId());
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.warn("获取候选向量失败，缺失向量的候选不参与去重: {}", e.getMessage());
+            }
+        }
+
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (DocumentChunkWithScore candidate : candidates) {
+            min = Math.min(min, candidate.getScore());
+            max = Math.max(max, candidate.getScore());
+        }
+        float range = max - min;
+        float[] relevance = new float[n];
+        for (int i = 0; i < n; i++) {
+            relevance[i] = range > 0 ? (candidates.get(i).getScore() - min) / range : 1f;
+        }
+
+        long start = System.nanoTime();
+        int[] order = MmrSelector.select(vectors, relevance, topK, mmrLambda);
+        log.debug("MMR 重排 {} 个候选，耗时 {} µs", n, (System.nanoTime() - start) / 1000);
+
+        List<DocumentChunk> selected = new ArrayList<>(order.length);
+        for (int index : order) {
+            selected.add(candidates.get(index).getChunk());
+        }
+        return selected;
+    }
+
+    /**
+     * 相邻块扩展：一次批量查询取回所有命中块前后的相邻块，合并为连续段落并去除重叠文本
+     *
+     * 扩展失败时返回原命中块，不影响检索结果。
+     */
+    private List<DocumentChunk> expandNeighbors(List<DocumentChunk> hits, VectorSearchService vectorSearchService) {
+        Set<String> seen = new LinkedHashSet<>();
+        for (DocumentChunk hit : hits) {
+            seen.add(hit.getDocumentId() + "#" + hit.getChunkIndex());
+        }
+
+        List<DocumentChunk> positions = new ArrayList<>();
+        for (DocumentChunk hit : hits) {
+            if (hit.getChunkIndex() == null) {
+                continue;
+            }
+            for (int offset = -expansionWindow; offset <= expansionWindow; offset++) {
+                int index = hit.getChunkIndex() + offset;
+                if (offset == 0 || index < 0 || !seen.add(hit.getDocumentId() + "#" + index)) {
+                    continue;
+                }
+                DocumentChunk position = new DocumentChunk();
+                position.setDocumentId(hit.getDocumentId());
+                position.setChunkIndex(index);
+                positions.add(position);
+            }
+        }
+        if (positions.isEmpty()) {
+            return ChunkMerger.merge(hits, List.of());
+        }
+
+        try {
+            List<DocumentChunk> neighbors = vectorSearchService.fetchChunksByPosition(positions);
+            List<DocumentChunk> passages = ChunkMerger.merge(hits, neighbors);
+            log.info("相邻块扩展：{} 个命中块，取回 {} 个相邻块，合并为 {} 个段落",
+                    hits.size(), neighbors.size(), passages.size());
+            return passages;
+        } catch (RuntimeException e) {
+            log.warn("相邻块扩展失败，使用原始命中块: {}", e.getMessage());
+            return hits;
+        }
+    }
+
     /**
      * 带分数的文档块包装类
      */
@@ -141,124 +795,82 @@ public class RAGServiceImpl implements RAGService {
         }
     }
 
-    @Value("${spring.ai.embedding.max-retries:3}")
-    private int maxRetries;
-
-    @Value("${spring.ai.embedding.retry-delay:1000}")
-    private long retryDelay;
-
     /**
-     * 生成文本向量嵌入 - 带重试机制
-     * 
-     * @param text 要嵌入的文本
-     * @return 向量嵌入
+     * RAG Prompt 模板：上下文在前、问题在后
      */
-    private float[] generateEmbedding(String text) {
-        int retries = 0;
-
-        while (retries < maxRetries) {
-            try {
-                String url = embeddingBaseUrl + "/api/embeddings";
+    private static final String RAG_PROMPT_TEMPLATE = """
+            基于以下上下文信息回答问题。如果上下文中没有相关信息，请说明你不知道，不要编造答案。
 
-                // 构建请求体
-                Map<String, Object> requestBody = Map.of("model", embeddingModel, "prompt", text);
+            上下文信息：
+            %s
+            用户问题：%s
 
-                // 发送请求
-                var response = restTemplate.postForObject(url, requestBody, Map.class);
+            请基于上下文信息回答用户问题，回答要简洁明了，直接针对问题：
+            """;
 
-                if (response != null && response.containsKey("embedding")) {
-                    List<Double> embeddingList = (List<Double>) response.get("embedding");
-                    float[] embedding = new float[embeddingList.size()];
-                    for (int i = 0; i < embeddingList.size(); i++) {
-                        embedding[i] = embeddingList.get(i).floatValue();
-                    }
-                    return embedding;
-                } else {
-                    throw new RuntimeException("嵌入生成失败，响应格式错误");
-                }
-            } catch (Exception e) {
-                retries++;
-                log.warn("生成嵌入失败，正在重试 ({}/{})...", retries, maxRetries, e);
+    private static final int TEMPLATE_TOKENS = TokenEstimator.estimate(String.format(RAG_PROMPT_TEMPLATE, "", ""));
 
-                if (retries >= maxRetries) {
-                    log.error("生成嵌入失败，已达到最大重试次数", e);
-                    throw new RuntimeException("嵌入生成失败: " + e.getMessage(), e);
-                }
+    /**
+     * 每个文档片段标题与分隔符的 token 开销
+     */
+    private static final int CHUNK_HEADER_TOKENS = TokenEstimator.estimate("【文档片段 00】");
 
-                // 等待重试延迟
-                try {
-                    Thread.sleep(retryDelay * retries); // 指数退避
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException("嵌入生成被中断", ie);
-                }
-            }
-        }
+    /**
+     * 模型上下文窗口（与 Ollama num_ctx 一致）
+     */
+    @Value("${spring.ai.ollama.chat.options.num-ctx:4096}")
+    private int contextWindow;
 
-        throw new RuntimeException("生成嵌入失败，未执行任何重试");
-    }
+    /**
+     * 请求未指定 maxTokens 时为回复预留的 token 数
+     */
+    @Value("${spring.ai.ollama.chat.options.num-predict:2000}")
+    private int defaultMaxTokens;
 
-    @Value("${spring.ai.rag.max-prompt-length:4000}")
-    private int maxPromptLength;
+    /**
+     * 上下文 token 预算上限（0 表示只受上下文窗口限制），上下文越短模型预填充越快
+     */
+    @Value("${spring.ai.rag.prompt.max-context-tokens:0}")
+    private int maxContextTokens;
 
     @Override
-    public String buildRAGPrompt(String userMessage, List<DocumentChunk> contextChunks) {
+    public String buildRAGPrompt(String userMessage, List<DocumentChunk> contextChunks, Integer maxTokens) {
         if (contextChunks == null || contextChunks.isEmpty()) {
             log.warn("没有检索到相关文档，使用普通对话模式");
             return userMessage;
         }
 
-        // 1. 计算基础提示长度
-        String basePrompt = String.format("""
-                基于以下上下文信息回答问题。如果上下文中没有相关信息，请说明你不知道，不要编造答案。
-
-                上下文信息：
-                %s
-
-                用户问题：%s
-
-                请基于上下文信息回答用户问题：
-                """, "", userMessage);
+        // 1. 上下文预算 = 上下文窗口 - 回复预留 - 模板 - 用户问题
+        int reserved = maxTokens != null && maxTokens > 0 ? maxTokens : defaultMaxTokens;
+        int budget = contextWindow - reserved - TEMPLATE_TOKENS - TokenEstimator.estimate(userMessage);
+        if (maxContextTokens > 0) {
+            budget = Math.min(budget, maxContextTokens);
+        }
+        if (budget <= 0) {
+            log.warn("上下文 token 预算不足（窗口 {}，回复预留 {}），使用普通对话模式", contextWindow, reserved);
+            return userMessage;
+        }
 
-        int baseLength = basePrompt.length();
-        int remainingLength = maxPromptLength - baseLength;
+        // 2. 在预算内按分数装箱，保持检索排名顺序
+        List<DocumentChunk> packed = ContextPacker.pack(contextChunks, budget, CHUNK_HEADER_TOKENS);
+        if (packed.isEmpty()) {
+            log.warn("所有文档块均超过上下文预算 {} tokens，使用普通对话模式", budget);
+            return userMessage;
+        }
 
-        // 2. 智能选择最相关的上下文，确保不超过最大长度
         StringBuilder context = new StringBuilder();
-        int totalContextLength = 0;
-
-        for (int i = 0; i < contextChunks.size(); i++) {
-            DocumentChunk chunk = contextChunks.get(i);
-            String chunkText = chunk.getContent();
-
-            // 计算当前块添加后的总长度
-            int chunkHeaderLength = String.format("【文档片段 %d】\n", i + 1).length();
-            int chunkTotalLength = chunkHeaderLength + chunkText.length() + 2; // +2 是换行符
-
-            // 如果添加当前块会超过最大长度，则停止
-            if (totalContextLength + chunkTotalLength > remainingLength) {
-                log.info("上下文长度超过限制，已添加 {} 个文档块，剩余 {} 字符", i, remainingLength - totalContextLength);
-                break;
-            }
-
-            // 添加文档块到上下文
+        int usedTokens = 0;
+        for (int i = 0; i < packed.size(); i++) {
+            DocumentChunk chunk = packed.get(i);
             context.append("【文档片段 ").append(i + 1).append("】\n");
-            context.append(chunkText).append("\n\n");
-            totalContextLength += chunkTotalLength;
+            context.append(chunk.getContent()).append("\n\n");
+            usedTokens += ContextPacker.tokenCount(chunk) + CHUNK_HEADER_TOKENS;
         }
 
-        log.info("最终上下文长度: {}, 总提示长度: {}", totalContextLength, baseLength + totalContextLength);
+        log.info("上下文装箱：候选 {} 个文档块，选中 {} 个，约 {} / {} tokens",
+                contextChunks.size(), packed.size(), usedTokens, budget);
 
         // 3. 构建最终 RAG Prompt
-        return String.format("""
-                基于以下上下文信息回答问题。如果上下文中没有相关信息，请说明你不知道，不要编造答案。
-
-                上下文信息：
-                %s
-
-                用户问题：%s
-
-                请基于上下文信息回答用户问题，回答要简洁明了，直接针对问题：
-                """, context.toString(), userMessage);
+        return String.format(RAG_PROMPT_TEMPLATE, context, userMessage);
     }
 }
@@ -0,0 +1,225 @@
+package com.aiagent.service.impl;
+
+import com.aiagent.mapper.ResponseCacheMapper;
+import com.aiagent.model.ResponseCacheEntry;
+import com.aiagent.service.ResponseCacheService;
+import com.aiagent.util.ExpiringLruCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回复缓存服务实现
+ *
+ * 两级缓存：进程内 LRU（按条数和有效期淘汰）+ 可选的 PostgreSQL 持久层（多节点共享、重启后保留）。
+ * 语料版本：未启用持久层时为进程内计数；启用时存于 corpus_state 表，各节点定期刷新，
+ * 条目写入时记录当前版本，只有版本一致的条目才会命中。
+ * 指标：chat.response-cache.lookups（result=hit|miss，tier=memory|db|none）、
+ * chat.response-cache.saved（命中条目的原始生成耗时，即节省的生成时间）。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Service
+public class ResponseCacheServiceImpl implements ResponseCacheService {
+
+    @Autowired(required = false)
+    private ResponseCacheMapper responseCacheMapper;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${spring.ai.chat.response-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${spring.ai.chat.response-cache.max-size:1000}")
+    private int maxSize;
+
+    @Value("${spring.ai.chat.response-cache.ttl-ms:3600000}")
+    private long ttlMs;
+
+    /**
+     * 温度不为 0 的生成是否同样缓存（FAQ 类问答可以接受每次返回相同的回答）
+     */
+    @Value("${spring.ai.chat.response-cache.allow-sampled:false}")
+    private boolean allowSampled;
+
+    /**
+     * 是否启用 PostgreSQL 持久层
+     */
+    @Value("${spring.ai.chat.response-cache.persistent:false}")
+    private boolean persistent;
+
+    /**
+     * 启用持久层时，从数据库刷新语料版本的间隔（毫秒）
+     */
+    @Value("${spring.ai.chat.response-cache.generation-refresh-ms:5000}")
+    private long generationRefreshMs;
+
+    private ExpiringLruCache<String, ResponseCacheEntry> cache;
+
+    private final AtomicLong corpusGeneration = new AtomicLong();
+
+    private volatile long generationCheckedAt;
+
+    @PostConstruct
+    public void init() {
+        cache = new ExpiringLruCache<>(Math.max(1, maxSize), ttlMs);
+        if (persistent && responseCacheMapper == null) {
+            log.warn("ResponseCacheMapper 未配置，回复缓存仅使用进程内缓存");
+            persistent = false;
+        }
+    }
+
+    @Override
+    public boolean isCacheable(Double temperature) {
+        return enabled && (allowSampled || (temperature != null && temperature == 0));
+    }
+
+    @Override
+    public String key(String model, Map<String, Object> options, String prompt) {
+        String canonical = model + "\n" + new TreeMap<>(options) + "\n" + prompt;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(canonical.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    @Override
+    public ResponseCacheEntry get(String key) {
+        long generation = corpusGeneration();
+        ResponseCacheEntry entry = cache.get(key);
+        if (entry != null && entry.getCorpusGeneration() == generation) {
+            recordHit(entry, "memory");
+            return entry;
+        }
+
+        if (persistent) {
+            try {
+                entry = responseCacheMapper.selectByKey(key, generation);
+            } catch (Exception e) {
+                log.warn("查询持久化回复缓存失败: {}", e.getMessage());
+                entry = null;
+            }
+            if (entry != null) {
+                cache.put(key, entry);
+                recordHit(entry, "db");
+                return entry;
+            }
+        }
+
+        if (meterRegistry != null) {
+            meterRegistry.counter("chat.response-cache.lookups", "result", "miss", "tier", "none").increment();
+        }
+        return null;
+    }
+
+    @Override
+    public void put(String key, String model, String response, Integer tokens, long generationMs,
+            long corpusGeneration) {
+        // 检索之后语料发生了变更，回复基于旧语料，直接丢弃
+        if (corpusGeneration != corpusGeneration()) {
+            log.debug("生成期间语料已变更，回复不写入缓存");
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        ResponseCacheEntry entry = new ResponseCacheEntry();
+        entry.setCacheKey(key);
+        entry.setModel(model);
+        entry.setResponse(response);
+        entry.setTokens(tokens);
+        entry.setGenerationMs(generationMs);
+        entry.setCorpusGeneration(corpusGeneration);
+        entry.setCreatedAt(now);
+        entry.setExpiresAt(now.plus(Duration.ofMillis(ttlMs)));
+        cache.put(key, entry);
+
+        if (persistent) {
+            try {
+                responseCacheMapper.upsert(entry);
+            } catch (Exception e) {
+                log.warn("写入持久化回复缓存失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void invalidate() {
+        if (persistent) {
+            try {
+                responseCacheMapper.incrementCorpusGeneration();
+                refreshGeneration();
+            } catch (Exception e) {
+                log.warn("更新语料版本失败: {}", e.getMessage());
+            }
+        } else {
+            corpusGeneration.incrementAndGet();
+        }
+        cache.clear();
+        log.info("语料已变更，回复缓存失效，当前语料版本: {}", corpusGeneration.get());
+    }
+
+    /**
+     * 定期清理持久层中过期或属于旧语料版本的条目
+     */
+    @Scheduled(fixedDelayString = "${spring.ai.chat.response-cache.cleanup-interval:600000}")
+    public void cleanup() {
+        cache.evictExpired();
+        if (persistent) {
+            try {
+                int deleted = responseCacheMapper.deleteStale(corpusGeneration());
+                if (deleted > 0) {
+                    log.debug("清理持久化回复缓存 {} 条", deleted);
+                }
+            } catch (Exception e) {
+                log.warn("清理持久化回复缓存失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public long corpusGeneration() {
+        if (persistent && System.currentTimeMillis() - generationCheckedAt > generationRefreshMs) {
+            try {
+                refreshGeneration();
+            } catch (Exception e) {
+                log.warn("刷新语料版本失败: {}", e.getMessage());
+            }
+        }
+        return corpusGeneration.get();
+    }
+
+    private void refreshGeneration() {
+        Long generation = responseCacheMapper.selectCorpusGeneration();
+        corpusGeneration.set(generation != null ? generation : 0);
+        generationCheckedAt = System.currentTimeMillis();
+    }
+
+    private void recordHit(ResponseCacheEntry entry, String tier) {
+        if (meterRegistry != null) {
+            meterRegistry.counter("chat.response-cache.lookups", "result", "hit", "tier", tier).increment();
+            if (entry.getGenerationMs() != null) {
+                meterRegistry.timer("chat.response-cache.saved")
+                        .record(entry.getGenerationMs(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
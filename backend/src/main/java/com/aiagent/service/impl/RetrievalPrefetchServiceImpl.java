@@ -0,0 +1,182 @@
+package com.aiagent.service.impl;
+
+import com.aiagent.dto.ChatRequest;
+import com.aiagent.dto.RetrievalFilter;
+import com.aiagent.model.DocumentChunk;
+import com.aiagent.service.ConversationRetrievalService;
+import com.aiagent.service.RAGService;
+import com.aiagent.service.RetrievalPrefetchService;
+import com.aiagent.util.ExpiringLruCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 检索预取实现
+ *
+ * 预取结果按对话缓存（每个对话只保留最新的草稿；新对话没有ID，按草稿文本缓存），有效期较短。
+ * 正式消息到达时，文本（忽略首尾空白和连续空白）与过滤条件都一致才复用；预取仍在进行中时等待其完成，
+ * 不重新发起检索。
+ * 指标：rag.prefetch.requests、rag.prefetch.lookups（result=hit/miss/failed）。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Service
+public class RetrievalPrefetchServiceImpl implements RetrievalPrefetchService {
+
+    @Autowired(required = false)
+    private RAGService ragService;
+
+    @Autowired(required = false)
+    private ConversationRetrievalService conversationRetrievalService;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${spring.ai.rag.prefetch.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 预取结果有效期（毫秒）
+     */
+    @Value("${spring.ai.rag.prefetch.ttl-ms:30000}")
+    private long ttlMillis;
+
+    @Value("${spring.ai.rag.prefetch.max-size:1000}")
+    private int maxSize;
+
+    /**
+     * 草稿少于该字符数时不预取
+     */
+    @Value("${spring.ai.rag.prefetch.min-length:6}")
+    private int minLength;
+
+    /**
+     * 正式请求等待进行中预取的最长时间（毫秒），超时后自行检索
+     */
+    @Value("${spring.ai.rag.prefetch.wait-ms:3000}")
+    private long waitMillis;
+
+    @Value("${spring.ai.rag.top-k:5}")
+    private int topK;
+
+    private ExpiringLruCache<String, Prefetch> cache;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @PostConstruct
+    public void init() {
+        cache = new ExpiringLruCache<>(Math.max(1, maxSize), ttlMillis);
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void prefetch(ChatRequest request) {
+        String text = normalize(request.getMessage());
+        if (!enabled || ragService == null || Boolean.FALSE.equals(request.getUseRAG())
+                || text.length() < minLength) {
+            return;
+        }
+
+        RetrievalFilter filter = RetrievalFilter.of(request.getCollections(), request.getDocumentIds());
+        String key = cacheKey(request.getConversationId(), text);
+        Prefetch existing = cache.get(key);
+        if (existing != null && existing.matches(text, filter)) {
+            return;
+        }
+
+        // 追问按会话上文改写后检索（只读会话状态，正式发送时才记录本轮）
+        String conversationId = request.getConversationId();
+        CompletableFuture<List<DocumentChunk>> result = CompletableFuture.supplyAsync(
+                () -> conversationRetrievalService != null
+                        ? conversationRetrievalService.retrieve(conversationId, text, topK, filter)
+                        : ragService.retrieveContext(text, topK, filter), executor);
+        cache.put(key, new Prefetch(text, filter, result));
+        if (existing != null) {
+            existing.result().cancel(true);
+        }
+        if (meterRegistry != null) {
+            meterRegistry.counter("rag.prefetch.requests").increment();
+        }
+        log.debug("开始预取检索结果，对话: {}，草稿长度: {}", request.getConversationId(), text.length());
+    }
+
+    @Override
+    public List<DocumentChunk> take(ChatRequest request) {
+        if (!enabled) {
+            return null;
+        }
+
+        String text = normalize(request.getMessage());
+        String key = cacheKey(request.getConversationId(), text);
+        Prefetch prefetch = cache.remove(key);
+        if (prefetch == null) {
+            // 新对话在草稿阶段还没有对话ID，预取按文本缓存
+            prefetch = cache.remove(cacheKey(null, text));
+        }
+        RetrievalFilter filter = RetrievalFilter.of(request.getCollections(), request.getDocumentIds());
+        if (prefetch == null || !prefetch.matches(text, filter)) {
+            record("miss");
+            return null;
+        }
+
+        try {
+            List<DocumentChunk> chunks = prefetch.result().get(waitMillis, TimeUnit.MILLISECONDS);
+            record("hit");
+            log.info("复用预取的检索结果，{} 个文档块", chunks.size());
+            return chunks;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            record("failed");
+            return null;
+        } catch (ExecutionException | TimeoutException | CancellationException e) {
+            record("failed");
+            log.debug("预取结果不可用，重新检索: {}", e.toString());
+            return null;
+        }
+    }
+
+    private void record(String result) {
+        if (meterRegistry != null) {
+            meterRegistry.counter("rag.prefetch.lookups", "result", result).increment();
+        }
+    }
+
+    /**
+     * 已有对话按对话ID缓存（新草稿覆盖旧草稿），新对话按文本缓存
+     */
+    private static String cacheKey(String conversationId, String text) {
+        return conversationId != null && !conversationId.isEmpty() ? "c:" + conversationId : "t:" + text;
+    }
+
+    private static String normalize(String message) {
+        return message == null ? "" : message.strip().replaceAll("\\s+", " ");
+    }
+
+    private record Prefetch(String text, RetrievalFilter filter, CompletableFuture<List<DocumentChunk>> result) {
+
+        boolean matches(String text, RetrievalFilter filter) {
+            return this.text.equals(text) && Objects.equals(this.filter, filter);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.aiagent.service.impl;
+
+import com.aiagent.dto.ChatResponse;
+import com.aiagent.service.EmbeddingService;
+import com.aiagent.service.ResponseCacheService;
+import com.aiagent.service.SemanticCacheService;
+import com.aiagent.util.HeapVectorStorage;
+import com.aiagent.util.HnswIndex;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 语义回复缓存服务实现
+ *
+ * 问题向量保存在独立的进程内 HNSW 索引中（堆内存储，不持久化），条目按写入顺序淘汰并有固定有效期；
+ * 检索时只接受作用域一致、语料版本一致且未过期的条目。
+ * 索引只保存一个语料版本的条目：语料变更后查询直接未命中，下一次写入时丢弃旧索引重新建立。
+ * 写入时删除队首已过期的条目和超出容量的条目（墓碑标记），墓碑数超过有效条目数时重建索引。
+ * 与回复缓存不同，温度不为 0 的采样回答同样缓存（改写问法复用已有回答正是语义缓存的用途），
+ * 温度与最大 token 数计入作用域；只缓存确定性回答时关闭 spring.ai.chat.semantic-cache.allow-sampled。
+ * 指标：chat.semantic-cache.lookups（result=hit|miss）、chat.semantic-cache.size。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+@Service
+public class SemanticCacheServiceImpl implements SemanticCacheService {
+
+    @Autowired(required = false)
+    private EmbeddingService embeddingService;
+
+    @Autowired(required = false)
+    private ResponseCacheService responseCacheService;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${spring.ai.chat.semantic-cache.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 命中所需的最低余弦相似度
+     */
+    @Value("${spring.ai.chat.semantic-cache.min-similarity:0.92}")
+    private double minSimilarity;
+
+    @Value("${spring.ai.chat.semantic-cache.max-size:2000}")
+    private int maxSize;
+
+    @Value("${spring.ai.chat.semantic-cache.ttl-ms:21600000}")
+    private long ttlMs;
+
+    @Value("${spring.ai.chat.semantic-cache.allow-sampled:true}")
+    private boolean allowSampled;
+
+    @Value("${spring.ai.chat.semantic-cache.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${spring.ai.chat.semantic-cache.hnsw.ef-construction:100}")
+    private int hnswEfConstruction;
+
+    @Value("${spring.ai.chat.semantic-cache.hnsw.ef-search:64}")
+    private int hnswEfSearch;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private volatile Store store;
+
+    @PostConstruct
+    public void init() {
+        if (meterRegistry != null) {
+            meterRegistry.gauge("chat.semantic-cache.size", this, service -> {
+                Store current = service.store;
+                return current != null ? current.entries.size() : 0;
+            });
+        }
+    }
+
+    @Override
+    public boolean isCacheable(Double temperature) {
+        return enabled && embeddingService != null
+                && (allowSampled || (temperature != null && temperature == 0));
+    }
+
+    @Override
+    public CachedAnswer lookup(String question, String scope) {
+        Store current = store;
+        long generation = corpusGeneration();
+        if (!enabled || embeddingService == null || current == null) {
+            return null;
+        }
+        if (current.generation != generation) {
+            // 语料已变更，索引中的条目都已失效，不必遍历
+            count(false);
+            return null;
+        }
+        float[] vector;
+        try {
+            vector = embeddingService.embed(question);
+        } catch (Exception e) {
+            log.warn("语义缓存查询失败，跳过: {}", e.getMessage());
+            return null;
+        }
+        if (vector.length != current.dimension) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        List<HnswIndex.SearchResult> results = current.index.search(vector, 1, hnswEfSearch, node -> {
+            Entry entry = current.entries.get(node);
+            return entry != null && entry.valid(scope, generation, now);
+        });
+
+        Entry entry = null;
+        float similarity = 0;
+        if (!results.isEmpty() && results.get(0).score() >= minSimilarity) {
+            similarity = results.get(0).score();
+            entry = current.entries.get(results.get(0).node());
+        }
+        count(entry != null);
+        if (entry == null) {
+            return null;
+        }
+        log.info("语义缓存命中（相似度 {}）: {} -> {}", String.format("%.3f", similarity), question, entry.question());
+        return new CachedAnswer(entry.question(), entry.answer(), entry.sources(), entry.tokens(), similarity);
+    }
+
+    @Override
+    public void store(String question, String scope, String answer, List<ChatResponse.MessageSource> sources,
+                      Integer tokens, long corpusGeneration) {
+        if (!enabled || embeddingService == null || corpusGeneration != corpusGeneration()) {
+            return;
+        }
+        float[] vector = embeddingService.embed(question);
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(question, scope, answer, sources != null ? List.copyOf(sources) : List.of(),
+                tokens, corpusGeneration, now + ttlMs);
+
+        writeLock.lock();
+        try {
+            // 检索到生成结束之间语料已变更，回答基于旧语料，不写入
+            if (corpusGeneration != corpusGeneration()) {
+                log.debug("生成期间语料已变更，不写入语义缓存");
+                return;
+            }
+            Store current = store;
+            if (current == null || current.dimension != vector.length || current.generation != corpusGeneration) {
+                current = new Store(vector.length, newIndex(vector.length), corpusGeneration);
+                store = current;
+            }
+            current.put(current.index.add(vector), entry);
+
+            // 有效期固定，过期条目总在队首；超出容量时淘汰最早写入的条目
+            while (!current.order.isEmpty() && current.entries.get(current.order.peekFirst()).expiresAt() <= now) {
+                current.remove(current.order.pollFirst());
+            }
+            while (current.entries.size() > Math.max(1, maxSize)) {
+                current.remove(current.order.pollFirst());
+            }
+            if (current.index.size() - current.entries.size() > Math.max(current.entries.size(), 64)) {
+                store = rebuild(current);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 只保留有效条目重建索引（在写锁内调用）
+     */
+    private Store rebuild(Store current) {
+        long now = System.currentTimeMillis();
+        Store rebuilt = new Store(current.dimension, newIndex(current.dimension), current.generation);
+        for (Integer node : current.order) {
+            Entry entry = current.entries.get(node);
+            if (entry != null && entry.expiresAt() > now) {
+                rebuilt.put(rebuilt.index.add(current.index.vector(node)), entry);
+            }
+        }
+        log.debug("语义缓存索引重建完成，保留 {} / {} 个条目", rebuilt.entries.size(), current.index.size());
+        return rebuilt;
+    }
+
+    private void count(boolean hit) {
+        if (meterRegistry != null) {
+            meterRegistry.counter("chat.semantic-cache.lookups", "result", hit ? "hit" : "miss").increment();
+        }
+    }
+
+    private HnswIndex newIndex(int dimension) {
+        return new HnswIndex(new HeapVectorStorage(dimension), hnswM, hnswEfConstruction);
+    }
+
+    private long corpusGeneration() {
+        return responseCacheService != null ? responseCacheService.corpusGeneration() : 0;
+    }
+
+    /**
+     * 索引及其条目（重建或语料变更时整体替换），只包含 generation 版本的条目
+     */
+    private static final class Store {
+        private final int dimension;
+        private final HnswIndex index;
+        private final long generation;
+        private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+        private final Deque<Integer> order = new ArrayDeque<>();
+
+        Store(int dimension, HnswIndex index, long generation) {
+            this.dimension = dimension;
+            this.index = index;
+            this.generation = generation;
+        }
+
+        void put(int node, Entry entry) {
+            entries.put(node, entry);
+            order.addLast(node);
+        }
+
+        void remove(Integer node) {
+            if (node != null) {
+                entries.remove(node);
+                index.delete(node);
+            }
+        }
+    }
+
+    private record Entry(String question, String scope, String answer, List<ChatResponse.MessageSource> sources,
+                         Integer tokens, long generation, long expiresAt) {
+
+        boolean valid(String scope, long generation, long now) {
+            return this.generation == generation && expiresAt > now && this.scope.equals(scope);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.aiagent.util;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自适应并发限制器（AIMD）
+ *
+ * 并发上限根据观测到的单位工作量耗时（调用耗时 / 工作量，如生成每个 token 的耗时）自动调整。
+ * LLM 调用的总耗时主要取决于回复长度，直接比较总耗时会把“回答得长”误判为过载，因此按工作量归一化：
+ * - 短期平均单位耗时（EWMA）超过长期平均单位耗时的 tolerance 倍，或调用失败（超时、服务端错误）时，
+ *   上限乘以 backoff 收缩（每个平均调用耗时内最多收缩一次）
+ * - 调用正常且执行时已达到上限（说明上限在限制吞吐）时，上限加 1/limit（约每一轮调用加 1）
+ * - 没有工作量信息的调用（units 为 0）只计入平均调用耗时，不参与上限调整
+ * 超出上限的请求进入有界优先队列，priority 数值小的先执行，同优先级先到先执行。
+ * 队列已满，或按当前吞吐估算的排队时间超过调用方的最长等待时间时立即拒绝；排队超时同样拒绝。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double SHORT_ALPHA = 0.3;
+    private static final double LONG_ALPHA = 0.05;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final double tolerance;
+    private final double backoff;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(
+            Comparator.comparingInt(Waiter::priority).thenComparingLong(Waiter::sequence));
+    private double limit;
+    private int inFlight;
+    private long sequence;
+    private double shortUnitNanos;
+    private double longUnitNanos;
+    /**
+     * 平均调用耗时，用于估算排队时间和限制收缩频率
+     */
+    private double callNanos;
+    private long lastDecreaseAt;
+
+    /**
+     * @param initialLimit 初始并发上限
+     * @param minLimit 并发上限下限
+     * @param maxLimit 并发上限上限
+     * @param maxQueue 排队请求数上限
+     * @param tolerance 短期单位耗时超过长期单位耗时多少倍时收缩
+     * @param backoff 收缩系数（0-1）
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue,
+            double tolerance, double backoff) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("并发上限配置无效: min=" + minLimit + ", max=" + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = Math.max(0, maxQueue);
+        this.tolerance = Math.max(1.0, tolerance);
+        this.backoff = Math.min(Math.max(backoff, 0.1), 0.99);
+        this.limit = Math.min(Math.max(initialLimit, minLimit), maxLimit);
+        this.lastDecreaseAt = System.nanoTime();
+    }
+
+    /**
+     * 获取执行许可
+     *
+     * @param priority 优先级，数值小的先执行
+     * @param maxWaitMillis 最长排队时间（毫秒）
+     * @return 执行许可，调用结束后必须释放
+     * @throws Rejected 队列已满、预计排队时间过长或排队超时
+     */
+    public Permit acquire(int priority, long maxWaitMillis) {
+        lock.lock();
+        try {
+            if (inFlight < currentLimit() && !hasWaiterAhead(priority)) {
+                return grant();
+            }
+            if (queue.size() >= maxQueue) {
+                throw new Rejected("queue-full", "排队请求已满", estimatedWaitMillis(priority));
+            }
+            long estimated = estimatedWaitMillis(priority);
+            if (estimated > maxWaitMillis) {
+                throw new Rejected("deadline", "预计排队时间 " + estimated + "ms 超过上限", estimated);
+            }
+
+            Waiter waiter = new Waiter(priority, sequence++, lock.newCondition());
+            queue.add(waiter);
+            long remaining = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+            try {
+                while (!waiter.granted) {
+                    if (remaining <= 0) {
+                        queue.remove(waiter);
+                        throw new Rejected("timeout", "排队超时", estimatedWaitMillis(priority));
+                    }
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (waiter.granted) {
+                    inFlight--;
+                    grantWaiters();
+                } else {
+                    queue.remove(waiter);
+                }
+                throw new Rejected("interrupted", "排队被中断", 0);
+            }
+            return new Permit(System.nanoTime(), inFlight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前并发上限
+     */
+    public int limit() {
+        lock.lock();
+        try {
+            return currentLimit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 执行中的调用数
+     */
+    public int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 排队中的请求数
+     */
+    public int queued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Permit grant() {
+        inFlight++;
+        return new Permit(System.nanoTime(), inFlight);
+    }
+
+    private int currentLimit() {
+        return (int) limit;
+    }
+
+    private boolean hasWaiterAhead(int priority) {
+        Waiter head = queue.peek();
+        return head != null && head.priority <= priority;
+    }
+
+    /**
+     * 按当前吞吐（上限 / 平均调用耗时）估算排在该优先级之后需要等待的时间，尚无耗时数据时为 0
+     */
+    private long estimatedWaitMillis(int priority) {
+        if (callNanos <= 0) {
+            return 0;
+        }
+        int ahead = 1;
+        for (Waiter waiter : queue) {
+            if (waiter.priority <= priority) {
+                ahead++;
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis((long) (ahead * callNanos / Math.max(1, currentLimit())));
+    }
+
+    private void release(Permit permit, Boolean success, int units) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (success != null) {
+                update(System.nanoTime() - permit.startNanos, units, success, permit.inFlightAtStart);
+            }
+            grantWaiters();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void update(long rttNanos, int units, boolean success, int inFlightAtStart) {
+        long now = System.nanoTime();
+        boolean canDecrease = now - lastDecreaseAt > callNanos;
+        if (!success) {
+            if (canDecrease) {
+                decrease(now);
+            }
+            return;
+        }
+
+        callNanos = ewma(callNanos, rttNanos, LONG_ALPHA);
+        if (units <= 0) {
+            return;
+        }
+        double unitNanos = (double) rttNanos / units;
+        shortUnitNanos = ewma(shortUnitNanos, unitNanos, SHORT_ALPHA);
+        longUnitNanos = ewma(longUnitNanos, unitNanos, LONG_ALPHA);
+        if (shortUnitNanos > longUnitNanos * tolerance) {
+            if (canDecrease) {
+                decrease(now);
+            }
+        } else if (inFlightAtStart >= currentLimit()) {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    private static double ewma(double average, double sample, double alpha) {
+        return average == 0 ? sample : average + alpha * (sample - average);
+    }
+
+    private void decrease(long now) {
+        limit = Math.max(minLimit, limit * backoff);
+        lastDecreaseAt = now;
+    }
+
+    private void grantWaiters() {
+        while (inFlight < currentLimit() && !queue.isEmpty()) {
+            Waiter waiter = queue.poll();
+            waiter.granted = true;
+            inFlight++;
+            waiter.condition.signal();
+        }
+    }
+
+    /**
+     * 执行许可：调用结束后以 {@link #complete(int)}、{@link #fail()} 或 {@link #cancel()} 之一释放（只能释放一次）
+     */
+    public final class Permit {
+        private final long startNanos;
+        private final int inFlightAtStart;
+        private boolean released;
+
+        private Permit(long startNanos, int inFlightAtStart) {
+            this.startNanos = startNanos;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        /**
+         * 调用成功，单位工作量耗时计入并发上限调整
+         *
+         * @param units 本次调用的工作量（如生成的 token 数），为 0 时只计入平均调用耗时
+         */
+        public void complete(int units) {
+            release(true, units);
+        }
+
+        /**
+         * 调用失败（超时、服务端错误），视为过载信号
+         */
+        public void fail() {
+            release(false, 0);
+        }
+
+        /**
+         * 调用被取消（如客户端断开），不计入并发上限调整
+         */
+        public void cancel() {
+            release(null, 0);
+        }
+
+        private void release(Boolean success, int units) {
+            if (released) {
+                return;
+            }
+            released = true;
+            AdaptiveConcurrencyLimiter.this.release(this, success, units);
+        }
+    }
+
+    /**
+     * 请求被拒绝
+     */
+    public static class Rejected extends RejectedExecutionException {
+        private static final long serialVersionUID = 1L;
+
+        private final String reason;
+        private final long retryAfterMillis;
+
+        public Rejected(String reason, String message, long retryAfterMillis) {
+            super(message);
+            this.reason = reason;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        /**
+         * 拒绝原因：queue-full、deadline、timeout、interrupted
+         */
+        public String reason() {
+            return reason;
+        }
+
+        /**
+         * 建议的重试等待时间（毫秒）
+         */
+        public long retryAfterMillis() {
+            return retryAfterMillis;
+        }
+    }
+
+    private static final class Waiter {
+        private final int priority;
+        private final long sequence;
+        private final Condition condition;
+        private boolean granted;
+
+        Waiter(int priority, long sequence, Condition condition) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+
+        int priority() {
+            return priority;
+        }
+
+        long sequence() {
+            return sequence;
+        }
+    }
+}
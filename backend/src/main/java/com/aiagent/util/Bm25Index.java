@@ -0,0 +1,516 @@
+package com.aiagent.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 进程内 BM25 倒排索引
+ *
+ * 倒排表按词项存放在 byte[] 中，每条记录为 (文档编号差值, 词频) 两个 varint，
+ * 文档编号按写入顺序递增分配，因此差值恒为正且通常只占 1~2 字节；不使用任何装箱集合。
+ *
+ * 检索采用逐词项累加（term-at-a-time）：取自共享池的稀疏累加器只清理被命中过的文档，
+ * 词项按 idf 从高到低处理，文档频率过高的词项（如常见汉字组合）只给已命中的文档加分，
+ * 不再引入新的候选，从而控制累加器规模。
+ *
+ * 并发模型与 {@link HnswIndex} 一致：检索持有读锁，写入、删除、压缩持有写锁。
+ * 删除采用墓碑标记：删除时立即扣减文档频率和总长度，倒排表中的失效记录在 {@link #compact()} 时清理。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public class Bm25Index {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int INITIAL_POSTING_BYTES = 8;
+
+    /**
+     * 文档频率超过有效文档数该比例的词项，只为已有候选加分
+     */
+    private static final double HIGH_DF_RATIO = 0.1;
+
+    private final float k1;
+    private final float b;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScratchPool<Accumulator> accumulators = new ScratchPool<>(Accumulator::new);
+
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private byte[][] postings = new byte[INITIAL_CAPACITY][];
+    private int[] postingLengths = new int[INITIAL_CAPACITY];
+    private int[] lastDocs = new int[INITIAL_CAPACITY];
+    private int[] docFreqs = new int[INITIAL_CAPACITY];
+    private int termCount;
+
+    private int[] docLengths = new int[INITIAL_CAPACITY];
+    /**
+     * 文档包含的词项编号（去重），删除时据此扣减文档频率；已删除文档为 null
+     */
+    private int[][] docTerms = new int[INITIAL_CAPACITY][];
+    private int docCount;
+    private final BitSet deleted = new BitSet();
+    /**
+     * 已删除的文档数（墓碑不复用，压缩后不变）
+     */
+    private int deletedCount;
+    /**
+     * 倒排表中仍有记录、尚未压缩清理的已删除文档数
+     */
+    private int staleCount;
+    private long totalLength;
+
+    /**
+     * 创建空索引
+     *
+     * @param k1 词频饱和参数（通常 1.2）
+     * @param b 文档长度归一化参数（通常 0.75）
+     */
+    public Bm25Index(float k1, float b) {
+        if (k1 < 0 || b < 0 || b > 1) {
+            throw new IllegalArgumentException("BM25 参数不合法: k1=" + k1 + ", b=" + b);
+        }
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    /**
+     * 写入文档
+     *
+     * @param tokens 文档词项（保留重复，用于统计词频）
+     * @return 文档编号
+     */
+    public int add(List<String> tokens) {
+        // 在锁外统计词频
+        Map<String, int[]> frequencies = new HashMap<>();
+        for (String token : tokens) {
+            frequencies.computeIfAbsent(token, t -> new int[1])[0]++;
+        }
+
+        lock.writeLock().lock();
+        try {
+            int doc = docCount;
+            if (doc >= docLengths.length) {
+                docLengths = Arrays.copyOf(docLengths, docLengths.length * 2);
+                docTerms = Arrays.copyOf(docTerms, docTerms.length * 2);
+            }
+            docLengths[doc] = tokens.size();
+            docCount++;
+            totalLength += tokens.size();
+
+            int[] terms = new int[frequencies.size()];
+            int i = 0;
+            for (Map.Entry<String, int[]> entry : frequencies.entrySet()) {
+                int term = termId(entry.getKey());
+                append(term, doc - lastDocs[term], entry.getValue()[0]);
+                lastDocs[term] = doc;
+                docFreqs[term]++;
+                terms[i++] = term;
+            }
+            docTerms[doc] = terms;
+            return doc;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除文档（墓碑标记）
+     *
+     * @param doc 文档编号
+     */
+    public void delete(int doc) {
+        lock.writeLock().lock();
+        try {
+            if (doc < 0 || doc >= docCount || deleted.get(doc)) {
+                return;
+            }
+            deleted.set(doc);
+            deletedCount++;
+            staleCount++;
+            totalLength -= docLengths[doc];
+            for (int term : docTerms[doc]) {
+                docFreqs[term]--;
+            }
+            docTerms[doc] = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 检索
+     *
+     * @param queryTokens 查询词项
+     * @param k 返回数量
+     * @param filter 文档过滤条件（为 null 时不过滤）
+     * @return 按 BM25 分数降序排列的结果
+     */
+    public List<SearchResult> search(List<String> queryTokens, int k, IntPredicate filter) {
+        if (k <= 0 || queryTokens.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        lock.readLock().lock();
+        try {
+            int liveCount = docCount - deletedCount;
+            if (liveCount <= 0) {
+                return new ArrayList<>();
+            }
+
+            // 查询词项去重，按 idf 从高到低处理
+            int[] terms = new int[queryTokens.size()];
+            int[] queryFreqs = new int[queryTokens.size()];
+            int distinct = 0;
+            for (String token : queryTokens) {
+                Integer term = termIds.get(token);
+                if (term == null || docFreqs[term] == 0) {
+                    continue;
+                }
+                int existing = indexOf(terms, distinct, term);
+                if (existing >= 0) {
+                    queryFreqs[existing]++;
+                } else {
+                    terms[distinct] = term;
+                    queryFreqs[distinct++] = 1;
+                }
+            }
+            if (distinct == 0) {
+                return new ArrayList<>();
+            }
+            sortByDocFreq(terms, queryFreqs, distinct);
+
+            float avgLength = (float) totalLength / liveCount;
+            float lengthBase = k1 * (1 - b);
+            float lengthScale = avgLength > 0 ? k1 * b / avgLength : 0f;
+            int highDf = (int) Math.max(1, liveCount * HIGH_DF_RATIO);
+
+            Accumulator acc = accumulators.acquire();
+            acc.ensureCapacity(docCount);
+            try {
+                for (int t = 0; t < distinct; t++) {
+                    int term = terms[t];
+                    float weight = idf(docFreqs[term], liveCount) * queryFreqs[t];
+                    boolean addCandidates = t == 0 || docFreqs[term] <= highDf;
+                    scoreTerm(term, weight, lengthBase, lengthScale, addCandidates, filter, acc);
+                }
+                return acc.topK(k);
+            } finally {
+                acc.reset();
+                accumulators.release(acc);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 清理倒排表中已删除文档的记录（文档频率在删除时已扣减，这里只回收倒排表空间）
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            if (staleCount == 0) {
+                return;
+            }
+            for (int term = 0; term < termCount; term++) {
+                byte[] data = postings[term];
+                int length = postingLengths[term];
+                byte[] rewritten = new byte[Math.max(INITIAL_POSTING_BYTES, length)];
+                int out = 0;
+                int doc = 0;
+                int last = 0;
+                int df = 0;
+                int pos = 0;
+                while (pos < length) {
+                    int delta = 0;
+                    int shift = 0;
+                    int value;
+                    do {
+                        value = data[pos++];
+                        delta |= (value & 0x7F) << shift;
+                        shift += 7;
+                    } while ((value & 0x80) != 0);
+                    int tf = 0;
+                    shift = 0;
+                    do {
+                        value = data[pos++];
+                        tf |= (value & 0x7F) << shift;
+                        shift += 7;
+                    } while ((value & 0x80) != 0);
+                    doc += delta;
+
+                    if (!deleted.get(doc)) {
+                        out = writeVarint(rewritten, out, doc - last);
+                        out = writeVarint(rewritten, out, tf);
+                        last = doc;
+                        df++;
+                    }
+                }
+                postings[term] = Arrays.copyOf(rewritten, Math.max(INITIAL_POSTING_BYTES, out));
+                postingLengths[term] = out;
+                docFreqs[term] = df;
+                // 差值基准保持为最后一条有效记录，后续追加的文档编号仍然递增
+                lastDocs[term] = last;
+            }
+            staleCount = 0;
+            // 墓碑保留：文档编号不复用，被删除的编号不会再出现在倒排表中，deletedCount 仍计入有效文档数
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 已分配的文档编号数量（包括已删除）
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 有效文档数量
+     */
+    public int liveCount() {
+        lock.readLock().lock();
+        try {
+            return docCount - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 倒排表中尚未清理的已删除文档占比
+     */
+    public double deletedRatio() {
+        lock.readLock().lock();
+        try {
+            return docCount == 0 ? 0 : (double) staleCount / docCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 词项数量
+     */
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return termCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void scoreTerm(int term, float weight, float lengthBase, float lengthScale, boolean addCandidates,
+            IntPredicate filter, Accumulator acc) {
+        byte[] data = postings[term];
+        int length = postingLengths[term];
+        float[] scores = acc.scores;
+        float boost = weight * (k1 + 1);
+        int doc = 0;
+        int pos = 0;
+        while (pos < length) {
+            int delta = 0;
+            int shift = 0;
+            int value;
+            do {
+                value = data[pos++];
+                delta |= (value & 0x7F) << shift;
+                shift += 7;
+            } while ((value & 0x80) != 0);
+            int tf = 0;
+            shift = 0;
+            do {
+                value = data[pos++];
+                tf |= (value & 0x7F) << shift;
+                shift += 7;
+            } while ((value & 0x80) != 0);
+            doc += delta;
+
+            float current = scores[doc];
+            if (current == 0f) {
+                if (!addCandidates || deleted.get(doc) || (filter != null && !filter.test(doc))) {
+                    continue;
+                }
+                acc.touch(doc);
+            }
+            scores[doc] = current + boost * tf / (tf + lengthBase + lengthScale * docLengths[doc]);
+        }
+    }
+
+    private int termId(String token) {
+        Integer existing = termIds.get(token);
+        if (existing != null) {
+            return existing;
+        }
+        int term = termCount++;
+        if (term >= postings.length) {
+            int capacity = postings.length * 2;
+            postings = Arrays.copyOf(postings, capacity);
+            postingLengths = Arrays.copyOf(postingLengths, capacity);
+            lastDocs = Arrays.copyOf(lastDocs, capacity);
+            docFreqs = Arrays.copyOf(docFreqs, capacity);
+        }
+        postings[term] = new byte[INITIAL_POSTING_BYTES];
+        // 首条记录的差值即文档编号本身
+        lastDocs[term] = 0;
+        termIds.put(token, term);
+        return term;
+    }
+
+    private void append(int term, int delta, int tf) {
+        byte[] data = postings[term];
+        int length = postingLengths[term];
+        // 两个 int 的 varint 最多 10 字节
+        if (length + 10 > data.length) {
+            data = Arrays.copyOf(data, Math.max(length + 10, data.length + (data.length >> 1)));
+            postings[term] = data;
+        }
+        length = writeVarint(data, length, delta);
+        postingLengths[term] = writeVarint(data, length, tf);
+    }
+
+    private static int writeVarint(byte[] data, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            data[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static float idf(int df, int liveCount) {
+        return (float) Math.log(1 + (liveCount - df + 0.5) / (df + 0.5));
+    }
+
+    private static int indexOf(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 按文档频率升序（即 idf 降序）排序，查询词项很少，插入排序即可
+     */
+    private void sortByDocFreq(int[] terms, int[] queryFreqs, int length) {
+        for (int i = 1; i < length; i++) {
+            int term = terms[i];
+            int freq = queryFreqs[i];
+            int j = i - 1;
+            while (j >= 0 && docFreqs[terms[j]] > docFreqs[term]) {
+                terms[j + 1] = terms[j];
+                queryFreqs[j + 1] = queryFreqs[j];
+                j--;
+            }
+            terms[j + 1] = term;
+            queryFreqs[j + 1] = freq;
+        }
+    }
+
+    /**
+     * 稀疏累加器：分数数组按文档编号寻址，只记录并清理被命中的位置，用完归还共享池
+     */
+    private static final class Accumulator {
+        private float[] scores = new float[INITIAL_CAPACITY];
+        private int[] touched = new int[INITIAL_CAPACITY];
+        private int touchedCount;
+
+        void ensureCapacity(int docCount) {
+            if (scores.length < docCount) {
+                scores = new float[Math.max(docCount, scores.length * 2)];
+            }
+        }
+
+        void touch(int doc) {
+            if (touchedCount == touched.length) {
+                touched = Arrays.copyOf(touched, touched.length * 2);
+            }
+            touched[touchedCount++] = doc;
+        }
+
+        /**
+         * 用数组实现的小顶堆选出前 k 个
+         */
+        List<SearchResult> topK(int k) {
+            int capacity = Math.min(k, touchedCount);
+            int[] heapDocs = new int[capacity];
+            float[] heapScores = new float[capacity];
+            int heapSize = 0;
+            for (int i = 0; i < touchedCount; i++) {
+                int doc = touched[i];
+                float score = scores[doc];
+                if (heapSize < capacity) {
+                    int pos = heapSize++;
+                    while (pos > 0) {
+                        int parent = (pos - 1) >>> 1;
+                        if (heapScores[parent] <= score) {
+                            break;
+                        }
+                        heapDocs[pos] = heapDocs[parent];
+                        heapScores[pos] = heapScores[parent];
+                        pos = parent;
+                    }
+                    heapDocs[pos] = doc;
+                    heapScores[pos] = score;
+                } else if (score > heapScores[0]) {
+                    int pos = 0;
+                    while (true) {
+                        int child = 2 * pos + 1;
+                        if (child >= heapSize) {
+                            break;
+                        }
+                        if (child + 1 < heapSize && heapScores[child + 1] < heapScores[child]) {
+                            child++;
+                        }
+                        if (heapScores[child] >= score) {
+                            break;
+                        }
+                        heapDocs[pos] = heapDocs[child];
+                        heapScores[pos] = heapScores[child];
+                        pos = child;
+                    }
+                    heapDocs[pos] = doc;
+                    heapScores[pos] = score;
+                }
+            }
+
+            SearchResult[] sorted = new SearchResult[heapSize];
+            for (int i = 0; i < heapSize; i++) {
+                sorted[i] = new SearchResult(heapDocs[i], heapScores[i]);
+            }
+            Arrays.sort(sorted, (x, y) -> Float.compare(y.score(), x.score()));
+            return new ArrayList<>(Arrays.asList(sorted));
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                scores[touched[i]] = 0f;
+            }
+            touchedCount = 0;
+        }
+    }
+
+    /**
+     * 检索结果
+     *
+     * @param doc 文档编号
+     * @param score BM25 分数
+     */
+    public record SearchResult(int doc, float score) {
+    }
+}
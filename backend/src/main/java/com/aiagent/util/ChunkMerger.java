@@ -0,0 +1,167 @@
+package com.aiagent.util;
+
+import com.aiagent.model.DocumentChunk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 相邻文档块合并
+ *
+ * 将检索命中块与其相邻块按文档、块序号拼接为连续段落：同一文档中序号连续的块合并为一段，
+ * 相邻块之间由分块重叠产生的重复文本（前一块的后缀 = 后一块的前缀）只保留一份。
+ * 段落按其中排名最高的命中块排序。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public final class ChunkMerger {
+
+    /**
+     * 重叠文本的最小长度，低于该长度视为偶然相同，不做去重
+     */
+    private static final int MIN_OVERLAP = 16;
+
+    private ChunkMerger() {
+    }
+
+    /**
+     * 合并命中块与相邻块
+     *
+     * @param hits 命中块（按排名顺序）
+     * @param neighbors 相邻块（可以包含与命中块重复的块）
+     * @return 合并后的段落，chunkIndex 为段落起始块序号，id 和 score 取自段落内排名最高的命中块
+     */
+    public static List<DocumentChunk> merge(List<DocumentChunk> hits, List<DocumentChunk> neighbors) {
+        // 文档ID -> (块序号 -> 块)
+        Map<String, TreeMap<Integer, DocumentChunk>> byDocument = new LinkedHashMap<>();
+        Map<String, Integer> hitRanks = new HashMap<>();
+        for (int rank = 0; rank < hits.size(); rank++) {
+            DocumentChunk hit = hits.get(rank);
+            if (hit.getChunkIndex() == null) {
+                continue;
+            }
+            byDocument.computeIfAbsent(hit.getDocumentId(), k -> new TreeMap<>()).put(hit.getChunkIndex(), hit);
+            hitRanks.putIfAbsent(key(hit), rank);
+        }
+        for (DocumentChunk neighbor : neighbors) {
+            TreeMap<Integer, DocumentChunk> chunks = byDocument.get(neighbor.getDocumentId());
+            if (chunks != null && neighbor.getChunkIndex() != null) {
+                chunks.putIfAbsent(neighbor.getChunkIndex(), neighbor);
+            }
+        }
+
+        List<Passage> passages = new ArrayList<>();
+        for (TreeMap<Integer, DocumentChunk> chunks : byDocument.values()) {
+            Passage current = null;
+            for (DocumentChunk chunk : chunks.values()) {
+                if (current == null || chunk.getChunkIndex() != current.lastIndex + 1) {
+                    current = new Passage(chunk);
+                    passages.add(current);
+                } else {
+                    current.append(chunk);
+                }
+                Integer rank = hitRanks.get(key(chunk));
+                if (rank != null && rank < current.bestRank) {
+                    current.bestRank = rank;
+                    current.bestHitId = chunk.getId();
+                    current.bestScore = chunk.getScore();
+                }
+            }
+        }
+
+        passages.removeIf(passage -> passage.bestHitId == null);
+        passages.sort((a, b) -> Integer.compare(a.bestRank, b.bestRank));
+
+        // 没有块序号的命中块无法扩展，按原样保留
+        List<DocumentChunk> merged = new ArrayList<>(passages.size());
+        for (Passage passage : passages) {
+            merged.add(passage.toChunk());
+        }
+        for (DocumentChunk hit : hits) {
+            if (hit.getChunkIndex() == null) {
+                merged.add(hit);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 计算 previous 的后缀与 next 的前缀的最长重叠长度（KMP 前缀函数，线性时间）
+     */
+    static int overlapLength(String previous, String next) {
+        int max = Math.min(previous.length(), next.length());
+        if (max < MIN_OVERLAP) {
+            return 0;
+        }
+        // 在 next 前缀 + 分隔符 + previous 后缀 上计算前缀函数，末尾值即为最长重叠
+        String combined = next.substring(0, max) + '\u0000' + previous.substring(previous.length() - max);
+        int[] prefix = new int[combined.length()];
+        for (int i = 1; i < combined.length(); i++) {
+            int j = prefix[i - 1];
+            while (j > 0 && combined.charAt(i) != combined.charAt(j)) {
+                j = prefix[j - 1];
+            }
+            if (combined.charAt(i) == combined.charAt(j)) {
+                j++;
+            }
+            prefix[i] = j;
+        }
+        int overlap = prefix[combined.length() - 1];
+        return overlap >= MIN_OVERLAP ? overlap : 0;
+    }
+
+    private static String key(DocumentChunk chunk) {
+        return chunk.getDocumentId() + "#" + chunk.getChunkIndex();
+    }
+
+    /**
+     * 同一文档中序号连续的一段文本
+     */
+    private static final class Passage {
+        private final DocumentChunk first;
+        private final StringBuilder content;
+        private String lastContent;
+        private int lastIndex;
+        private int bestRank = Integer.MAX_VALUE;
+        private String bestHitId;
+        private Float bestScore;
+
+        Passage(DocumentChunk chunk) {
+            this.first = chunk;
+            this.content = new StringBuilder(chunk.getContent());
+            this.lastContent = chunk.getContent();
+            this.lastIndex = chunk.getChunkIndex();
+        }
+
+        void append(DocumentChunk chunk) {
+            String text = chunk.getContent();
+            int overlap = overlapLength(lastContent, text);
+            if (overlap > 0) {
+                content.append(text, overlap, text.length());
+            } else {
+                content.append('\n').append(text);
+            }
+            lastContent = text;
+            lastIndex = chunk.getChunkIndex();
+        }
+
+        DocumentChunk toChunk() {
+            DocumentChunk chunk = new DocumentChunk();
+            chunk.setId(bestHitId);
+            chunk.setDocumentId(first.getDocumentId());
+            chunk.setCollection(first.getCollection());
+            chunk.setChunkIndex(first.getChunkIndex());
+            chunk.setContent(content.toString());
+            chunk.setTokenCount(TokenEstimator.estimate(chunk.getContent()));
+            chunk.setScore(bestScore);
+            chunk.setVectorId(first.getVectorId());
+            chunk.setCreatedAt(first.getCreatedAt());
+            return chunk;
+        }
+    }
+}
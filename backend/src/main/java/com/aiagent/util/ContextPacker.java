@@ -0,0 +1,105 @@
+package com.aiagent.util;
+
+import com.aiagent.model.DocumentChunk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prompt 上下文装箱
+ *
+ * 在 token 预算内选择文档块，使所选块的检索分数之和最大（0/1 背包）。
+ * 与“按排名依次添加、放不下即停止”相比，排名靠前的大块放不下时仍可以装入后面较小的块。
+ * 预算较大时按粒度量化容量，动态规划表大小不超过 {@link #MAX_CAPACITY_UNITS} 列；
+ * 量化时块的占用向上取整，结果不会超出预算。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public final class ContextPacker {
+
+    /**
+     * 动态规划容量维度的最大单位数
+     */
+    private static final int MAX_CAPACITY_UNITS = 2048;
+
+    /**
+     * 分数缺失或非正时的最小价值，保证此类块在预算充足时仍会被装入
+     */
+    private static final float MIN_VALUE = 1e-4f;
+
+    private ContextPacker() {
+    }
+
+    /**
+     * 选择装入预算的文档块
+     *
+     * @param chunks 候选文档块（按排名顺序），分数取 {@link DocumentChunk#getScore()}
+     * @param budget token 预算
+     * @param overheadPerChunk 每个块的额外开销（片段标题、分隔符等）
+     * @return 选中的文档块，保持原有排名顺序
+     */
+    public static List<DocumentChunk> pack(List<DocumentChunk> chunks, int budget, int overheadPerChunk) {
+        int n = chunks.size();
+        if (n == 0 || budget <= 0) {
+            return new ArrayList<>();
+        }
+
+        int unit = Math.max(1, (budget + MAX_CAPACITY_UNITS - 1) / MAX_CAPACITY_UNITS);
+        int capacity = budget / unit;
+
+        int[] weights = new int[n];
+        float[] values = new float[n];
+        long totalWeight = 0;
+        for (int i = 0; i < n; i++) {
+            int tokens = tokenCount(chunks.get(i)) + overheadPerChunk;
+            weights[i] = (tokens + unit - 1) / unit;
+            totalWeight += weights[i];
+            Float score = chunks.get(i).getScore();
+            values[i] = score != null && score > 0 ? score : MIN_VALUE;
+        }
+
+        // 全部放得下时无需求解
+        if (totalWeight <= capacity) {
+            return new ArrayList<>(chunks);
+        }
+
+        float[] best = new float[capacity + 1];
+        boolean[][] taken = new boolean[n][capacity + 1];
+        for (int i = 0; i < n; i++) {
+            int weight = weights[i];
+            for (int c = capacity; c >= weight; c--) {
+                float candidate = best[c - weight] + values[i];
+                if (candidate > best[c]) {
+                    best[c] = candidate;
+                    taken[i][c] = true;
+                }
+            }
+        }
+
+        boolean[] selected = new boolean[n];
+        int c = capacity;
+        for (int i = n - 1; i >= 0; i--) {
+            if (taken[i][c]) {
+                selected[i] = true;
+                c -= weights[i];
+            }
+        }
+
+        List<DocumentChunk> packed = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (selected[i]) {
+                packed.add(chunks.get(i));
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * 文档块的 token 数：优先使用入库时预先计算的值，缺失时现场估算
+     */
+    public static int tokenCount(DocumentChunk chunk) {
+        Integer tokenCount = chunk.getTokenCount();
+        return tokenCount != null ? tokenCount : TokenEstimator.estimate(chunk.getContent());
+    }
+}
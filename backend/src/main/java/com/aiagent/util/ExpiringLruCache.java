@@ -0,0 +1,160 @@
+package com.aiagent.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * 带过期时间的 LRU 缓存
+ *
+ * 容量满时淘汰最久未访问的条目；条目写入超过 ttl 后视为不存在（读取时惰性删除）。
+ * 所有操作持有同一把锁，适合读写都很轻量的小型缓存（查询向量、预取结果等）。
+ *
+ * @param <K> 键类型
+ * @param <V> 值类型
+ * @author ego
+ * @date 2026-10-19
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    /**
+     * @param maxSize 最大条目数
+     * @param ttlMillis 条目有效期（毫秒），小于等于 0 表示不过期
+     */
+    public ExpiringLruCache(int maxSize, long ttlMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize 必须大于 0: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > ExpiringLruCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * 读取缓存
+     *
+     * @return 未过期的值，不存在或已过期时返回 null
+     */
+    public V get(K key) {
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (isExpired(entry, System.currentTimeMillis())) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.value();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(K key, V value) {
+        lock.lock();
+        try {
+            entries.put(key, new Entry<>(value, System.currentTimeMillis()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除条目
+     *
+     * @return 被删除的值（可能已过期），不存在时返回 null
+     */
+    public V remove(K key) {
+        lock.lock();
+        try {
+            Entry<V> entry = entries.remove(key);
+            return entry != null ? entry.value() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清理所有已过期条目
+     *
+     * @return 清理的条目数
+     */
+    public int evictExpired() {
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            int evicted = 0;
+            Iterator<Entry<V>> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (isExpired(iterator.next(), now)) {
+                    iterator.remove();
+                    evicted++;
+                }
+            }
+            return evicted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 删除值满足条件的条目
+     *
+     * @return 删除的条目数
+     */
+    public int removeIf(Predicate<V> predicate) {
+        lock.lock();
+        try {
+            int removed = 0;
+            Iterator<Entry<V>> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (predicate.test(iterator.next().value())) {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return ttlMillis > 0 && now - entry.createdAt() > ttlMillis;
+    }
+
+    private record Entry<V>(V value, long createdAt) {
+    }
+}
@@ -0,0 +1,136 @@
+package com.aiagent.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 面向查询的抽取式压缩
+ *
+ * 将文本按句切分，以句子与查询的词项重叠度打分（中文 bigram + 英文单词/标识符，
+ * 与 {@link TextTokenizer} 一致），按分数从高到低保留句子直到达到目标 token 数，
+ * 保留的句子按原文顺序拼接，不连续处以省略号分隔。与查询没有任何重叠的句子不保留
+ * （分数最高的一句除外，保证结果非空）。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public final class ExtractiveCompressor {
+
+    private static final String GAP = " … ";
+
+    private ExtractiveCompressor() {
+    }
+
+    /**
+     * 压缩文本
+     *
+     * @param text 原文
+     * @param queryTokens 查询词项（{@link TextTokenizer#tokenize} 的结果）
+     * @param targetTokens 目标 token 数（按 {@link TokenEstimator} 估算）
+     * @return 压缩后的文本；无法切分出多个句子时返回原文
+     */
+    public static String compress(String text, List<String> queryTokens, int targetTokens) {
+        List<String> sentences = splitSentences(text);
+        if (sentences.size() <= 1 || queryTokens.isEmpty()) {
+            return text;
+        }
+
+        Set<String> query = new HashSet<>(queryTokens);
+        int n = sentences.size();
+        float[] scores = new float[n];
+        int[] tokens = new int[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            scores[i] = score(sentences.get(i), query);
+            tokens[i] = TokenEstimator.estimate(sentences.get(i));
+            order[i] = i;
+        }
+        // 分数相同时优先保留靠前的句子
+        Arrays.sort(order, (a, b) -> scores[a] != scores[b] ? Float.compare(scores[b], scores[a]) : a - b);
+
+        boolean[] keep = new boolean[n];
+        int kept = 0;
+        for (int rank = 0; rank < n && kept < targetTokens; rank++) {
+            int i = order[rank];
+            if (rank > 0 && scores[i] <= 0) {
+                break;
+            }
+            keep[i] = true;
+            kept += tokens[i];
+        }
+
+        StringBuilder compressed = new StringBuilder();
+        int previous = -1;
+        for (int i = 0; i < n; i++) {
+            if (!keep[i]) {
+                continue;
+            }
+            if (i != previous + 1) {
+                compressed.append(previous < 0 ? GAP.stripLeading() : GAP);
+            } else if (previous >= 0 && sentences.get(previous).charAt(sentences.get(previous).length() - 1) < 0x80) {
+                compressed.append(' ');
+            }
+            compressed.append(sentences.get(i));
+            previous = i;
+        }
+        if (previous < n - 1) {
+            compressed.append(GAP.stripTrailing());
+        }
+        return compressed.toString();
+    }
+
+    /**
+     * 按句切分：中文句末标点（。！？；）、换行，以及后接空白的英文句末标点（. ! ?）
+     * 句末标点保留在句子末尾，空白句子丢弃。
+     */
+    static List<String> splitSentences(String text) {
+        List<String> sentences = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return sentences;
+        }
+
+        int start = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            boolean end = c == '。' || c == '！' || c == '？' || c == '；' || c == '\n'
+                    || ((c == '.' || c == '!' || c == '?')
+                            && (i + 1 == length || Character.isWhitespace(text.charAt(i + 1))));
+            if (end) {
+                addSentence(text.substring(start, i + 1), sentences);
+                start = i + 1;
+            }
+        }
+        if (start < length) {
+            addSentence(text.substring(start), sentences);
+        }
+        return sentences;
+    }
+
+    private static void addSentence(String sentence, List<String> sentences) {
+        String stripped = sentence.strip();
+        if (!stripped.isEmpty()) {
+            sentences.add(stripped);
+        }
+    }
+
+    /**
+     * 句子得分：命中的不同查询词项数，按句子长度的平方根归一化（避免长句天然占优）
+     */
+    private static float score(String sentence, Set<String> query) {
+        List<String> tokens = TextTokenizer.tokenize(sentence);
+        if (tokens.isEmpty()) {
+            return 0f;
+        }
+        Set<String> matched = new HashSet<>();
+        for (String token : tokens) {
+            if (query.contains(token)) {
+                matched.add(token);
+            }
+        }
+        return matched.size() / (float) Math.sqrt(tokens.size());
+    }
+}
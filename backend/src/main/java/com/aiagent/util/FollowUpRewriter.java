@@ -0,0 +1,66 @@
+package com.aiagent.util;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 追问改写
+ *
+ * 基于规则识别依赖上文的追问（“那怎么配置它？”“and how do I configure it?”），
+ * 将其与本会话最近一次独立问题拼接成可以单独检索的查询。
+ * 只处理较短的消息：长消息通常自带完整上下文。代词（“这个”“it”）在新问题中也很常见
+ * （“这个报错怎么解决”），因此只有以承接词开头，或者消息短到不足以自带主题（maxTokens 的一半以内）时
+ * 才把代词视为指代上文。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public final class FollowUpRewriter {
+
+    /**
+     * 以承接词开头
+     */
+    private static final Pattern LEADING_CONNECTIVE = Pattern.compile(
+            "^(那|那么|那它|那这个|还有|另外|然后|以及|并且|而且|此外|同样|那如果|如果是|换成|改成)"
+                    + "|^(and|also|what about|how about|then|so|but|and if|what if|same for)\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * 指代上文的代词
+     */
+    private static final Pattern REFERENCE = Pattern.compile(
+            "(它|它们|这个|那个|这些|那些|(?<!应)该|其(?!实)|上面|上述|前面|刚才|这种|那种)"
+                    + "|\\b(it|its|this|that|these|those|they|them|the same|above|previous)\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private FollowUpRewriter() {
+    }
+
+    /**
+     * 判断是否为依赖上文的追问
+     *
+     * @param query 当前消息
+     * @param maxTokens 超过该 token 数的消息不视为追问
+     */
+    public static boolean isFollowUp(String query, int maxTokens) {
+        String text = query.strip().toLowerCase(Locale.ROOT);
+        if (text.isEmpty() || TokenEstimator.estimate(text) > maxTokens) {
+            return false;
+        }
+        if (LEADING_CONNECTIVE.matcher(text).find()) {
+            return true;
+        }
+        return TokenEstimator.estimate(text) <= maxTokens / 2 && REFERENCE.matcher(text).find();
+    }
+
+    /**
+     * 将追问与上文问题拼接为独立查询
+     *
+     * @param topic 本会话最近一次独立问题
+     * @param followUp 追问
+     * @return 改写后的查询
+     */
+    public static String rewrite(String topic, String followUp) {
+        return topic.strip() + " " + followUp.strip();
+    }
+}
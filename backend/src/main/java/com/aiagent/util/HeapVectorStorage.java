@@ -0,0 +1,76 @@
+package com.aiagent.util;
+
+import java.util.Arrays;
+
+/**
+ * 基于堆内数组的向量存储
+ *
+ * 适用于规模较小、无需持久化的索引（如语义缓存）。每个槽位一个 float 数组，按需扩容。
+ *
+ * 并发约定：写入由调用方串行化（{@link HnswIndex} 在写锁内写入），读取在读锁内进行，
+ * 锁保证了已写入槽位对读线程可见。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public class HeapVectorStorage implements VectorStorage {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final int dimension;
+    private float[][] vectors = new float[INITIAL_CAPACITY][];
+
+    /**
+     * @param dimension 向量维度
+     */
+    public HeapVectorStorage(int dimension) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("向量维度必须大于 0");
+        }
+        this.dimension = dimension;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public void write(int slot, float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配: " + vector.length + " != " + dimension);
+        }
+        if (slot >= vectors.length) {
+            vectors = Arrays.copyOf(vectors, Math.max(slot + 1, vectors.length * 2));
+        }
+        vectors[slot] = vector.clone();
+    }
+
+    @Override
+    public void read(int slot, float[] out) {
+        System.arraycopy(vector(slot), 0, out, 0, dimension);
+    }
+
+    @Override
+    public float dot(int slot, float[] query) {
+        return VectorMath.dot(vector(slot), query);
+    }
+
+    @Override
+    public void flush() {
+        // 堆内存储无需刷盘
+    }
+
+    @Override
+    public void close() {
+        vectors = new float[0][];
+    }
+
+    private float[] vector(int slot) {
+        float[] vector = slot < vectors.length ? vectors[slot] : null;
+        if (vector == null) {
+            throw new IndexOutOfBoundsException("向量槽位不存在: " + slot);
+        }
+        return vector;
+    }
+}
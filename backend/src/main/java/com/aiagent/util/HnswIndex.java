@@ -0,0 +1,589 @@
+package com.aiagent.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * HNSW（Hierarchical Navigable Small World）近似最近邻索引
+ *
+ * 使用余弦相似度：写入时对向量做 L2 归一化，检索时相似度即点积。
+ * 向量本身保存在 {@link VectorStorage} 中（通常为内存映射文件），图结构保存在堆内。
+ *
+ * 并发模型：检索持有读锁，可并发执行；插入、删除持有写锁。
+ * 删除采用墓碑标记，被删除节点仍参与图遍历（保证连通性），但不会出现在结果中。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public class HnswIndex {
+
+    private static final int SNAPSHOT_MAGIC = 0x484E5357;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final VectorStorage storage;
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScratchPool<VisitedSet> visitedSets = new ScratchPool<>(VisitedSet::new);
+
+    private Node[] nodes = new Node[INITIAL_CAPACITY];
+    private int size;
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /**
+     * 创建空索引
+     *
+     * @param storage 向量存储
+     * @param m 每层最大邻居数（第 0 层为 2m）
+     * @param efConstruction 构建时候选集大小
+     */
+    public HnswIndex(VectorStorage storage, int m, int efConstruction) {
+        if (m < 2) {
+            throw new IllegalArgumentException("HNSW 参数 m 必须大于等于 2");
+        }
+        this.storage = storage;
+        this.dimension = storage.dimension();
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1.0 / Math.log(m);
+    }
+
+    /**
+     * 插入向量
+     *
+     * @param vector 原始向量（不会被修改）
+     * @return 节点编号
+     */
+    public int add(float[] vector) {
+        float[] normalized = normalize(vector);
+        lock.writeLock().lock();
+        try {
+            int id = size;
+            int level = randomLevel();
+            ensureCapacity(id + 1);
+            storage.write(id, normalized);
+            nodes[id] = new Node(level, m, maxM0);
+            size++;
+
+            if (entryPoint < 0) {
+                entryPoint = id;
+                maxLevel = level;
+                return id;
+            }
+
+            int current = entryPoint;
+            float currentDistance = distance(normalized, current);
+            // 高层贪心下降
+            for (int layer = maxLevel; layer > level; layer--) {
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    Node node = nodes[current];
+                    int count = node.counts[layer];
+                    int[] links = node.links[layer];
+                    for (int i = 0; i < count; i++) {
+                        float d = distance(normalized, links[i]);
+                        if (d < currentDistance) {
+                            currentDistance = d;
+                            current = links[i];
+                            changed = true;
+                        }
+                    }
+                }
+            }
+
+            // 逐层建立连接
+            float[] scratch = new float[dimension];
+            for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+                List<Candidate> candidates = searchLayer(normalized, current, efConstruction, layer, null);
+                int maxLinks = layer == 0 ? maxM0 : m;
+                List<Candidate> selected = selectNeighbors(candidates, m, scratch);
+
+                Node node = nodes[id];
+                for (Candidate c : selected) {
+                    node.links[layer][node.counts[layer]++] = c.node;
+                }
+                for (Candidate c : selected) {
+                    connect(c.node, id, layer, maxLinks, scratch);
+                }
+                current = candidates.get(0).node;
+            }
+
+            if (level > maxLevel) {
+                entryPoint = id;
+                maxLevel = level;
+            }
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除节点（墓碑标记）
+     *
+     * @param id 节点编号
+     */
+    public void delete(int id) {
+        lock.writeLock().lock();
+        try {
+            if (id >= 0 && id < size && !deleted.get(id)) {
+                deleted.set(id);
+                deletedCount++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 检索最相似的 k 个节点
+     *
+     * @param query 查询向量
+     * @param k 返回数量
+     * @param ef 检索候选集大小（越大召回越高、越慢）
+     * @param filter 节点过滤条件，为 null 时不过滤
+     * @return 按相似度降序排列的结果
+     */
+    public List<SearchResult> search(float[] query, int k, int ef, IntPredicate filter) {
+        float[] normalized = normalize(query);
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0) {
+                return new ArrayList<>();
+            }
+
+            int current = entryPoint;
+            float currentDistance = distance(normalized, current);
+            for (int layer = maxLevel; layer > 0; layer--) {
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    Node node = nodes[current];
+                    int count = node.counts[layer];
+                    int[] links = node.links[layer];
+                    for (int i = 0; i < count; i++) {
+                        float d = distance(normalized, links[i]);
+                        if (d < currentDistance) {
+                            currentDistance = d;
+                            current = links[i];
+                            changed = true;
+                        }
+                    }
+                }
+            }
+
+            IntPredicate accept = filter == null ? id -> !deleted.get(id) : id -> !deleted.get(id) && filter.test(id);
+            List<Candidate> candidates = searchLayer(normalized, current, Math.max(ef, k), 0, accept);
+
+            List<SearchResult> results = new ArrayList<>(Math.min(k, candidates.size()));
+            for (Candidate c : candidates) {
+                if (results.size() >= k) {
+                    break;
+                }
+                results.add(new SearchResult(c.node, 1 - c.distance));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 节点总数（包含已删除节点）
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 已删除节点占比（删除节点仍保留在图和向量存储中，由调用方按占比决定是否重建）
+     */
+    public double deletedRatio() {
+        lock.readLock().lock();
+        try {
+            return size == 0 ? 0 : (double) deletedCount / size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 有效节点数
+     */
+    public int liveCount() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 判断节点是否已删除
+     */
+    public boolean isDeleted(int id) {
+        lock.readLock().lock();
+        try {
+            return deleted.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 读取节点向量（归一化后的值）
+     *
+     * @param id 节点编号
+     * @return 向量副本
+     */
+    public float[] vector(int id) {
+        float[] out = new float[dimension];
+        storage.read(id, out);
+        return out;
+    }
+
+    /**
+     * 写入图结构快照（先刷新向量文件，再原子替换快照文件）
+     *
+     * @param file 快照文件
+     * @throws IOException 写入失败
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        lock.readLock().lock();
+        try {
+            storage.flush();
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(dimension);
+                out.writeInt(m);
+                out.writeInt(efConstruction);
+                out.writeInt(size);
+                out.writeInt(entryPoint);
+                out.writeInt(maxLevel);
+                for (int id = 0; id < size; id++) {
+                    Node node = nodes[id];
+                    out.writeInt(node.level);
+                    for (int layer = 0; layer <= node.level; layer++) {
+                        out.writeInt(node.counts[layer]);
+                        for (int i = 0; i < node.counts[layer]; i++) {
+                            out.writeInt(node.links[layer][i]);
+                        }
+                    }
+                }
+                long[] words = deleted.toLongArray();
+                out.writeInt(words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从快照恢复索引
+     *
+     * @param file 快照文件
+     * @param storage 与快照对应的向量存储
+     * @return 恢复后的索引
+     * @throws IOException 读取失败或快照格式不匹配
+     */
+    public static HnswIndex readSnapshot(Path file, VectorStorage storage) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("不是有效的 HNSW 快照文件: " + file);
+            }
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("不支持的 HNSW 快照版本: " + version);
+            }
+            int dimension = in.readInt();
+            if (dimension != storage.dimension()) {
+                throw new IOException("快照维度 " + dimension + " 与向量存储维度 " + storage.dimension() + " 不一致");
+            }
+            int m = in.readInt();
+            int efConstruction = in.readInt();
+            HnswIndex index = new HnswIndex(storage, m, efConstruction);
+
+            int size = in.readInt();
+            index.ensureCapacity(size);
+            index.entryPoint = in.readInt();
+            index.maxLevel = in.readInt();
+            for (int id = 0; id < size; id++) {
+                int level = in.readInt();
+                Node node = new Node(level, m, index.maxM0);
+                for (int layer = 0; layer <= level; layer++) {
+                    int count = in.readInt();
+                    node.counts[layer] = count;
+                    for (int i = 0; i < count; i++) {
+                        node.links[layer][i] = in.readInt();
+                    }
+                }
+                index.nodes[id] = node;
+            }
+            index.size = size;
+
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            index.deleted.or(BitSet.valueOf(words));
+            index.deletedCount = index.deleted.cardinality();
+            return index;
+        }
+    }
+
+    /**
+     * 单层检索，返回按距离升序排列的候选
+     *
+     * @param accept 结果过滤条件；为 null 时所有节点都可以进入结果（构建阶段）
+     */
+    private List<Candidate> searchLayer(float[] query, int entry, int ef, int layer, IntPredicate accept) {
+        VisitedSet visited = visitedSets.acquire();
+        try {
+            return searchLayer(query, entry, ef, layer, accept, visited);
+        } finally {
+            visitedSets.release(visited);
+        }
+    }
+
+    private List<Candidate> searchLayer(float[] query, int entry, int ef, int layer, IntPredicate accept,
+            VisitedSet visited) {
+        visited.reset(size);
+
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(Comparator.comparingDouble(Candidate::distance));
+        PriorityQueue<Candidate> results = new PriorityQueue<>(
+                Comparator.comparingDouble(Candidate::distance).reversed());
+
+        Candidate start = new Candidate(entry, distance(query, entry));
+        visited.mark(entry);
+        candidates.add(start);
+        if (accept == null || accept.test(entry)) {
+            results.add(start);
+        }
+
+        while (!candidates.isEmpty()) {
+            Candidate closest = candidates.poll();
+            if (results.size() >= ef && closest.distance > results.peek().distance) {
+                break;
+            }
+            Node node = nodes[closest.node];
+            int count = node.counts[layer];
+            int[] links = node.links[layer];
+            for (int i = 0; i < count; i++) {
+                int neighbor = links[i];
+                if (!visited.mark(neighbor)) {
+                    continue;
+                }
+                float d = distance(query, neighbor);
+                if (results.size() < ef || d < results.peek().distance) {
+                    Candidate next = new Candidate(neighbor, d);
+                    candidates.add(next);
+                    if (accept == null || accept.test(neighbor)) {
+                        results.add(next);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble(Candidate::distance));
+        return sorted;
+    }
+
+    /**
+     * 启发式邻居选择：优先保留彼此距离较远的候选，提升图的连通性
+     */
+    private List<Candidate> selectNeighbors(List<Candidate> candidates, int maxLinks, float[] scratch) {
+        List<Candidate> selected = new ArrayList<>(maxLinks);
+        for (Candidate candidate : candidates) {
+            if (selected.size() >= maxLinks) {
+                break;
+            }
+            storage.read(candidate.node, scratch);
+            boolean keep = true;
+            for (Candidate s : selected) {
+                if (distance(scratch, s.node) < candidate.distance) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected.add(candidate);
+            }
+        }
+        // 启发式筛选过多时，用最近的候选补齐
+        if (selected.size() < maxLinks) {
+            for (Candidate candidate : candidates) {
+                if (selected.size() >= maxLinks) {
+                    break;
+                }
+                if (!selected.contains(candidate)) {
+                    selected.add(candidate);
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 建立反向连接，邻居数超限时重新筛选
+     */
+    private void connect(int from, int to, int layer, int maxLinks, float[] scratch) {
+        Node node = nodes[from];
+        if (node.counts[layer] < maxLinks) {
+            node.links[layer][node.counts[layer]++] = to;
+            return;
+        }
+
+        storage.read(from, scratch);
+        float[] base = Arrays.copyOf(scratch, dimension);
+        List<Candidate> candidates = new ArrayList<>(maxLinks + 1);
+        candidates.add(new Candidate(to, distance(base, to)));
+        for (int i = 0; i < node.counts[layer]; i++) {
+            int neighbor = node.links[layer][i];
+            candidates.add(new Candidate(neighbor, distance(base, neighbor)));
+        }
+        candidates.sort(Comparator.comparingDouble(Candidate::distance));
+        List<Candidate> selected = selectNeighbors(candidates, maxLinks, scratch);
+        node.counts[layer] = selected.size();
+        for (int i = 0; i < selected.size(); i++) {
+            node.links[layer][i] = selected.get(i).node;
+        }
+    }
+
+    private float distance(float[] query, int id) {
+        return 1 - storage.dot(id, query);
+    }
+
+    private int randomLevel() {
+        double r = ThreadLocalRandom.current().nextDouble();
+        return (int) (-Math.log(1 - r) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > nodes.length) {
+            nodes = Arrays.copyOf(nodes, Math.max(capacity, nodes.length * 2));
+        }
+    }
+
+    private float[] normalize(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配: " + vector.length + " != " + dimension);
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[dimension];
+        if (norm == 0) {
+            return normalized;
+        }
+        for (int i = 0; i < dimension; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    /**
+     * 检索结果
+     *
+     * @param node 节点编号
+     * @param score 余弦相似度
+     */
+    public record SearchResult(int node, float score) {
+    }
+
+    private record Candidate(int node, float distance) {
+    }
+
+    /**
+     * 图节点：每层一个定长邻接数组
+     */
+    private static final class Node {
+        private final int level;
+        private final int[][] links;
+        private final int[] counts;
+
+        private Node(int level, int m, int maxM0) {
+            this.level = level;
+            this.links = new int[level + 1][];
+            this.counts = new int[level + 1];
+            for (int layer = 0; layer <= level; layer++) {
+                links[layer] = new int[layer == 0 ? maxM0 : m];
+            }
+        }
+    }
+
+    /**
+     * 可复用的访问标记（取自共享池），用代数（epoch）避免每次检索清零数组
+     */
+    private static final class VisitedSet {
+        private int[] marks = new int[INITIAL_CAPACITY];
+        private int epoch;
+
+        private void reset(int capacity) {
+            if (marks.length < capacity) {
+                marks = new int[Math.max(capacity, marks.length * 2)];
+                epoch = 0;
+            }
+            epoch++;
+            if (epoch == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        /**
+         * 标记节点为已访问
+         *
+         * @return 之前未访问过返回 true
+         */
+        private boolean mark(int id) {
+            if (marks[id] == epoch) {
+                return false;
+            }
+            marks[id] = epoch;
+            return true;
+        }
+    }
+}
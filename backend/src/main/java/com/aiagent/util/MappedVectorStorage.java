@@ -0,0 +1,144 @@
+package com.aiagent.util;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 基于内存映射文件的向量存储
+ *
+ * 文件按段（segment）映射，每段容纳固定数量的向量，避免单个 MappedByteBuffer 的 2GB 上限。
+ * 向量数据常驻操作系统页缓存，不占用 JVM 堆；重启后直接重新映射即可恢复，无需重新加载。
+ *
+ * 并发约定：写入由调用方串行化（{@link HnswIndex} 在写锁内写入），
+ * 读取只使用绝对位置访问，不修改 buffer 状态，因此可以多线程并发读。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public class MappedVectorStorage implements VectorStorage {
+
+    /**
+     * 每段向量数量（768 维时每段约 48MB）
+     */
+    private static final int SLOTS_PER_SEGMENT = 16384;
+
+    private final int dimension;
+    private final int vectorBytes;
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] segments;
+    private volatile FloatBuffer[] views;
+    private final ThreadLocal<float[]> scratch;
+
+    /**
+     * 打开（或创建）向量文件
+     *
+     * @param file 向量文件路径
+     * @param dimension 向量维度
+     * @throws IOException 打开文件失败
+     */
+    public MappedVectorStorage(Path file, int dimension) throws IOException {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("向量维度必须大于 0");
+        }
+        this.dimension = dimension;
+        this.vectorBytes = dimension * Float.BYTES;
+        this.scratch = ThreadLocal.withInitial(() -> new float[dimension]);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        // 重新映射已有数据
+        long segmentBytes = (long) SLOTS_PER_SEGMENT * vectorBytes;
+        int existing = (int) ((channel.size() + segmentBytes - 1) / segmentBytes);
+        MappedByteBuffer[] mapped = new MappedByteBuffer[existing];
+        FloatBuffer[] floatViews = new FloatBuffer[existing];
+        for (int i = 0; i < existing; i++) {
+            mapped[i] = mapSegment(i);
+            floatViews[i] = mapped[i].asFloatBuffer();
+        }
+        this.segments = mapped;
+        this.views = floatViews;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public void write(int slot, float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配: " + vector.length + " != " + dimension);
+        }
+        viewFor(slot, true).put((slot % SLOTS_PER_SEGMENT) * dimension, vector);
+    }
+
+    @Override
+    public void read(int slot, float[] out) {
+        viewFor(slot, false).get((slot % SLOTS_PER_SEGMENT) * dimension, out);
+    }
+
+    @Override
+    public float dot(int slot, float[] query) {
+        // 批量拷贝到线程私有数组后再计算，可使用 SIMD 内核
+        float[] vector = scratch.get();
+        viewFor(slot, false).get((slot % SLOTS_PER_SEGMENT) * dimension, vector);
+        return VectorMath.dot(vector, query);
+    }
+
+    @Override
+    public void flush() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    /**
+     * 获取槽位所在段的 float 视图，写入时按需扩容
+     */
+    private FloatBuffer viewFor(int slot, boolean grow) {
+        int index = slot / SLOTS_PER_SEGMENT;
+        FloatBuffer[] current = views;
+        if (index < current.length) {
+            return current[index];
+        }
+        if (!grow) {
+            throw new IndexOutOfBoundsException("向量槽位不存在: " + slot);
+        }
+        try {
+            MappedByteBuffer[] expanded = Arrays.copyOf(segments, index + 1);
+            FloatBuffer[] expandedViews = Arrays.copyOf(current, index + 1);
+            for (int i = current.length; i <= index; i++) {
+                expanded[i] = mapSegment(i);
+                expandedViews[i] = expanded[i].asFloatBuffer();
+            }
+            segments = expanded;
+            views = expandedViews;
+            return expandedViews[index];
+        } catch (IOException e) {
+            throw new IllegalStateException("扩展向量文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    private MappedByteBuffer mapSegment(int index) throws IOException {
+        long segmentBytes = (long) SLOTS_PER_SEGMENT * vectorBytes;
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, index * segmentBytes, segmentBytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+}
@@ -0,0 +1,163 @@
+package com.aiagent.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 跨请求微批处理
+ *
+ * 并发提交的单条请求在分发线程中合并为一批，交给批处理函数一次完成，再把结果逐个交还给各自的调用方。
+ * 分发规则：
+ * - 没有批次在执行时（低负载），取出队列中已有的请求立即分发，不额外等待
+ * - 有批次在执行时（高负载），最多再等待 maxWait 凑满 maxBatchSize 条再分发
+ * 多个批次可以同时执行（虚拟线程），批处理函数抛出异常时该批所有请求以同一异常结束。
+ *
+ * @param <I> 单条请求类型
+ * @param <O> 单条结果类型
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+public class MicroBatcher<I, O> implements AutoCloseable {
+
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final Function<List<I>, List<O>> handler;
+    private final Consumer<Integer> batchListener;
+    private final BlockingQueue<Pending<I, O>> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    /**
+     * @param name 分发线程名称
+     * @param maxBatchSize 每批最多请求数
+     * @param maxWaitMillis 高负载时凑批的最长等待时间（毫秒）
+     * @param handler 批处理函数，返回与输入顺序一致、数量相同的结果
+     * @param batchListener 每次分发时回调批大小（用于指标），可以为 null
+     */
+    public MicroBatcher(String name, int maxBatchSize, long maxWaitMillis,
+            Function<List<I>, List<O>> handler, Consumer<Integer> batchListener) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize 必须大于 0: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        this.handler = handler;
+        this.batchListener = batchListener;
+        this.dispatcher = Thread.ofPlatform().name(name).daemon().start(this::dispatchLoop);
+    }
+
+    /**
+     * 提交单条请求
+     *
+     * @return 该请求的结果
+     */
+    public CompletableFuture<O> submit(I item) {
+        CompletableFuture<O> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new RejectedExecutionException("批处理器已关闭"));
+            return result;
+        }
+        queue.add(new Pending<>(item, result));
+        return result;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+        executor.shutdownNow();
+        List<Pending<I, O>> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (Pending<I, O> pending : remaining) {
+            pending.result().completeExceptionally(new RejectedExecutionException("批处理器已关闭"));
+        }
+    }
+
+    private void dispatchLoop() {
+        while (!closed) {
+            List<Pending<I, O>> batch = new ArrayList<>(maxBatchSize);
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatchSize - batch.size());
+                if (inFlight.get() > 0) {
+                    long deadline = System.nanoTime() + maxWaitNanos;
+                    while (batch.size() < maxBatchSize) {
+                        long remaining = deadline - System.nanoTime();
+                        Pending<I, O> next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                    }
+                }
+            } catch (InterruptedException e) {
+                for (Pending<I, O> pending : batch) {
+                    pending.result().completeExceptionally(new RejectedExecutionException("批处理器已关闭"));
+                }
+                return;
+            }
+            dispatch(batch);
+        }
+    }
+
+    private void dispatch(List<Pending<I, O>> batch) {
+        if (batchListener != null) {
+            batchListener.accept(batch.size());
+        }
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    run(batch);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            for (Pending<I, O> pending : batch) {
+                pending.result().completeExceptionally(e);
+            }
+        }
+    }
+
+    private void run(List<Pending<I, O>> batch) {
+        List<I> items = new ArrayList<>(batch.size());
+        for (Pending<I, O> pending : batch) {
+            items.add(pending.item());
+        }
+        try {
+            List<O> results = handler.apply(items);
+            if (results.size() != batch.size()) {
+                throw new IllegalStateException("批处理结果数量不匹配: " + results.size() + " != " + batch.size());
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(results.get(i));
+            }
+        } catch (RuntimeException e) {
+            log.debug("批处理失败，{} 个请求: {}", batch.size(), e.getMessage());
+            for (Pending<I, O> pending : batch) {
+                pending.result().completeExceptionally(e);
+            }
+        }
+    }
+
+    private record Pending<I, O>(I item, CompletableFuture<O> result) {
+    }
+}
@@ -0,0 +1,79 @@
+package com.aiagent.util;
+
+/**
+ * 最大边际相关性（MMR, Maximal Marginal Relevance）选择
+ *
+ * 每一轮选择 λ·相关性 − (1−λ)·与已选结果的最大相似度 最大的候选，
+ * 使结果在相关的同时尽量不重复（例如相邻重叠分块只保留一个）。
+ *
+ * 候选之间的相似度为余弦相似度：向量先归一化一次，之后每轮只需用新选中的候选
+ * 更新其余候选的最大相似度，共 O(k·n) 次点积。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public final class MmrSelector {
+
+    private MmrSelector() {
+    }
+
+    /**
+     * 选择结果
+     *
+     * @param vectors 候选向量（元素可以为 null，视为与其他候选不相似）
+     * @param relevance 候选相关性（建议归一化到 [0, 1]）
+     * @param k 选择数量
+     * @param lambda 相关性权重，1 表示只看相关性，0 表示只看多样性
+     * @return 按选择顺序排列的候选下标
+     */
+    public static int[] select(float[][] vectors, float[] relevance, int k, float lambda) {
+        int n = relevance.length;
+        if (vectors.length != n) {
+            throw new IllegalArgumentException("候选向量与相关性数量不一致");
+        }
+        int count = Math.min(k, n);
+        int[] selected = new int[count];
+        if (count == 0) {
+            return selected;
+        }
+
+        float[][] normalized = new float[n][];
+        for (int i = 0; i < n; i++) {
+            normalized[i] = vectors[i] != null ? VectorMath.normalize(vectors[i]) : null;
+        }
+
+        float[] maxSimilarity = new float[n];
+        boolean[] taken = new boolean[n];
+        for (int round = 0; round < count; round++) {
+            int best = -1;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                if (taken[i]) {
+                    continue;
+                }
+                float score = lambda * relevance[i] - (1 - lambda) * (round == 0 ? 0f : maxSimilarity[i]);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+
+            selected[round] = best;
+            taken[best] = true;
+            float[] chosen = normalized[best];
+            if (chosen == null) {
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                if (taken[i] || normalized[i] == null || normalized[i].length != chosen.length) {
+                    continue;
+                }
+                float similarity = VectorMath.dot(chosen, normalized[i]);
+                if (round == 0 || similarity > maxSimilarity[i]) {
+                    maxSimilarity[i] = similarity;
+                }
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,87 @@
+package com.aiagent.util;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自适应候选倍数
+ *
+ * 检索时取 topK * factor 个候选，截断后真正有用的候选数（高于阈值、位于拐点之前）按指数滑动平均统计：
+ * - 有用候选远少于 topK 时降低倍数，少取候选、少算重排
+ * - 候选全部有用（候选池被占满，更多相关结果可能在池外）时提高倍数
+ * 倍数限定在 [minFactor, maxFactor] 内。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public class OverFetchTuner {
+
+    /**
+     * 滑动平均的平滑系数
+     */
+    private static final double ALPHA = 0.1;
+
+    /**
+     * 候选倍数相对观测需求的余量
+     */
+    private static final double HEADROOM = 1.5;
+
+    private final double minFactor;
+    private final double maxFactor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile double factor;
+
+    /**
+     * 有用候选数 / topK 的滑动平均
+     */
+    private double usefulRatio;
+
+    public OverFetchTuner(double initialFactor, double minFactor, double maxFactor) {
+        this.minFactor = Math.max(1.0, minFactor);
+        this.maxFactor = Math.max(this.minFactor, maxFactor);
+        this.factor = clamp(initialFactor);
+        this.usefulRatio = this.factor / HEADROOM;
+    }
+
+    /**
+     * 当前应取的候选数
+     */
+    public int candidateCount(int topK) {
+        return Math.max(topK, (int) Math.ceil(topK * factor));
+    }
+
+    /**
+     * 记录一次检索的截断结果
+     *
+     * @param topK 请求的结果数
+     * @param fetched 实际取回的候选数
+     * @param useful 截断后仍保留的候选数
+     * @param requested 请求取回的候选数（取回数等于请求数且全部有用时视为候选池被占满）
+     */
+    public void observe(int topK, int fetched, int useful, int requested) {
+        if (topK <= 0) {
+            return;
+        }
+
+        double ratio = (double) useful / topK;
+        if (fetched >= requested && useful >= fetched) {
+            // 候选池被占满，真实需求至少是当前倍数的下一档
+            ratio = Math.max(ratio, factor * HEADROOM);
+        }
+
+        lock.lock();
+        try {
+            usefulRatio += ALPHA * (ratio - usefulRatio);
+            factor = clamp(usefulRatio * HEADROOM);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public double factor() {
+        return factor;
+    }
+
+    private double clamp(double value) {
+        return Math.min(maxFactor, Math.max(minFactor, value));
+    }
+}
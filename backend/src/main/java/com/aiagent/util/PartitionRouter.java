@@ -0,0 +1,95 @@
+package com.aiagent.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 文档块分区路由
+ *
+ * 分区编号在写入时确定并保存在 document_chunks.partition_no 中，每个分区有独立的部分 HNSW 索引。
+ * - hash：按文档ID哈希，数据均匀分布，同一文档的块落在同一分区
+ * - collection：按集合名称哈希，同一集合的块落在同一分区，按集合过滤时只需查询对应分区
+ *
+ * 哈希基于 {@link String#hashCode()}（语言规范保证跨 JVM 稳定），再做一次位混合改善分布。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public class PartitionRouter {
+
+    public static final String STRATEGY_HASH = "hash";
+    public static final String STRATEGY_COLLECTION = "collection";
+
+    private final int partitionCount;
+    private final String strategy;
+
+    /**
+     * @param partitionCount 分区数量（1 表示不分区）
+     * @param strategy 分区策略：hash 或 collection
+     */
+    public PartitionRouter(int partitionCount, String strategy) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("分区数量必须大于等于 1");
+        }
+        if (!STRATEGY_HASH.equalsIgnoreCase(strategy) && !STRATEGY_COLLECTION.equalsIgnoreCase(strategy)) {
+            throw new IllegalArgumentException("不支持的分区策略: " + strategy);
+        }
+        this.partitionCount = partitionCount;
+        this.strategy = strategy.toLowerCase();
+    }
+
+    public int partitionCount() {
+        return partitionCount;
+    }
+
+    public boolean isPartitioned() {
+        return partitionCount > 1;
+    }
+
+    /**
+     * 计算文档块所属分区
+     *
+     * @param documentId 文档ID
+     * @param collection 集合名称
+     */
+    public int partitionOf(String documentId, String collection) {
+        String key = STRATEGY_COLLECTION.equals(strategy) ? collection : documentId;
+        return partitionOfKey(key);
+    }
+
+    /**
+     * 根据过滤条件裁剪需要查询的分区
+     *
+     * @param collections 限定的集合（可为 null）
+     * @param documentIds 限定的文档ID（可为 null）
+     * @return 需要查询的分区编号（升序）
+     */
+    public List<Integer> prune(Collection<String> collections, Collection<String> documentIds) {
+        Collection<String> keys = STRATEGY_COLLECTION.equals(strategy) ? collections : documentIds;
+        if (keys == null || keys.isEmpty()) {
+            List<Integer> all = new ArrayList<>(partitionCount);
+            for (int i = 0; i < partitionCount; i++) {
+                all.add(i);
+            }
+            return all;
+        }
+        TreeSet<Integer> partitions = new TreeSet<>();
+        for (String key : keys) {
+            partitions.add(partitionOfKey(key));
+        }
+        return new ArrayList<>(partitions);
+    }
+
+    private int partitionOfKey(String key) {
+        if (partitionCount == 1 || key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return Math.floorMod(h, partitionCount);
+    }
+}
@@ -0,0 +1,113 @@
+package com.aiagent.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 复合查询拆分
+ *
+ * 基于规则把复合问题拆成若干子查询，原始查询始终排在第一位：
+ * - 多个问句（以 ？ ? ； ; 或换行分隔）各自作为子查询
+ * - 比较类问题（“比较 X 和 Y 的性能”“X 与 Y 的区别”“X vs Y”“compare X and Y”）拆出
+ *   “X 的性能”“Y 的性能”，连接词后面的公共后缀同时拼接到两侧
+ * 拆不出子查询时只返回原始查询。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public final class QueryDecomposer {
+
+    private static final Pattern CLAUSE_SEPARATOR = Pattern.compile("[？?；;\\n]+");
+
+    private static final Pattern COMPARE_PREFIX = Pattern.compile(
+            "^(请|帮我|请帮我)?(比较|对比|比较一下|对比一下|compare|comparing)\\s*", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern CONJUNCTION = Pattern.compile(
+            "\\s*(和|与|跟|以及|及|还是|或者|\\s+vs\\.?\\s+|\\s+versus\\s+|\\s+and\\s+|\\s+or\\s+)\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * 中文比较问题中连接词之后的公共部分，如“的区别”“之间的差异”“哪个更好”
+     */
+    private static final Pattern SHARED_SUFFIX = Pattern.compile("(的|之间|哪个|谁|有什么|有何).*$");
+
+    private static final int MIN_SUB_QUERY_LENGTH = 2;
+
+    private QueryDecomposer() {
+    }
+
+    /**
+     * 拆分查询
+     *
+     * @param query 原始查询
+     * @param maxQueries 最多返回的查询数（含原始查询）
+     * @return 去重后的查询列表，第一个为原始查询
+     */
+    public static List<String> decompose(String query, int maxQueries) {
+        Set<String> queries = new LinkedHashSet<>();
+        String original = query.strip();
+        queries.add(original);
+
+        List<String> clauses = new ArrayList<>();
+        for (String clause : CLAUSE_SEPARATOR.split(original)) {
+            if (clause.strip().length() >= MIN_SUB_QUERY_LENGTH) {
+                clauses.add(clause.strip());
+            }
+        }
+        if (clauses.size() > 1) {
+            queries.addAll(clauses);
+        }
+
+        for (String clause : clauses) {
+            splitComparison(clause, queries);
+        }
+
+        List<String> result = new ArrayList<>(queries);
+        return result.size() > maxQueries ? new ArrayList<>(result.subList(0, maxQueries)) : result;
+    }
+
+    /**
+     * 拆分比较类子句：连接词两侧各成一个子查询，右侧的公共后缀同时补到左侧
+     */
+    private static void splitComparison(String clause, Set<String> queries) {
+        String body = COMPARE_PREFIX.matcher(clause).replaceFirst("");
+        Matcher conjunction = CONJUNCTION.matcher(body);
+        if (!conjunction.find() || conjunction.start() == 0) {
+            return;
+        }
+
+        String left = body.substring(0, conjunction.start()).strip();
+        String right = body.substring(conjunction.end()).strip();
+        if (left.length() < MIN_SUB_QUERY_LENGTH || right.length() < MIN_SUB_QUERY_LENGTH) {
+            return;
+        }
+
+        Matcher suffix = SHARED_SUFFIX.matcher(right);
+        if (suffix.find() && suffix.start() > 0 && !SHARED_SUFFIX.matcher(left).find()) {
+            String shared = suffix.group();
+            String subject = right.substring(0, suffix.start()).strip();
+            if (isComparisonOnly(shared)) {
+                // “X 和 Y 的区别”：公共部分只是比较用语，子查询只保留主体
+                queries.add(left);
+                queries.add(subject);
+            } else {
+                queries.add(left + (left.charAt(left.length() - 1) < 0x80 ? " " : "") + shared);
+                queries.add(right);
+            }
+            return;
+        }
+
+        queries.add(left);
+        queries.add(right);
+    }
+
+    private static boolean isComparisonOnly(String suffix) {
+        String normalized = suffix.toLowerCase(Locale.ROOT).replaceAll("[\\s的之间是什么有何哪个谁更好优劣？?]", "");
+        return normalized.isEmpty() || normalized.matches("(区别|差异|不同|异同|对比|比较)+");
+    }
+}
@@ -0,0 +1,70 @@
+package com.aiagent.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 多路召回结果融合工具
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public final class RankFusion {
+
+    /**
+     * 融合分数字段名
+     */
+    public static final String RRF_SCORE = "rrf_score";
+
+    private RankFusion() {
+    }
+
+    /**
+     * 倒数排名融合（Reciprocal Rank Fusion）
+     *
+     * 每一路结果中排名为 r（从 1 开始）的文档块得分 1 / (k + r)，多路得分相加。
+     * 只依赖排名，不要求各路分数可比，适合融合向量相似度与关键词相关度。
+     * 同一文档块在多路中出现时合并为一行，缺失的字段（如 keyword_score）从其他路补齐。
+     *
+     * @param rankings 多路结果，每路按相关度降序排列，行中必须包含 id 字段
+     * @param k 平滑常数，通常取 60
+     * @param topK 返回前K个结果
+     * @return 按融合分数降序排列的结果，行中附带 rrf_score
+     */
+    public static List<Map<String, Object>> reciprocalRankFusion(List<List<Map<String, Object>>> rankings,
+            int k, int topK) {
+        Map<String, Map<String, Object>> merged = new LinkedHashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+
+        for (List<Map<String, Object>> ranking : rankings) {
+            if (ranking == null) {
+                continue;
+            }
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Map<String, Object> row = ranking.get(rank);
+                Object id = row.get("id");
+                if (id == null) {
+                    continue;
+                }
+                String key = id.toString();
+                Map<String, Object> target = merged.computeIfAbsent(key, x -> new HashMap<>(row));
+                row.forEach((column, value) -> {
+                    if (value != null && target.get(column) == null) {
+                        target.put(column, value);
+                    }
+                });
+                scores.merge(key, 1.0 / (k + rank + 1), Double::sum);
+            }
+        }
+
+        List<Map<String, Object>> fused = new ArrayList<>(merged.values());
+        for (Map<String, Object> row : fused) {
+            row.put(RRF_SCORE, scores.get(row.get("id").toString()));
+        }
+        fused.sort((a, b) -> Double.compare((Double) b.get(RRF_SCORE), (Double) a.get(RRF_SCORE)));
+        return fused.size() > topK ? new ArrayList<>(fused.subList(0, topK)) : fused;
+    }
+}
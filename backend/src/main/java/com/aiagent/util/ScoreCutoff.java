@@ -0,0 +1,41 @@
+package com.aiagent.util;
+
+/**
+ * 检索结果分数截断
+ *
+ * 在按分数降序排列的结果中寻找“拐点”：相邻两个结果之间的分数落差相对最高分超过 gapRatio 时，
+ * 落差之后的结果与前面的结果明显不在一个相关度层级，予以截断。存在多个落差时取最大的一个。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public final class ScoreCutoff {
+
+    private ScoreCutoff() {
+    }
+
+    /**
+     * 计算拐点之前的结果数
+     *
+     * @param scores 降序排列的分数
+     * @param gapRatio 相对落差阈值（落差 / 最高分），小于等于 0 时不截断
+     * @return 应保留的结果数（没有明显落差时为全部）
+     */
+    public static int elbow(float[] scores, float gapRatio) {
+        int n = scores.length;
+        if (n < 2 || gapRatio <= 0 || scores[0] <= 0) {
+            return n;
+        }
+
+        int cut = n;
+        float largestGap = gapRatio * scores[0];
+        for (int i = 0; i + 1 < n; i++) {
+            float gap = scores[i] - scores[i + 1];
+            if (gap >= largestGap) {
+                largestGap = gap;
+                cut = i + 1;
+            }
+        }
+        return cut;
+    }
+}
@@ -0,0 +1,63 @@
+package com.aiagent.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 可复用临时缓冲区的有界共享池
+ *
+ * 用于替代按线程缓存（ThreadLocal）的检索缓冲区：请求运行在虚拟线程上时每个请求都是新线程，
+ * ThreadLocal 每次都会新建与索引规模成正比的数组。池中最多保留 maxIdle 个空闲缓冲区，
+ * 超出的归还直接丢弃；CPU 密集的检索同时执行的数量约等于载体线程数，默认按处理器数的两倍保留。
+ *
+ * @param <T> 缓冲区类型，归还前由调用方恢复到可复用状态
+ * @author ego
+ * @date 2026-10-19
+ */
+public class ScratchPool<T> {
+
+    private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final Supplier<T> factory;
+    private final int maxIdle;
+
+    /**
+     * @param factory 池为空时新建缓冲区
+     */
+    public ScratchPool(Supplier<T> factory) {
+        this(factory, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * @param factory 池为空时新建缓冲区
+     * @param maxIdle 最多保留的空闲缓冲区数
+     */
+    public ScratchPool(Supplier<T> factory, int maxIdle) {
+        this.factory = factory;
+        this.maxIdle = Math.max(1, maxIdle);
+    }
+
+    /**
+     * 取出一个缓冲区，池为空时新建
+     */
+    public T acquire() {
+        T buffer = idle.poll();
+        if (buffer != null) {
+            idleCount.decrementAndGet();
+            return buffer;
+        }
+        return factory.get();
+    }
+
+    /**
+     * 归还缓冲区，池已满时丢弃
+     */
+    public void release(T buffer) {
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(buffer);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
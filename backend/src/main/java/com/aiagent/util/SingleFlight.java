@@ -0,0 +1,298 @@
+package com.aiagent.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 相同请求合并执行（single-flight）
+ *
+ * 同一 key 同时只执行一次：第一个调用方（leader）在自己的线程上执行任务，执行期间到达的调用方（follower）
+ * 挂到同一次执行上，先补发已发布的事件，再按顺序接收后续事件，最终得到相同的结果或异常。
+ * 执行结束即移除，不缓存结果。
+ * 发布事件时只在锁内追加事件并放入各调用方的有界队列，监听器在锁外由各调用方自己投递：
+ * follower 在自己的线程上（等待结果期间），leader 在单独的虚拟线程上，某个调用方处理慢不会拖慢生成和其他调用方。
+ * 某个调用方积压的事件超过 maxPendingEvents（处理过慢）或监听器抛出异常（如客户端断开）时只摘除该调用方，
+ * 该调用方随即以此异常结束，其余调用方不受影响；所有调用方都已摘除时，发布事件抛出
+ * CancellationException 以中止执行。
+ *
+ * @param <K> key 类型
+ * @param <E> 执行过程中发布的事件类型
+ * @param <V> 结果类型
+ * @author ego
+ * @date 2026-10-19
+ */
+public class SingleFlight<K, E, V> {
+
+    /**
+     * 被合并执行的任务
+     */
+    @FunctionalInterface
+    public interface Task<E, V> {
+        /**
+         * @param publisher 事件发布器，投递给所有挂在本次执行上的调用方
+         * @return 执行结果
+         */
+        V run(Consumer<E> publisher);
+    }
+
+    /**
+     * 执行结果
+     *
+     * @param value 结果
+     * @param leader 是否由当前调用方实际执行
+     */
+    public record Outcome<V>(V value, boolean leader) {
+    }
+
+    private final ConcurrentHashMap<K, Flight<E, V>> flights = new ConcurrentHashMap<>();
+    private final int maxPendingEvents;
+
+    public SingleFlight() {
+        this(1024);
+    }
+
+    /**
+     * @param maxPendingEvents 单个调用方最多积压的未投递事件数，超过时摘除该调用方
+     */
+    public SingleFlight(int maxPendingEvents) {
+        this.maxPendingEvents = Math.max(1, maxPendingEvents);
+    }
+
+    /**
+     * 执行任务；相同 key 的任务正在执行时挂到该次执行上，不再重复执行
+     *
+     * @param key 合并 key
+     * @param task 任务
+     * @param listener 事件监听器，可以为 null（只关心结果）
+     * @return 执行结果
+     */
+    public Outcome<V> execute(K key, Task<E, V> task, Consumer<E> listener) {
+        Flight<E, V> created = new Flight<>();
+        Flight<E, V> existing = flights.putIfAbsent(key, created);
+        Flight<E, V> flight = existing != null ? existing : created;
+        Subscriber<E, V> subscriber = flight.subscribe(listener, maxPendingEvents);
+
+        if (existing == null) {
+            // leader 的线程执行任务，事件由单独的虚拟线程投递
+            if (listener != null) {
+                Thread.ofVirtual().name("single-flight-delivery").start(subscriber::drain);
+            }
+            V value = null;
+            RuntimeException error = null;
+            try {
+                value = task.run(flight::publish);
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                flights.remove(key, flight);
+            }
+            flight.complete(value, error);
+        } else if (listener != null) {
+            subscriber.drain();
+        }
+        return new Outcome<>(subscriber.await(), existing == null);
+    }
+
+    /**
+     * 当前正在执行的任务数
+     */
+    public int inFlight() {
+        return flights.size();
+    }
+
+    private static final class Flight<E, V> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<E> events = new ArrayList<>();
+        private final List<Subscriber<E, V>> subscribers = new ArrayList<>();
+        private boolean completed;
+        private V value;
+        private RuntimeException error;
+
+        Subscriber<E, V> subscribe(Consumer<E> listener, int maxPendingEvents) {
+            lock.lock();
+            try {
+                // 已发布的事件作为补发批次，不计入积压上限
+                Subscriber<E, V> subscriber = new Subscriber<>(this, listener, List.copyOf(events), maxPendingEvents);
+                if (completed) {
+                    subscriber.finish(value, error);
+                } else {
+                    subscribers.add(subscriber);
+                }
+                return subscriber;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void publish(E event) {
+            lock.lock();
+            try {
+                events.add(event);
+                subscribers.removeIf(subscriber -> !subscriber.offer(event));
+                if (subscribers.isEmpty()) {
+                    throw new CancellationException("所有调用方均已断开");
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void detach(Subscriber<E, V> subscriber) {
+            lock.lock();
+            try {
+                subscribers.remove(subscriber);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void complete(V value, RuntimeException error) {
+            lock.lock();
+            try {
+                this.completed = true;
+                this.value = value;
+                this.error = error;
+                for (Subscriber<E, V> subscriber : subscribers) {
+                    subscriber.finish(value, error);
+                }
+                subscribers.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 调用方：事件在有界队列中等待投递，执行结束标记排在所有事件之后，保证先收到全部事件再得到结果
+     */
+    private static final class Subscriber<E, V> {
+        private static final Object END = new Object();
+
+        private final Flight<E, V> flight;
+        private final Consumer<E> listener;
+        private final List<E> backlog;
+        private final int maxPendingEvents;
+        /**
+         * 多留一个位置给结束标记，只在 Flight 的锁内写入
+         */
+        private final BlockingQueue<Object> pending;
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private volatile V value;
+        private volatile RuntimeException error;
+
+        Subscriber(Flight<E, V> flight, Consumer<E> listener, List<E> backlog, int maxPendingEvents) {
+            this.flight = flight;
+            this.listener = listener;
+            this.backlog = backlog;
+            this.maxPendingEvents = maxPendingEvents;
+            this.pending = listener != null ? new ArrayBlockingQueue<>(maxPendingEvents + 1) : null;
+        }
+
+        /**
+         * 放入事件（调用方持有 Flight 的锁）
+         *
+         * @return 积压超限或已结束时返回 false（该调用方被摘除）
+         */
+        boolean offer(E event) {
+            if (listener == null) {
+                return true;
+            }
+            if (result.isDone()) {
+                return false;
+            }
+            if (pending.size() >= maxPendingEvents) {
+                result.completeExceptionally(new IllegalStateException(
+                        "调用方处理过慢，积压事件超过 " + maxPendingEvents + " 条"));
+                pending.offer(END);
+                return false;
+            }
+            pending.offer(event);
+            return true;
+        }
+
+        /**
+         * 执行结束（调用方持有 Flight 的锁）
+         */
+        void finish(V value, RuntimeException error) {
+            this.value = value;
+            this.error = error;
+            if (listener == null) {
+                complete();
+            } else {
+                pending.offer(END);
+            }
+        }
+
+        /**
+         * 在锁外依次投递补发事件和队列中的事件，直到执行结束或本调用方被摘除
+         */
+        @SuppressWarnings("unchecked")
+        void drain() {
+            try {
+                for (E event : backlog) {
+                    if (!deliver(event)) {
+                        return;
+                    }
+                }
+                while (true) {
+                    Object item = pending.take();
+                    if (item == END) {
+                        complete();
+                        return;
+                    }
+                    if (!deliver((E) item)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(new CancellationException("事件投递被中断"));
+                flight.detach(this);
+            }
+        }
+
+        /**
+         * @return 监听器抛出异常或已被摘除时返回 false（该调用方已结束）
+         */
+        private boolean deliver(E event) {
+            if (result.isDone()) {
+                return false;
+            }
+            try {
+                listener.accept(event);
+                return true;
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                flight.detach(this);
+                return false;
+            }
+        }
+
+        private void complete() {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        }
+
+        V await() {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+    }
+}
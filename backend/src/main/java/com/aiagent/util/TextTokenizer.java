@@ -0,0 +1,166 @@
+package com.aiagent.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 检索用分词器
+ *
+ * - 中日韩文字：按相邻两字切分（bigram），单字片段保留单字
+ * - 拉丁字母与数字：按词切分并转小写；错误码、类名、订单号等含 - . _ : 的标识符保留完整词，
+ *   同时输出拆分后的片段，驼峰命名也会拆出子词，保证精确匹配和部分匹配都能命中
+ *
+ * 同一套规则同时用于建索引（document_chunks.search_tokens）和查询，保证两侧词项一致。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public final class TextTokenizer {
+
+    /**
+     * 单个词项最大长度，超出部分截断
+     */
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    private TextTokenizer() {
+    }
+
+    /**
+     * 分词
+     *
+     * @param text 原始文本
+     * @return 词项列表（保留重复，用于统计词频）
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int cp = text.codePointAt(i);
+            if (isCjk(cp)) {
+                int start = i;
+                while (i < length && isCjk(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                emitBigrams(text.substring(start, i), tokens);
+            } else if (isWordChar(cp)) {
+                int start = i;
+                while (i < length) {
+                    int c = text.codePointAt(i);
+                    if (isWordChar(c)) {
+                        i += Character.charCount(c);
+                    } else if (isJoiner(c) && i + 1 < length && isWordChar(text.codePointAt(i + 1))
+                            && !isCjk(text.codePointAt(i + 1))) {
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                emitWord(text.substring(start, i), tokens);
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 分词并以空格拼接，用于写入 search_tokens 列或构造全文检索查询
+     *
+     * @param text 原始文本
+     * @return 以空格分隔的词项
+     */
+    public static String joinTokens(String text) {
+        return String.join(" ", tokenize(text));
+    }
+
+    private static void emitBigrams(String run, List<String> tokens) {
+        int[] cps = run.codePoints().toArray();
+        if (cps.length == 1) {
+            tokens.add(new String(cps, 0, 1));
+            return;
+        }
+        for (int i = 0; i + 1 < cps.length; i++) {
+            tokens.add(new String(cps, i, 2));
+        }
+    }
+
+    private static void emitWord(String word, List<String> tokens) {
+        String lower = truncate(word.toLowerCase(Locale.ROOT));
+        tokens.add(lower);
+
+        // 含连接符的标识符拆出片段，如 ERR-1042 -> err, 1042
+        boolean compound = false;
+        for (int i = 0; i < word.length(); i++) {
+            if (isJoiner(word.charAt(i))) {
+                compound = true;
+                break;
+            }
+        }
+        String[] parts = compound ? word.split("[-._:]+") : new String[] {word};
+        for (String part : parts) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (compound) {
+                tokens.add(truncate(part.toLowerCase(Locale.ROOT)));
+            }
+            emitCamelCaseParts(part, tokens);
+        }
+    }
+
+    /**
+     * 驼峰命名拆分，如 OrderService -> order, service
+     */
+    private static void emitCamelCaseParts(String part, List<String> tokens) {
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i < part.length(); i++) {
+            char prev = part.charAt(i - 1);
+            char c = part.charAt(i);
+            boolean boundary = (Character.isLowerCase(prev) && Character.isUpperCase(c))
+                    || (Character.isLetter(prev) && Character.isDigit(c))
+                    || (Character.isDigit(prev) && Character.isLetter(c))
+                    || c == '_';
+            if (boundary) {
+                pieces.add(part.substring(start, i));
+                start = c == '_' ? i + 1 : i;
+            }
+        }
+        if (pieces.isEmpty()) {
+            return;
+        }
+        pieces.add(part.substring(start));
+        for (String piece : pieces) {
+            // 单字符子词（如 v1 中的 v）区分度太低，忽略
+            if (piece.length() > 1) {
+                tokens.add(truncate(piece.toLowerCase(Locale.ROOT)));
+            }
+        }
+    }
+
+    private static String truncate(String token) {
+        return token.length() > MAX_TOKEN_LENGTH ? token.substring(0, MAX_TOKEN_LENGTH) : token;
+    }
+
+    private static boolean isWordChar(int cp) {
+        return (Character.isLetterOrDigit(cp) || cp == '_') && !isCjk(cp);
+    }
+
+    private static boolean isJoiner(int cp) {
+        return cp == '-' || cp == '.' || cp == ':';
+    }
+
+    static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
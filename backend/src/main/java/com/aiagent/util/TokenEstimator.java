@@ -0,0 +1,56 @@
+package com.aiagent.util;
+
+/**
+ * Token 数估算
+ *
+ * 不依赖具体模型的分词器，按 BPE 分词器的常见行为保守估算：
+ * - 中日韩字符每字计 1 个 token
+ * - 连续的字母数字按每 4 个字符 1 个 token（不足 4 个计 1 个）
+ * - 其他标点符号每个计 1 个 token，空白不计
+ * 估算值通常略高于实际值，用于 Prompt 预算时不会超出模型上下文窗口。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public final class TokenEstimator {
+
+    private static final int CHARS_PER_WORD_TOKEN = 4;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * 估算文本的 token 数
+     *
+     * @param text 文本，null 视为空文本
+     * @return 估算的 token 数
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+
+        int tokens = 0;
+        int wordLength = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+
+            if (Character.isLetterOrDigit(codePoint) && !TextTokenizer.isCjk(codePoint)) {
+                wordLength++;
+                continue;
+            }
+            if (wordLength > 0) {
+                tokens += (wordLength + CHARS_PER_WORD_TOKEN - 1) / CHARS_PER_WORD_TOKEN;
+                wordLength = 0;
+            }
+            if (!Character.isWhitespace(codePoint)) {
+                tokens++;
+            }
+        }
+        if (wordLength > 0) {
+            tokens += (wordLength + CHARS_PER_WORD_TOKEN - 1) / CHARS_PER_WORD_TOKEN;
+        }
+        return tokens;
+    }
+}
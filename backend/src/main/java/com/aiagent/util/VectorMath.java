@@ -0,0 +1,138 @@
+package com.aiagent.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+
+/**
+ * 向量计算内核
+ *
+ * 启动参数包含 --add-modules jdk.incubator.vector 时使用 SIMD 实现（{@link SimdVectorKernel}），
+ * 否则退回循环展开的标量实现。两种实现在同一输入下的结果只存在浮点累加顺序带来的微小差异。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+@Slf4j
+public final class VectorMath {
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    private static final Kernel KERNEL = loadKernel();
+
+    private VectorMath() {
+    }
+
+    /**
+     * 点积
+     */
+    public static float dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("向量维度不匹配: " + a.length + " != " + b.length);
+        }
+        return KERNEL.dot(a, b);
+    }
+
+    /**
+     * 余弦相似度（任一向量为零向量时返回 0）
+     */
+    public static float cosine(float[] a, float[] b) {
+        float norms = (float) Math.sqrt((double) dot(a, a) * dot(b, b));
+        return norms == 0f ? 0f : dot(a, b) / norms;
+    }
+
+    /**
+     * L2 归一化，返回新数组（零向量原样复制）
+     */
+    public static float[] normalize(float[] vector) {
+        float norm = (float) Math.sqrt(dot(vector, vector));
+        float[] normalized = new float[vector.length];
+        if (norm == 0f) {
+            System.arraycopy(vector, 0, normalized, 0, vector.length);
+            return normalized;
+        }
+        float inverse = 1f / norm;
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * inverse;
+        }
+        return normalized;
+    }
+
+    /**
+     * 质心：各向量归一化后求平均，再归一化（使长短不同的向量权重一致）
+     *
+     * @param vectors 维度相同的向量
+     * @return 单位质心向量，输入为空时返回 null
+     */
+    public static float[] centroid(List<float[]> vectors) {
+        if (vectors.isEmpty()) {
+            return null;
+        }
+        float[] sum = new float[vectors.get(0).length];
+        for (float[] vector : vectors) {
+            if (vector.length != sum.length) {
+                throw new IllegalArgumentException("向量维度不匹配: " + vector.length + " != " + sum.length);
+            }
+            float[] normalized = normalize(vector);
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] += normalized[i];
+            }
+        }
+        return normalize(sum);
+    }
+
+    /**
+     * 当前使用的内核名称（用于日志）
+     */
+    public static String kernelName() {
+        return KERNEL instanceof SimdVectorKernel ? "simd" : "scalar";
+    }
+
+    /**
+     * 标量实现：四路展开，减少循环依赖
+     */
+    static float scalarDot(float[] a, float[] b) {
+        float s0 = 0f;
+        float s1 = 0f;
+        float s2 = 0f;
+        float s3 = 0f;
+        int i = 0;
+        int bound = a.length & ~3;
+        for (; i < bound; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * 只有在模块已加载时才加载 SIMD 实现类，避免未开启孵化模块时出现类加载错误
+     */
+    private static Kernel loadKernel() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                Kernel kernel = (Kernel) Class.forName("com.aiagent.util.SimdVectorKernel")
+                        .getDeclaredConstructor().newInstance();
+                log.info("向量计算使用 SIMD 内核");
+                return kernel;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                log.warn("SIMD 向量内核加载失败，使用标量实现: {}", e.getMessage());
+            }
+        } else {
+            log.info("未启用 {} 模块，向量计算使用标量实现", VECTOR_MODULE);
+        }
+        return VectorMath::scalarDot;
+    }
+
+    /**
+     * 点积内核
+     */
+    interface Kernel {
+        float dot(float[] a, float[] b);
+    }
+}
@@ -0,0 +1,51 @@
+package com.aiagent.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 向量存储接口 - 按槽位（slot）存取定长 float 向量
+ *
+ * 槽位编号与 {@link HnswIndex} 的节点编号一一对应。实现类需保证：
+ * 写入已完成的槽位可以被多个线程并发读取。
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public interface VectorStorage extends Closeable {
+
+    /**
+     * 向量维度
+     */
+    int dimension();
+
+    /**
+     * 写入指定槽位的向量，必要时自动扩容
+     *
+     * @param slot 槽位编号
+     * @param vector 向量（长度必须等于维度）
+     */
+    void write(int slot, float[] vector);
+
+    /**
+     * 读取指定槽位的向量
+     *
+     * @param slot 槽位编号
+     * @param out 输出数组（长度必须等于维度）
+     */
+    void read(int slot, float[] out);
+
+    /**
+     * 计算指定槽位向量与查询向量的点积（避免复制向量）
+     *
+     * @param slot 槽位编号
+     * @param query 查询向量
+     * @return 点积
+     */
+    float dot(int slot, float[] query);
+
+    /**
+     * 将已写入的数据刷到持久化介质（内存实现可以为空操作）
+     */
+    void flush() throws IOException;
+}
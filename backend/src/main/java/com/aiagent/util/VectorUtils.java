@@ -0,0 +1,56 @@
+package com.aiagent.util;
+
+/**
+ * 向量工具类
+ *
+ * @author ego
+ * @date 2026-10-19
+ */
+public final class VectorUtils {
+
+    private VectorUtils() {
+    }
+
+    /**
+     * 转换为 pgvector 文本字面量，如 [0.1,0.2,0.3]
+     *
+     * @param vector 向量
+     * @return 文本字面量
+     */
+    public static String toLiteral(float[] vector) {
+        StringBuilder sb = new StringBuilder(vector.length * 10 + 2);
+        sb.append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(vector[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * 解析 pgvector 文本字面量
+     *
+     * @param literal 文本字面量，如 [0.1,0.2,0.3]
+     * @return 向量，输入为 null 时返回 null
+     */
+    public static float[] parse(String literal) {
+        if (literal == null) {
+            return null;
+        }
+        String body = literal.trim();
+        if (body.startsWith("[") || body.startsWith("{")) {
+            body = body.substring(1, body.length() - 1);
+        }
+        if (body.isBlank()) {
+            return new float[0];
+        }
+        String[] parts = body.split(",");
+        float[] vector = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            vector[i] = Float.parseFloat(parts[i].trim());
+        }
+        return vector;
+    }
+}
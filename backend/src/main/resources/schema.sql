@@ -34,12 +34,15 @@ CREATE TABLE IF NOT EXISTS messages (
 CREATE TABLE IF NOT EXISTS documents (
     id VARCHAR(36) PRIMARY KEY,
     title VARCHAR(255) NOT NULL,
+    collection VARCHAR(64) NOT NULL DEFAULT 'default',
     file_name VARCHAR(255) NOT NULL,
     file_type VARCHAR(100),
     file_size BIGINT,
     status VARCHAR(20) NOT NULL DEFAULT 'processing',
     chunk_count INTEGER DEFAULT 0,
     error_message TEXT,
+    -- 文档级向量：所有文档块向量的质心，用于两级检索先定位文档
+    embedding VECTOR(768),
     created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     deleted_at TIMESTAMP
@@ -49,12 +52,22 @@ CREATE TABLE IF NOT EXISTS documents (
 CREATE TABLE IF NOT EXISTS document_chunks (
     id VARCHAR(36) PRIMARY KEY,
     document_id VARCHAR(36) NOT NULL,
+    collection VARCHAR(64) NOT NULL DEFAULT 'default',
+    -- 分区编号，见 spring.ai.rag.partition 配置
+    partition_no SMALLINT NOT NULL DEFAULT 0,
     chunk_index INTEGER NOT NULL,
     content TEXT NOT NULL,
+    -- 内容的估算 token 数，用于 Prompt 预算（为空时检索后现场估算）
+    token_count INTEGER,
     vector_id VARCHAR(255),
     embedding VECTOR(768),
+    -- 应用侧分词后的检索词项（中文 bigram + 英文单词/标识符），以空格分隔
+    search_tokens TEXT,
+    content_tsv TSVECTOR GENERATED ALWAYS AS (to_tsvector('simple', COALESCE(search_tokens, ''))) STORED,
     created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     deleted_at TIMESTAMP,
+    -- 变更序号：最近一次写入（插入、软删除）所在事务的事务号，由数据库分配，供进程内索引增量同步
+    change_seq BIGINT NOT NULL DEFAULT (pg_current_xact_id()::text::bigint),
     FOREIGN KEY (document_id) REFERENCES documents(id) ON DELETE CASCADE
 );
 
@@ -71,6 +84,43 @@ CREATE TABLE IF NOT EXISTS message_sources (
     FOREIGN KEY (chunk_id) REFERENCES document_chunks(id) ON DELETE CASCADE
 );
 
+-- 回复缓存（确定性生成的持久层，spring.ai.chat.response-cache.persistent 开启时使用）
+CREATE TABLE IF NOT EXISTS response_cache (
+    -- 模型、生成参数与最终 Prompt 的 SHA-256
+    cache_key CHAR(64) PRIMARY KEY,
+    model VARCHAR(100) NOT NULL,
+    response TEXT NOT NULL,
+    tokens INTEGER,
+    generation_ms BIGINT,
+    corpus_generation BIGINT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    expires_at TIMESTAMP NOT NULL
+);
+
+-- 语料版本（文档入库、删除后递增，旧版本的回复缓存失效）
+CREATE TABLE IF NOT EXISTS corpus_state (
+    id SMALLINT PRIMARY KEY,
+    generation BIGINT NOT NULL
+);
+INSERT INTO corpus_state (id, generation) VALUES (1, 0) ON CONFLICT (id) DO NOTHING;
+
+-- 已有数据库升级（新建库时以上建表语句已包含这些列）
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS search_tokens TEXT;
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS content_tsv TSVECTOR
+    GENERATED ALWAYS AS (to_tsvector('simple', COALESCE(search_tokens, ''))) STORED;
+ALTER TABLE documents ADD COLUMN IF NOT EXISTS collection VARCHAR(64) NOT NULL DEFAULT 'default';
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS collection VARCHAR(64) NOT NULL DEFAULT 'default';
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS partition_no SMALLINT NOT NULL DEFAULT 0;
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS token_count INTEGER;
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS change_seq BIGINT NOT NULL
+    DEFAULT (pg_current_xact_id()::text::bigint);
+ALTER TABLE documents ADD COLUMN IF NOT EXISTS embedding VECTOR(768);
+-- 已有文档补齐文档级向量（pgvector 的 avg 聚合；新入库文档由应用侧计算归一化质心）
+UPDATE documents d SET embedding = c.centroid
+FROM (SELECT document_id, AVG(embedding) AS centroid FROM document_chunks
+      WHERE deleted_at IS NULL AND embedding IS NOT NULL GROUP BY document_id) c
+WHERE d.id = c.document_id AND d.embedding IS NULL;
+
 -- 创建索引
 CREATE INDEX IF NOT EXISTS idx_conversations_type ON conversations(type);
 CREATE INDEX IF NOT EXISTS idx_conversations_created_at ON conversations(created_at DESC);
@@ -81,18 +131,40 @@ CREATE INDEX IF NOT EXISTS idx_messages_created_at ON messages(created_at DESC);
 CREATE INDEX IF NOT EXISTS idx_messages_deleted_at ON messages(deleted_at) WHERE deleted_at IS NULL;
 
 CREATE INDEX IF NOT EXISTS idx_documents_status ON documents(status);
+CREATE INDEX IF NOT EXISTS idx_documents_collection ON documents(collection);
 CREATE INDEX IF NOT EXISTS idx_documents_created_at ON documents(created_at DESC);
 CREATE INDEX IF NOT EXISTS idx_documents_deleted_at ON documents(deleted_at) WHERE deleted_at IS NULL;
+-- 文档级向量索引，两级检索的第一级
+CREATE INDEX IF NOT EXISTS idx_documents_embedding ON documents
+    USING hnsw (embedding vector_cosine_ops) WHERE deleted_at IS NULL;
 
-CREATE INDEX IF NOT EXISTS idx_document_chunks_document_id ON document_chunks(document_id);
+-- 旧版本的 idx_document_chunks_document_id 只包含 document_id，同名 IF NOT EXISTS 不会升级为复合索引，
+-- 因此复合索引使用新名称并删除旧索引（按位置取相邻块依赖 (document_id, chunk_index)）
+CREATE INDEX IF NOT EXISTS idx_document_chunks_document_position ON document_chunks(document_id, chunk_index);
+DROP INDEX IF EXISTS idx_document_chunks_document_id;
 CREATE INDEX IF NOT EXISTS idx_document_chunks_vector_id ON document_chunks(vector_id);
 CREATE INDEX IF NOT EXISTS idx_document_chunks_deleted_at ON document_chunks(deleted_at) WHERE deleted_at IS NULL;
 -- 向量索引，提高检索效率
 CREATE INDEX IF NOT EXISTS idx_document_chunks_embedding ON document_chunks USING hnsw (embedding vector_cosine_ops);
+-- 按集合过滤：小集合走 B-tree 精确扫描，大集合依赖 pgvector 0.8+ 的迭代扫描（hnsw.iterative_scan）
+CREATE INDEX IF NOT EXISTS idx_document_chunks_collection ON document_chunks(collection) WHERE deleted_at IS NULL;
+-- 数据量特别大的集合可以额外建立部分 HNSW 索引，过滤条件与之匹配时规划器会直接选用，例如：
+-- CREATE INDEX idx_document_chunks_embedding_manuals ON document_chunks
+--     USING hnsw (embedding vector_cosine_ops) WHERE collection = 'manuals' AND deleted_at IS NULL;
+-- 分区向量索引（idx_document_chunks_embedding_p{i}）不在这里创建：应用启动时由 PartitionIndexInitializer
+-- 按 spring.ai.rag.partition.count 生成，分区数为 1（默认）时不建立；检索模式为 partitioned 时会删除上面的全表索引。
+-- 已有数据切换分区数后，需要按新的分区规则重写 partition_no（应用侧 PartitionRouter）。
+-- 全文检索索引，用于关键词召回
+CREATE INDEX IF NOT EXISTS idx_document_chunks_content_tsv ON document_chunks USING gin (content_tsv);
+-- 变更游标索引，供进程内 HNSW / BM25 索引增量同步
+DROP INDEX IF EXISTS idx_document_chunks_changed_at;
+CREATE INDEX IF NOT EXISTS idx_document_chunks_change_seq ON document_chunks(change_seq, id);
 
 CREATE INDEX IF NOT EXISTS idx_message_sources_message_id ON message_sources(message_id);
 CREATE INDEX IF NOT EXISTS idx_message_sources_document_id ON message_sources(document_id);
 
+CREATE INDEX IF NOT EXISTS idx_response_cache_expires_at ON response_cache(expires_at);
+
 -- 创建更新时间触发器函数
 CREATE OR REPLACE FUNCTION update_updated_at_column()
 RETURNS TRIGGER AS $$
@@ -12,6 +12,9 @@ import { Send, Loader2, Bot, User } from 'lucide-react';
 import { chatApi } from '../services/api';
 import type { ChatMessage, ChatRequest } from '../types';
 
+const PREFETCH_DEBOUNCE_MS = 400;
+const PREFETCH_MIN_LENGTH = 6;
+
 export default function ChatPage() {
     const { conversationId } = useParams();
     const [messages, setMessages] = useState<ChatMessage[]>([]);
@@ -34,30 +37,38 @@ export default function ChatPage() {
         }
     }, [conversationResponse]);
 
-    // 发送消息
+    // 发送消息（流式）：先显示用户消息，回复内容随生成逐段追加
     const sendMutation = useMutation({
-        mutationFn: (request: ChatRequest) => chatApi.sendMessage(request),
-        onSuccess: (response) => {
-            if (response.success && response.data) {
-                const userMessage: ChatMessage = {
-                    id: Date.now().toString(),
-                    role: 'user',
-                    content: input,
-                    createdAt: new Date().toISOString(),
-                };
-                const aiMessage: ChatMessage = {
-                    id: response.data.messageId,
-                    role: 'assistant',
-                    content: response.data.message,
-                    sources: response.data.sources,
-                    createdAt: new Date().toISOString(),
-                };
-                setMessages((prev) => [...prev, userMessage, aiMessage]);
-                setInput('');
+        mutationFn: async (request: ChatRequest) => {
+            const createdAt = new Date().toISOString();
+            const streamingId = `streaming-${Date.now()}`;
+            setMessages((prev) => [
+                ...prev,
+                { id: Date.now().toString(), role: 'user', content: request.message, createdAt },
+                { id: streamingId, role: 'assistant', content: '', createdAt },
+            ]);
+            setInput('');
+
+            const update = (patch: (message: ChatMessage) => Partial<ChatMessage>) =>
+                setMessages((prev) => prev.map((m) => (m.id === streamingId ? { ...m, ...patch(m) } : m)));
+
+            try {
+                const response = await chatApi.streamMessage(request, {
+                    onSources: (sources) => update(() => ({ sources: sources.length > 0 ? sources : undefined })),
+                    onToken: (content) => update((m) => ({ content: m.content + content })),
+                });
+                update(() => ({ id: response.messageId, content: response.message, sources: response.sources }));
+                return response;
+            } catch (error) {
+                update((m) => ({ content: m.content || `请求失败：${(error as Error).message}` }));
+                throw error;
             }
         },
     });
 
+    // 首个 token 到达前显示“正在思考”
+    const waitingFirstToken = sendMutation.isPending && messages[messages.length - 1]?.content === '';
+
     const handleSend = () => {
         if (!input.trim() || sendMutation.isPending) return;
 
@@ -78,6 +89,17 @@ export default function ChatPage() {
         }
     };
 
+    // 输入停顿后预取检索结果，发送时服务端直接复用
+    useEffect(() => {
+        const draft = input.trim();
+        if (!useRAG || draft.length < PREFETCH_MIN_LENGTH) return;
+
+        const timer = setTimeout(() => {
+            chatApi.prefetch({ message: draft, conversationId, useRAG }).catch(() => undefined);
+        }, PREFETCH_DEBOUNCE_MS);
+        return () => clearTimeout(timer);
+    }, [input, useRAG, conversationId]);
+
     // 自动滚动到底部
     useEffect(() => {
         messagesEndRef.current?.scrollIntoView({ behavior: 'smooth' });
@@ -130,7 +152,7 @@ export default function ChatPage() {
                         </div>
                     </div>
                 ) : (
-                    messages.map((message, index) => (
+                    messages.filter((message) => message.content !== '').map((message, index) => (
                         <div
                             key={message.id}
                             className={`flex gap-4 animate-slide-up ${message.role === 'user' ? 'justify-end' : 'justify-start'}`}
@@ -182,7 +204,7 @@ export default function ChatPage() {
                         </div>
                     ))
                 )}
-                {sendMutation.isPending && (
+                {waitingFirstToken && (
                     <div className="flex gap-4 justify-start animate-slide-up">
                         <div className="flex-shrink-0 relative">
                             <div className="absolute inset-0 bg-gradient-to-br from-primary-400 to-indigo-500 rounded-full blur-lg opacity-50 animate-pulse-slow" />
@@ -6,7 +6,7 @@
  */
 
 import axios from 'axios';
-import type { ApiResponse, ChatRequest, ChatResponse, Conversation, ConversationDetail, Document, PageResponse } from '../types';
+import type { ApiResponse, ChatRequest, ChatResponse, Conversation, ConversationDetail, Document, MessageSource, PageResponse } from '../types';
 
 // 使用 Mock API（前端独立开发模式）
 const USE_MOCK_API = false; // 设置为 false 时使用真实 API
@@ -14,6 +14,20 @@ const USE_MOCK_API = false; // 设置为 false 时使用真实 API
 // Mock API 导入
 import { mockChatApi, mockDocumentApi } from './mockApi';
 
+/**
+ * 当前标签页的会话ID：后端据此把本会话的读请求在写入后短时间内路由到主库（读你所写），不影响其他会话
+ */
+const SESSION_ID_KEY = 'ai-agent-session-id';
+
+function sessionId(): string {
+    let id = sessionStorage.getItem(SESSION_ID_KEY);
+    if (!id) {
+        id = crypto.randomUUID();
+        sessionStorage.setItem(SESSION_ID_KEY, id);
+    }
+    return id;
+}
+
 const api = axios.create({
     baseURL: '/api',
     timeout: 60000,
@@ -26,6 +40,7 @@ const api = axios.create({
 api.interceptors.request.use(
     (config) => {
         // 可以在这里添加 token 等
+        config.headers['X-Session-Id'] = sessionId();
         return config;
     },
     (error) => {
@@ -44,6 +59,31 @@ api.interceptors.response.use(
     }
 );
 
+/**
+ * 流式对话回调
+ */
+export interface ChatStreamHandlers {
+    onSources?: (sources: MessageSource[]) => void;
+    onToken?: (content: string) => void;
+    signal?: AbortSignal;
+}
+
+/**
+ * 解析一个 SSE 事件块（event: / data: 行）
+ */
+function parseSseEvent(block: string): { name: string; data: string } | null {
+    let name = 'message';
+    const data: string[] = [];
+    for (const line of block.split('\n')) {
+        if (line.startsWith('event:')) {
+            name = line.slice(6).trim();
+        } else if (line.startsWith('data:')) {
+            data.push(line.slice(5));
+        }
+    }
+    return data.length > 0 ? { name, data: data.join('\n') } : null;
+}
+
 /**
  * 对话 API
  */
@@ -58,6 +98,72 @@ export const chatApi = {
         return api.post('/chat', request);
     },
 
+    /**
+     * 流式发送消息（SSE）：先回调参考来源，再逐段回调回复内容，结束时返回完整响应
+     */
+    streamMessage: async (request: ChatRequest, handlers: ChatStreamHandlers): Promise<ChatResponse> => {
+        if (USE_MOCK_API) {
+            const response = await mockChatApi.sendMessage(request);
+            handlers.onSources?.(response.data?.sources ?? []);
+            handlers.onToken?.(response.data?.message ?? '');
+            return response.data!;
+        }
+
+        const response = await fetch('/api/chat/stream', {
+            method: 'POST',
+            headers: {
+                'Content-Type': 'application/json',
+                Accept: 'text/event-stream',
+                'X-Session-Id': sessionId(),
+            },
+            body: JSON.stringify(request),
+            signal: handlers.signal,
+        });
+        if (!response.ok || !response.body) {
+            throw new Error(`流式对话请求失败: ${response.status}`);
+        }
+
+        const reader = response.body.getReader();
+        const decoder = new TextDecoder();
+        let buffer = '';
+        for (;;) {
+            const { done, value } = await reader.read();
+            if (done) break;
+            buffer += decoder.decode(value, { stream: true });
+
+            // 事件之间以空行分隔
+            let boundary = buffer.indexOf('\n\n');
+            while (boundary >= 0) {
+                const event = parseSseEvent(buffer.slice(0, boundary));
+                buffer = buffer.slice(boundary + 2);
+                boundary = buffer.indexOf('\n\n');
+                if (!event) continue;
+
+                const data = JSON.parse(event.data);
+                if (event.name === 'sources') {
+                    handlers.onSources?.(data);
+                } else if (event.name === 'token') {
+                    handlers.onToken?.(data.content);
+                } else if (event.name === 'done') {
+                    return data as ChatResponse;
+                } else if (event.name === 'error') {
+                    throw new Error(data.message);
+                }
+            }
+        }
+        throw new Error('流式对话连接提前结束');
+    },
+
+    /**
+     * 预取检索结果（输入过程中防抖调用，失败不影响发送）
+     */
+    prefetch: (request: ChatRequest): Promise<ApiResponse> => {
+        if (USE_MOCK_API) {
+            return Promise.resolve({ success: true } as ApiResponse);
+        }
+        return api.post('/chat/prefetch', request);
+    },
+
     /**
      * 获取对话列表
      */
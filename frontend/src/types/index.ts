@@ -45,6 +45,7 @@ export interface ChatRequest {
     message: string;
     conversationId?: string;
     useRAG?: boolean;
+    useCache?: boolean;
     useAgent?: boolean;
     temperature?: number;
     maxTokens?: number;
@@ -62,6 +63,8 @@ export interface ChatResponse {
         model: string;
         tokens: number;
         responseTime: number;
+        firstTokenTime?: number;
+        cache?: 'exact' | 'semantic';
     };
 }
 